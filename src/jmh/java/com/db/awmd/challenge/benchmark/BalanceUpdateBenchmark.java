@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.benchmark;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnitAccount;
+import com.db.awmd.challenge.repository.OffHeapAccountsRepository;
+import com.db.awmd.challenge.repository.OffHeapAccountsRepository.OffHeapAccount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single uncontended balance update for each balance representation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class BalanceUpdateBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("1.25");
+
+    private Account account;
+    private MinorUnitAccount minorUnitAccount;
+    private OffHeapAccountsRepository offHeapRepository;
+    private OffHeapAccount offHeapAccount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        account = new Account("Id-1", BigDecimal.ZERO);
+        minorUnitAccount = new MinorUnitAccount("Id-1", BigDecimal.ZERO, 2);
+        offHeapRepository = new OffHeapAccountsRepository(16, 2);
+        offHeapRepository.createAccount(new Account("Id-1", BigDecimal.ZERO));
+        offHeapAccount = (OffHeapAccount) offHeapRepository.getAccount("Id-1");
+    }
+
+    @Benchmark
+    public void account_setBalance() {
+        account.setBalance(account.getBalance().add(AMOUNT));
+    }
+
+    @Benchmark
+    public void minorUnitAccount_credit() {
+        minorUnitAccount.credit(minorUnitAccount.toMinorUnits(AMOUNT));
+    }
+
+    @Benchmark
+    public void offHeapAccount_credit() {
+        offHeapAccount.credit(offHeapAccount.toMinorUnits(AMOUNT));
+    }
+
+    @Benchmark
+    public void offHeapAccount_setBalance() {
+        offHeapAccount.setBalance(offHeapAccount.getBalance().add(AMOUNT));
+    }
+}
@@ -0,0 +1,126 @@
+package com.db.awmd.challenge.benchmark;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.journal.AccountJournal;
+import com.db.awmd.challenge.journal.NoOpAccountJournal;
+import com.db.awmd.challenge.ledger.TransactionLedger;
+import com.db.awmd.challenge.loadtest.AccountPicker;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AdmissionControl;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BackpressurePolicy;
+import com.db.awmd.challenge.service.HotAccounts;
+import com.db.awmd.challenge.service.LockingTransferEngine;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.stats.AccountStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transaction of {@code legs} transfers applied with
+ * {@link TransactionService#transferMultiLeg(MultiLegTransaction)}, against the same legs applied one
+ * {@link TransactionService#transferMoney(Transaction)} at a time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class MultiLegBenchmark {
+
+    @Param({"10000"})
+    int accounts;
+
+    @Param({"3", "8"})
+    int legs;
+
+    TransactionService transactionService;
+    AccountPicker picker;
+    private NotificationDispatcher notificationDispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Metrics metrics = new Metrics();
+        AccountLocks accountLocks = new AccountLocks(1024, 5000, metrics);
+        AccountJournal accountJournal = new NoOpAccountJournal();
+        LockingTransferEngine transferEngine = new LockingTransferEngine(accountLocks,
+                new HotAccounts(new String[0], false, 16, 2, 100, 1000, metrics), accountJournal);
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        AccountsService accountsService = new AccountsService(accountsRepository, transferEngine, accountLocks,
+                accountJournal, Collections.singletonList(new AccountStatistics(accountsRepository, 100, 0, metrics)),
+                metrics);
+        for (int i = 0; i < accounts; i++) {
+            accountsService.createAccount(new Account(AccountPicker.accountId(i), new BigDecimal(1_000_000_000)));
+        }
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { }, 65536, 1, 256,
+                BackpressurePolicy.DROP_OLDEST, 1000, 0, false, metrics);
+        transactionService = new TransactionService(accountsService, transferEngine, accountJournal,
+                notificationDispatcher, new TransactionLedger(true, 4_194_304, metrics), 10000,
+                new AdmissionControl(0, 0, 1, new String[0], metrics), metrics);
+        picker = new AccountPicker(accounts, 0.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        notificationDispatcher.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Transactions {
+
+        private MultiLegTransaction[] transactions;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(MultiLegBenchmark benchmark, ThreadParams thread) {
+            Transaction[] transfers = benchmark.picker.transactions(benchmark.legs << 12, thread.getThreadIndex());
+            transactions = new MultiLegTransaction[1 << 12];
+            for (int i = 0; i < transactions.length; i++) {
+                transactions[i] = new MultiLegTransaction(
+                        Arrays.asList(transfers).subList(i * benchmark.legs, (i + 1) * benchmark.legs));
+            }
+        }
+
+        MultiLegTransaction next() {
+            MultiLegTransaction transaction = transactions[next];
+            next = (next + 1) & (transactions.length - 1);
+            return transaction;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void multiLeg(Transactions transactions) {
+        transactionService.transferMultiLeg(transactions.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sequential(Transactions transactions) {
+        for (Transaction leg : transactions.next().getLegs()) {
+            transactionService.transferMoney(leg);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.db.awmd.challenge.benchmark;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.loadtest.AccountPicker;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.OffHeapAccountsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account lookups in a populated repository, and account creation in an empty one, for the heap and off-heap
+ * repositories.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    private static final int CREATE_BATCH = 100_000;
+
+    @Param({"heap", "offheap"})
+    String repository;
+
+    @Param({"1000000"})
+    int accounts;
+
+    AccountsRepository accountsRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountsRepository = newRepository(accounts);
+        for (int i = 0; i < accounts; i++) {
+            accountsRepository.createAccount(new Account(AccountPicker.accountId(i), BigDecimal.TEN));
+        }
+    }
+
+    /**
+     * Every create iteration starts from an empty repository.
+     */
+    @State(Scope.Thread)
+    public static class Creates {
+
+        private final String[] accountIds = new String[CREATE_BATCH];
+        private AccountsRepository emptyRepository;
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(RepositoryBenchmark benchmark) {
+            for (int i = 0; i < CREATE_BATCH; i++) {
+                accountIds[i] = "New-" + i;
+            }
+            emptyRepository = benchmark.newRepository(CREATE_BATCH);
+            next = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lookups {
+
+        private String[] accountIds;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(RepositoryBenchmark benchmark, ThreadParams thread) {
+            accountIds = new AccountPicker(benchmark.accounts, 0).accountIds(1 << 16, thread.getThreadIndex());
+        }
+
+        String next() {
+            String accountId = accountIds[next];
+            next = (next + 1) & (accountIds.length - 1);
+            return accountId;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Account getAccount_1thread(Lookups lookups) {
+        return accountsRepository.getAccount(lookups.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Account getAccount_4threads(Lookups lookups) {
+        return accountsRepository.getAccount(lookups.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = CREATE_BATCH)
+    @Measurement(iterations = 10, batchSize = CREATE_BATCH)
+    @Threads(1)
+    public void createAccount(Creates creates) {
+        creates.emptyRepository.createAccount(new Account(creates.accountIds[creates.next++], BigDecimal.TEN));
+    }
+
+    private AccountsRepository newRepository(int capacity) {
+        return "offheap".equals(repository) ? new OffHeapAccountsRepository(capacity, 2)
+                : new AccountsRepositoryInMemory();
+    }
+}
@@ -0,0 +1,134 @@
+package com.db.awmd.challenge.benchmark;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.journal.AccountJournal;
+import com.db.awmd.challenge.journal.NoOpAccountJournal;
+import com.db.awmd.challenge.ledger.TransactionLedger;
+import com.db.awmd.challenge.loadtest.AccountPicker;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AdmissionControl;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.BackpressurePolicy;
+import com.db.awmd.challenge.service.CasTransferEngine;
+import com.db.awmd.challenge.service.HotAccounts;
+import com.db.awmd.challenge.service.LockingTransferEngine;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.service.TransferEngine;
+import com.db.awmd.challenge.stats.AccountStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TransactionService#transferMoney(Transaction)} between accounts picked uniformly or with a Zipf skew, so a
+ * few hot accounts take most of the transfers. Notifications are either disabled or delivered to a service that
+ * only renders them, on a queue that drops the oldest entries rather than blocking the measured threads. The
+ * {@code locking-hot} engine promotes contended accounts to striped sub-balances, see {@link HotAccounts}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    @Param({"10000"})
+    int accounts;
+
+    @Param({"uniform", "zipf"})
+    String distribution;
+
+    @Param({"locking", "locking-hot", "cas"})
+    String engine;
+
+    @Param({"true", "false"})
+    boolean notifications;
+
+    TransactionService transactionService;
+    AccountPicker picker;
+    private NotificationDispatcher notificationDispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Metrics metrics = new Metrics();
+        AccountLocks accountLocks = new AccountLocks(1024, 5000, metrics);
+        HotAccounts hotAccounts = new HotAccounts(new String[0], "locking-hot".equals(engine), 16, 2, 100, 1000,
+                metrics);
+        AccountJournal accountJournal = new NoOpAccountJournal();
+        TransferEngine transferEngine = "cas".equals(engine) ? new CasTransferEngine(accountJournal, 2)
+                : new LockingTransferEngine(accountLocks, hotAccounts, accountJournal);
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        AccountsService accountsService = new AccountsService(accountsRepository, transferEngine, accountLocks,
+                accountJournal, Collections.singletonList(new AccountStatistics(accountsRepository, 100, 0, metrics)),
+                metrics);
+        for (int i = 0; i < accounts; i++) {
+            accountsService.createAccount(new Account(AccountPicker.accountId(i), new BigDecimal(1_000_000_000)));
+        }
+        notificationDispatcher = new NotificationDispatcher((account, description) -> { }, 65536, 1, 256,
+                BackpressurePolicy.DROP_OLDEST, 1000, 0, notifications, metrics);
+        transactionService = new TransactionService(accountsService, transferEngine, accountJournal,
+                notificationDispatcher, new TransactionLedger(true, 4_194_304, metrics), 10000,
+                new AdmissionControl(0, 0, 1, new String[0], metrics), metrics);
+        picker = new AccountPicker(accounts, "zipf".equals(distribution) ? 1.0 : 0.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        notificationDispatcher.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class Transfers {
+
+        private Transaction[] transactions;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp(TransferBenchmark benchmark, ThreadParams thread) {
+            transactions = benchmark.picker.transactions(1 << 16, thread.getThreadIndex());
+        }
+
+        Transaction next() {
+            Transaction transaction = transactions[next];
+            next = (next + 1) & (transactions.length - 1);
+            return transaction;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void transfer_1thread(Transfers transfers) {
+        transactionService.transferMoney(transfers.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void transfer_4threads(Transfers transfers) {
+        transactionService.transferMoney(transfers.next());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void transfer_16threads(Transfers transfers) {
+        transactionService.transferMoney(transfers.next());
+    }
+}
@@ -0,0 +1,76 @@
+package com.db.awmd.challenge.loadtest;
+
+import com.db.awmd.challenge.domain.Transaction;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks accounts uniformly or following a Zipf distribution, where the account of rank k is chosen with a
+ * probability proportional to 1 / k^skew. Shared by the load harness and the benchmarks, which generate their picks
+ * up front so that they do not measure them.
+ */
+public final class AccountPicker {
+
+    private final int accounts;
+    private final double[] cumulative;
+
+    /**
+     * @param skew 0 for a uniform distribution, typically 1 for a Zipf one
+     */
+    public AccountPicker(int accounts, double skew) {
+        this.accounts = accounts;
+        if (skew == 0) {
+            this.cumulative = null;
+            return;
+        }
+        this.cumulative = new double[accounts];
+        double total = 0;
+        for (int k = 0; k < accounts; k++) {
+            total += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < accounts; k++) {
+            cumulative[k] /= total;
+        }
+    }
+
+    public static String accountId(int index) {
+        return "Id-" + index;
+    }
+
+    public int pick(Random random) {
+        if (cumulative == null) {
+            return random.nextInt(accounts);
+        }
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, accounts - 1);
+    }
+
+    /**
+     * @return transfers of 1 between two distinct picked accounts
+     */
+    public Transaction[] transactions(int count, long seed) {
+        Random random = new Random(seed);
+        Transaction[] transactions = new Transaction[count];
+        for (int i = 0; i < count; i++) {
+            int from = pick(random);
+            int to = pick(random);
+            while (to == from) {
+                to = pick(random);
+            }
+            transactions[i] = new Transaction(accountId(from), accountId(to), BigDecimal.ONE);
+        }
+        return transactions;
+    }
+
+    public String[] accountIds(int count, long seed) {
+        Random random = new Random(seed);
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = accountId(pick(random));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,110 @@
+package com.db.awmd.challenge.loadtest;
+
+import com.db.awmd.challenge.domain.Transaction;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal blocking client of the accounts and transactions endpoints. Response bodies are always read to the end so
+ * the JDK keeps the connection alive for the next request of the same thread.
+ */
+final class ChallengeClient {
+
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final String baseUrl;
+    private final ObjectMapper objectMapper;
+
+    ChallengeClient(String baseUrl, ObjectMapper objectMapper) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.objectMapper = objectMapper;
+    }
+
+    Response createAccount(String accountId, BigDecimal balance) throws IOException {
+        ObjectNode account = objectMapper.createObjectNode();
+        account.put("accountId", accountId);
+        account.put("balance", balance);
+        return send("POST", "/v1/accounts", objectMapper.writeValueAsBytes(account));
+    }
+
+    Response transfer(Transaction transaction) throws IOException {
+        return send("POST", "/v1/transactions", objectMapper.writeValueAsBytes(transaction));
+    }
+
+    /**
+     * @throws IOException if the account cannot be read, the balance check must not skip accounts
+     */
+    BigDecimal balance(String accountId) throws IOException {
+        Response response = send("GET", "/v1/accounts/" + accountId, null);
+        if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Reading account " + accountId + " failed with status " + response.getStatus()
+                    + ": " + response.getBody());
+        }
+        JsonNode balance = objectMapper.readTree(response.getBody()).get("balance");
+        if (balance == null || balance.isNull()) {
+            throw new IOException("Account " + accountId + " has no balance: " + response.getBody());
+        }
+        return balance.decimalValue();
+    }
+
+    private Response send(String method, String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        return new Response(status, in == null ? "" : readFully(in));
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = stream.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static final class Response {
+
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.db.awmd.challenge.loadtest;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link LoadHarness} against a partitioned cluster of {@code --nodes} JVMs started on free ports of
+ * localhost, each owning its part of the accounts. The harness talks to the first node only, so transfers are
+ * forwarded and coordinated across nodes as they would be behind a client unaware of the partitioning. Arguments the
+ * launcher and the harness do not know are passed on to every node. Run it with
+ * {@code ./gradlew cluster -PclusterArgs="--nodes=3 --clients=64"}.
+ */
+public final class ClusterLauncher {
+
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private ClusterLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = 3;
+        List<String> otherArgs = new ArrayList<>();
+        List<String> nodeArgs = new ArrayList<>();
+        nodeArgs.add("--logging.level.com.db.awmd.challenge=WARN");
+        nodeArgs.add("--cluster.secret=" + UUID.randomUUID());
+        for (String arg : args) {
+            if (arg.startsWith("--nodes=")) {
+                nodes = Integer.parseInt(arg.substring("--nodes=".length()));
+            } else {
+                otherArgs.add(arg);
+            }
+        }
+        Map<String, String> options = LoadHarness.parseOptions(otherArgs.toArray(new String[0]), nodeArgs);
+
+        int[] ports = new int[nodes];
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            ports[i] = freePort();
+            urls.add("http://localhost:" + ports[i]);
+        }
+        List<Process> processes = new ArrayList<>();
+        boolean passed;
+        try {
+            for (int i = 0; i < nodes; i++) {
+                processes.add(startNode(ports[i], String.join(",", urls), i, nodeArgs));
+            }
+            for (int port : ports) {
+                awaitPort(port);
+            }
+            System.out.printf("Cluster of %d nodes up: %s%n", nodes, urls);
+            passed = new LoadHarness(options, urls.get(0)).run();
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor(30, TimeUnit.SECONDS);
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Process startNode(int port, String nodes, int self, List<String> nodeArgs) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DevChallengeApplication.class.getName());
+        command.add("--server.port=" + port);
+        command.add("--cluster.nodes=" + nodes);
+        command.add("--cluster.self=" + self);
+        command.addAll(nodeArgs);
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Node on port " + port + " did not start", e);
+                }
+                Thread.sleep(200);
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.db.awmd.challenge.loadtest;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the transfer endpoint. Creates accounts through {@code POST /v1/accounts}, drives
+ * {@code POST /v1/transactions} from concurrent closed-loop clients picking accounts uniformly or with a Zipf skew,
+ * then reports throughput, latency percentiles and outcomes, and checks that the balances of all accounts still add
+ * up to what they were created with. Exits with status 1 when money was lost or created, or a request failed.
+ * <p>
+ * Without {@code --url} the application is started in process on the port of {@code application.yml}, arguments the
+ * harness does not know are passed on to it, e.g. {@code --transfer.engine=cas}. Run it with
+ * {@code ./gradlew loadtest -PloadtestArgs="--clients=64 --distribution=zipf"}.
+ */
+public final class LoadHarness {
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("url", "");
+        DEFAULTS.put("accounts", "10000");
+        DEFAULTS.put("clients", "32");
+        DEFAULTS.put("warmup-seconds", "5");
+        DEFAULTS.put("duration-seconds", "30");
+        DEFAULTS.put("distribution", "uniform");
+        DEFAULTS.put("skew", "1.0");
+        DEFAULTS.put("initial-balance", "1000");
+        DEFAULTS.put("max-amount", "10");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("histogram-file", "");
+    }
+
+    private final Map<String, String> options;
+    private final ChallengeClient client;
+    private final String[] accountIds;
+    private final AccountPicker picker;
+    private final BigDecimal initialBalance;
+    private final int maxAmountCents;
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    LoadHarness(Map<String, String> options, String baseUrl) {
+        this.options = options;
+        this.client = new ChallengeClient(baseUrl, new ObjectMapper());
+        int accounts = intOption("accounts");
+        this.accountIds = new String[accounts];
+        String prefix = "load-" + System.currentTimeMillis() + "-";
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = prefix + i;
+        }
+        double skew = "zipf".equals(options.get("distribution")) ? Double.parseDouble(options.get("skew")) : 0;
+        this.picker = new AccountPicker(accounts, skew);
+        this.initialBalance = new BigDecimal(options.get("initial-balance"));
+        this.maxAmountCents = intOption("max-amount") * 100;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> applicationArgs = new ArrayList<>();
+        applicationArgs.add("--logging.level.com.db.awmd.challenge=WARN");
+        Map<String, String> options = parseOptions(args, applicationArgs);
+
+        ConfigurableApplicationContext context = null;
+        String url = options.get("url");
+        if (url.isEmpty()) {
+            context = SpringApplication.run(DevChallengeApplication.class, applicationArgs.toArray(new String[0]));
+            url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+        boolean passed;
+        try {
+            passed = new LoadHarness(options, url).run();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @param otherArgs receives the arguments the harness does not know
+     * @return the options of the harness, defaults included
+     */
+    static Map<String, String> parseOptions(String[] args, List<String> otherArgs) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 0 ? arg.substring(2, equals) : null;
+            if (name != null && DEFAULTS.containsKey(name)) {
+                options.put(name, arg.substring(equals + 1));
+            } else {
+                otherArgs.add(arg);
+            }
+        }
+        return options;
+    }
+
+    boolean run() throws Exception {
+        int clients = intOption("clients");
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            BigDecimal expected = createAccounts(executor, clients);
+            Result result = drive(executor, clients);
+            BigDecimal actual = sumBalances(executor, clients);
+            result.report(System.out);
+            writeHistogram(result.latencies);
+
+            boolean conserved = actual.compareTo(expected) == 0;
+            System.out.printf("Balance check: total %s, expected %s, %s%n", actual.toPlainString(),
+                    expected.toPlainString(), conserved ? "OK" : "MISMATCH of " + actual.subtract(expected));
+            return conserved && result.counts[Outcome.FAILED.ordinal()] == 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BigDecimal createAccounts(ExecutorService executor, int clients) throws Exception {
+        long start = System.nanoTime();
+        List<Future<?>> creators = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int first = c;
+            creators.add(executor.submit(() -> {
+                for (int i = first; i < accountIds.length; i += clients) {
+                    ChallengeClient.Response response = client.createAccount(accountIds[i], initialBalance);
+                    if (response.getStatus() != HttpURLConnection.HTTP_CREATED) {
+                        throw new IOException("Creating account " + accountIds[i] + " failed with status "
+                                + response.getStatus() + ": " + response.getBody());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> creator : creators) {
+            creator.get();
+        }
+        System.out.printf("Created %d accounts in %d ms%n", accountIds.length,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return initialBalance.multiply(BigDecimal.valueOf(accountIds.length));
+    }
+
+    private Result drive(ExecutorService executor, int clients) throws Exception {
+        List<Future<Result>> workers = new ArrayList<>();
+        long seed = Long.parseLong(options.get("seed"));
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(seed + c);
+            workers.add(executor.submit(() -> transferLoop(random)));
+        }
+        TimeUnit.SECONDS.sleep(intOption("warmup-seconds"));
+        long start = System.nanoTime();
+        measuring = true;
+        TimeUnit.SECONDS.sleep(intOption("duration-seconds"));
+        running = false;
+        long elapsed = System.nanoTime() - start;
+
+        Result total = new Result();
+        for (Future<Result> worker : workers) {
+            total.add(worker.get());
+        }
+        total.elapsedNanos = elapsed;
+        return total;
+    }
+
+    private Result transferLoop(Random random) {
+        Result result = new Result();
+        while (running) {
+            int from = picker.pick(random);
+            int to = picker.pick(random);
+            if (from == to) {
+                continue;
+            }
+            Transaction transaction = new Transaction(accountIds[from], accountIds[to],
+                    BigDecimal.valueOf(random.nextInt(maxAmountCents) + 1, 2));
+            boolean recorded = measuring;
+            long start = System.nanoTime();
+            Outcome outcome;
+            String failure;
+            try {
+                ChallengeClient.Response response = client.transfer(transaction);
+                outcome = Outcome.of(response);
+                failure = response.getStatus() + " " + response.getBody();
+            } catch (IOException e) {
+                outcome = Outcome.FAILED;
+                failure = e.toString();
+            }
+            if (recorded && running) {
+                result.record(outcome, System.nanoTime() - start);
+                if (outcome == Outcome.FAILED && result.firstFailure == null) {
+                    result.firstFailure = failure;
+                }
+            }
+        }
+        return result;
+    }
+
+    private BigDecimal sumBalances(ExecutorService executor, int clients) throws Exception {
+        List<Future<BigDecimal>> readers = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int first = c;
+            readers.add(executor.submit(() -> {
+                BigDecimal sum = BigDecimal.ZERO;
+                for (int i = first; i < accountIds.length; i += clients) {
+                    BigDecimal balance = client.balance(accountIds[i]);
+                    if (balance.signum() < 0) {
+                        System.out.printf("Account %s has a negative balance %s%n", accountIds[i], balance);
+                    }
+                    sum = sum.add(balance);
+                }
+                return sum;
+            }));
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (Future<BigDecimal> reader : readers) {
+            total = total.add(reader.get());
+        }
+        return total;
+    }
+
+    private void writeHistogram(Histogram latencies) throws IOException {
+        String file = options.get("histogram-file");
+        if (file.isEmpty()) {
+            return;
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+            latencies.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Outcome counts and latencies, in microseconds, of the requests of one client or of all of them.
+     */
+    private static final class Result {
+
+        private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+        private final long[] counts = new long[Outcome.values().length];
+        private final Histogram latencies = new Histogram(3);
+        private long elapsedNanos;
+        private String firstFailure;
+
+        void record(Outcome outcome, long nanos) {
+            counts[outcome.ordinal()]++;
+            latencies.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+
+        void add(Result other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            latencies.add(other.latencies);
+            if (firstFailure == null) {
+                firstFailure = other.firstFailure;
+            }
+        }
+
+        void report(PrintStream out) {
+            long requests = Arrays.stream(counts).sum();
+            double seconds = elapsedNanos / 1e9;
+            out.printf("Transfers: %d in %.1f s, %.0f/s%n", requests, seconds, requests / seconds);
+            out.printf("  accepted %d, server busy %d, rate limited %d, insufficient balance %d, failed %d%n",
+                    counts[Outcome.ACCEPTED.ordinal()], counts[Outcome.SERVER_BUSY.ordinal()],
+                    counts[Outcome.RATE_LIMITED.ordinal()], counts[Outcome.INSUFFICIENT_BALANCE.ordinal()],
+                    counts[Outcome.FAILED.ordinal()]);
+            if (firstFailure != null) {
+                out.println("  first failure: " + firstFailure);
+            }
+            StringBuilder line = new StringBuilder("Latency ms:");
+            for (double percentile : PERCENTILES) {
+                String label = percentile % 1 == 0 ? String.valueOf((long) percentile) : String.valueOf(percentile);
+                line.append(String.format(" p%s %.3f", label, latencies.getValueAtPercentile(percentile) / 1000.0));
+            }
+            line.append(String.format(" max %.3f", latencies.getMaxValue() / 1000.0));
+            out.println(line);
+        }
+    }
+}
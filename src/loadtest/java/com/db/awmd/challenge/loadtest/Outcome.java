@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.loadtest;
+
+import java.net.HttpURLConnection;
+
+/**
+ * How a transfer request ended. Busy, rate limited and insufficient balance rejections are expected under load and
+ * reported apart from the failures, which point at a defect or an overloaded server.
+ */
+enum Outcome {
+    ACCEPTED,
+    SERVER_BUSY,
+    /** 429 from the admission limits, in flight or per account. */
+    RATE_LIMITED,
+    INSUFFICIENT_BALANCE,
+    FAILED;
+
+    static final String SERVER_BUSY_MESSAGE = "Server busy, please try again later";
+    static final String INSUFFICIENT_BALANCE_MESSAGE = "Insufficient balance";
+    /** Not among the {@link HttpURLConnection} constants. */
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    static Outcome of(ChallengeClient.Response response) {
+        if (response.getStatus() == HttpURLConnection.HTTP_ACCEPTED) {
+            return ACCEPTED;
+        }
+        if (response.getStatus() == HTTP_TOO_MANY_REQUESTS) {
+            return RATE_LIMITED;
+        }
+        if (response.getStatus() == HttpURLConnection.HTTP_BAD_REQUEST) {
+            if (response.getBody().contains(SERVER_BUSY_MESSAGE)) {
+                return SERVER_BUSY;
+            }
+            if (response.getBody().contains(INSUFFICIENT_BALANCE_MESSAGE)) {
+                return INSUFFICIENT_BALANCE;
+            }
+        }
+        return FAILED;
+    }
+}
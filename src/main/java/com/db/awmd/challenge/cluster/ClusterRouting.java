@@ -0,0 +1,235 @@
+package com.db.awmd.challenge.cluster;
+
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.net.ConnectException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Partitioned mode, in which every node of {@code cluster.nodes} owns the account ids of its ranges of a
+ * {@link HashRing}. Requests for an account of another node are forwarded to it as they came, with their body and
+ * the headers that affect the answer, and its answer is relayed back. A forwarded request is never forwarded again,
+ * so nodes disagreeing about the ring answer 503 rather than bounce a request around. A POST or PATCH the owner
+ * received but did not answer in time may have been applied: it answers 504 rather than 503, and is only safe to
+ * retry with an {@code Idempotency-Key} header, which is forwarded.
+ * <p>
+ * Calls between nodes under {@code /internal/} carry the shared {@code cluster.secret}, which the nodes require of
+ * them, since they move money no client asked for. With fewer than two nodes every account is local and nothing is
+ * forwarded.
+ */
+@Slf4j
+@Component
+public class ClusterRouting {
+
+    /**
+     * Marks a request forwarded by another node, its value is the address of that node.
+     */
+    public static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+
+    /**
+     * Carries {@code cluster.secret} on calls between nodes.
+     */
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private static final List<String> FORWARDED_REQUEST_HEADERS = Arrays.asList(HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.ACCEPT, HttpHeaders.IF_NONE_MATCH, "Idempotency-Key");
+    private static final List<String> DROPPED_RESPONSE_HEADERS = Arrays.asList(HttpHeaders.TRANSFER_ENCODING,
+            HttpHeaders.CONNECTION, HttpHeaders.CONTENT_LENGTH, "Keep-Alive");
+
+    private final List<String> nodes;
+    private final int self;
+    private final byte[] secret;
+    private final HashRing ring;
+    private final RestTemplate restTemplate;
+    private final LongAdder forwarded;
+    private final LongAdder unavailable;
+
+    @Autowired
+    public ClusterRouting(@Value("${cluster.nodes:}") String[] nodes,
+                          @Value("${cluster.self:0}") int self,
+                          @Value("${cluster.virtual-nodes:128}") int virtualNodes,
+                          @Value("${cluster.timeout-millis:2000}") int timeoutMillis,
+                          @Value("${cluster.secret:}") String secret,
+                          Metrics metrics) {
+        List<String> addresses = new ArrayList<>();
+        for (String node : nodes) {
+            String address = node.trim();
+            if (!address.isEmpty()) {
+                addresses.add(address.endsWith("/") ? address.substring(0, address.length() - 1) : address);
+            }
+        }
+        if (addresses.size() > 1 && (self < 0 || self >= addresses.size())) {
+            throw new IllegalArgumentException("cluster.self " + self + " is not the index of one of the "
+                    + addresses.size() + " cluster.nodes");
+        }
+        if (addresses.size() > 1 && secret.isEmpty()) {
+            throw new IllegalArgumentException("cluster.secret must be set when cluster.nodes has several nodes");
+        }
+        this.nodes = Collections.unmodifiableList(addresses);
+        this.self = self;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.ring = new HashRing(addresses.isEmpty() ? Collections.singletonList("local") : addresses,
+                virtualNodes);
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMillis);
+        requestFactory.setReadTimeout(timeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+        // Answers of other nodes are relayed as they are, errors included
+        this.restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) {
+                return false;
+            }
+        });
+        this.forwarded = metrics.counter("cluster_forwarded_total", "Requests forwarded to the owning node",
+                "outcome", "ok");
+        this.unavailable = metrics.counter("cluster_forwarded_total", "Requests forwarded to the owning node",
+                "outcome", "unavailable");
+        if (isPartitioned()) {
+            log.info("Partitioned mode, node {} of {}: {}", self, addresses.size(), addresses);
+        }
+    }
+
+    public boolean isPartitioned() {
+        return nodes.size() > 1;
+    }
+
+    /**
+     * @return address of the node owning the account
+     */
+    public String ownerOf(String accountId) {
+        return isPartitioned() ? nodes.get(ring.ownerOf(accountId)) : null;
+    }
+
+    /**
+     * @return true if the account belongs to another node
+     */
+    public boolean isRemote(String accountId) {
+        return accountId != null && isPartitioned() && ring.ownerOf(accountId) != self;
+    }
+
+    /**
+     * Checks that the accounts of a request touching several of them all belong to one node, ignoring missing ids.
+     * @return one of the accounts if that node is another one, to {@link #forward(String, byte[]) forward} the
+     * request with, or null if it is this node
+     * @throws InvalidArgumentException if the accounts belong to several nodes
+     */
+    public String remoteAccountOf(Collection<String> accountIds) {
+        if (!isPartitioned()) {
+            return null;
+        }
+        String first = null;
+        int owner = -1;
+        for (String accountId : accountIds) {
+            if (accountId == null) {
+                continue;
+            }
+            int node = ring.ownerOf(accountId);
+            if (first == null) {
+                first = accountId;
+                owner = node;
+            } else if (node != owner) {
+                throw new InvalidArgumentException("Accounts " + first + " and " + accountId + " belong to different"
+                        + " nodes, only single transfers move money between nodes");
+            }
+        }
+        return owner == self ? null : first;
+    }
+
+    /**
+     * Forwards the current request to the owner of the account.
+     * @param body the request body already read by the controller, null for none
+     * @return the answer of the owner, 503 if it cannot be reached, or 504 if a request that is not idempotent was
+     * sent and not answered, so that it may have been applied
+     */
+    public ResponseEntity<Object> forward(String accountId, byte[] body) {
+        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
+                .getRequest();
+        String owner = ownerOf(accountId);
+        if (request.getHeader(FORWARDED_HEADER) != null) {
+            return new ResponseEntity<>("Account " + accountId + " is not owned by node " + nodes.get(self),
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        String query = request.getQueryString();
+        URI uri = URI.create(owner + request.getRequestURI() + (query == null ? "" : "?" + query));
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : FORWARDED_REQUEST_HEADERS) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                headers.set(name, value);
+            }
+        }
+        headers.set(FORWARDED_HEADER, nodes.get(self));
+        ResponseEntity<byte[]> response;
+        try {
+            response = restTemplate.exchange(uri, HttpMethod.valueOf(request.getMethod()),
+                    new HttpEntity<>(body, headers), byte[].class);
+        } catch (RestClientException e) {
+            unavailable.increment();
+            log.warn("Forwarding to {} failed: {}", owner, e.getMessage());
+            if (isIdempotent(request.getMethod()) || e.getRootCause() instanceof ConnectException) {
+                return new ResponseEntity<>("Node " + owner + " unavailable", HttpStatus.SERVICE_UNAVAILABLE);
+            }
+            return new ResponseEntity<>("Node " + owner + " did not answer, the outcome is unknown: retry only with"
+                    + " the same Idempotency-Key", HttpStatus.GATEWAY_TIMEOUT);
+        }
+        forwarded.increment();
+        HttpHeaders relayed = new HttpHeaders();
+        response.getHeaders().forEach((name, values) -> {
+            if (DROPPED_RESPONSE_HEADERS.stream().noneMatch(name::equalsIgnoreCase)) {
+                relayed.put(name, values);
+            }
+        });
+        return new ResponseEntity<>(response.getBody(), relayed, response.getStatusCode());
+    }
+
+    /**
+     * @return true if the request comes from a node of the cluster, always false outside partitioned mode
+     */
+    public boolean isFromNode(HttpServletRequest request) {
+        String presented = request.getHeader(SECRET_HEADER);
+        return isPartitioned() && presented != null
+                && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isIdempotent(String method) {
+        return !"POST".equals(method) && !"PATCH".equals(method);
+    }
+
+    /**
+     * Posts a JSON body to another node.
+     * @throws RestClientException if the node cannot be reached, any answer is returned
+     */
+    public ResponseEntity<String> post(String node, String path, Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED_HEADER, nodes.get(self));
+        headers.set(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+        return restTemplate.postForEntity(URI.create(node + path), new HttpEntity<>(body, headers), String.class);
+    }
+}
@@ -0,0 +1,311 @@
+package com.db.awmd.challenge.cluster;
+
+import com.db.awmd.challenge.domain.CrossShardLeg;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfers between accounts owned by different nodes, coordinated by the owner of the debited account with a
+ * two-phase protocol:
+ * <ol>
+ * <li>the owner of the credited account is asked to prepare the credit and votes on it, an unknown account or an
+ * invalid amount votes no;</li>
+ * <li>the debit is then applied here, which also reserves the money: if it fails the credit is aborted;</li>
+ * <li>the decision is commit, and the credit is delivered until its owner acknowledges it. Commits carry the whole
+ * credit and are applied once per transfer id, so redelivery is harmless.</li>
+ * </ol>
+ * A participant only commits the credit it prepared under that transfer id, and forgets a prepared credit after a
+ * minute: a commit arriving later is refused and refunded like any other refusal.
+ * A credit its owner refuses for good at commit time is given back to the debited account, retried until it is
+ * applied. Credits and refunds move money already debited, so admission control does not apply to them. Money in
+ * flight is missing from both accounts until the commit lands. Pending commits are kept in memory, a coordinator
+ * that stops before delivering them loses the credit; the journal of each node records its own debit or credit only.
+ */
+@Slf4j
+@Component
+public class CrossShardTransfers implements DisposableBean {
+
+    public static final String PATH = "/internal/v1/cross-shard/";
+
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+    private static final int MAX_REMEMBERED_COMMITS = 100_000;
+    private static final int COMMIT_LOCKS = 64;
+
+    private final ClusterRouting clusterRouting;
+    private final AccountsService accountsService;
+    private final TransactionService transactionService;
+    private final ConcurrentMap<String, PendingCommit> pendingCommits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PreparedCredit> prepared = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> committed = new ConcurrentHashMap<>();
+    private final Queue<String> commitOrder = new ConcurrentLinkedQueue<>();
+    private final Object[] commitLocks = new Object[COMMIT_LOCKS];
+    private final LongAdder commits;
+    private final LongAdder aborts;
+    private final LongAdder refunds;
+    private final ScheduledExecutorService retries;
+
+    @Autowired
+    public CrossShardTransfers(ClusterRouting clusterRouting, AccountsService accountsService,
+                               TransactionService transactionService, Metrics metrics) {
+        this.clusterRouting = clusterRouting;
+        this.accountsService = accountsService;
+        this.transactionService = transactionService;
+        for (int i = 0; i < COMMIT_LOCKS; i++) {
+            commitLocks[i] = new Object();
+        }
+        String help = "Cross-shard transfers coordinated by this node, by outcome";
+        this.commits = metrics.counter("cross_shard_transfers_total", help, "outcome", "committed");
+        this.aborts = metrics.counter("cross_shard_transfers_total", help, "outcome", "aborted");
+        this.refunds = metrics.counter("cross_shard_transfers_total", help, "outcome", "refunded");
+        metrics.gauge("cross_shard_pending_commits", "Commits decided here and not acknowledged or refunded yet",
+                pendingCommits::size);
+        if (clusterRouting.isPartitioned()) {
+            this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cross-shard-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retries.scheduleWithFixedDelay(this::retryPending, RETRY_INTERVAL_MILLIS, RETRY_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.retries = null;
+        }
+    }
+
+    /**
+     * Moves the amount from an account of this node to an account of another node.
+     * @throws InvalidArgumentException if the other node refused the credit or the debit failed, nothing moved
+     * @throws TransactionFailureException if the other node could not be reached before the debit, nothing moved
+     * @throws OutcomeUnknownException if the debit was applied but not made durable, the credit is committed anyway
+     */
+    public void transfer(Transaction transaction) {
+        String node = clusterRouting.ownerOf(transaction.getAccountToId());
+        String transferId = UUID.randomUUID().toString();
+        CrossShardLeg credit = new CrossShardLeg(transaction.getAccountToId(), transaction.getAmount());
+
+        ResponseEntity<String> vote;
+        try {
+            vote = clusterRouting.post(node, PATH + transferId + "/prepare", credit);
+        } catch (RestClientException e) {
+            aborts.increment();
+            abort(node, transferId);
+            throw new TransactionFailureException("Node " + node + " unavailable", e);
+        }
+        if (!vote.getStatusCode().is2xxSuccessful()) {
+            aborts.increment();
+            if (vote.getStatusCode().is4xxClientError()) {
+                throw new InvalidArgumentException(vote.getBody());
+            }
+            throw new TransactionFailureException("Node " + node + " failed to prepare: " + vote.getBody());
+        }
+
+        OutcomeUnknownException debitUnknown = null;
+        try {
+            transactionService.withdraw(transaction.getAccountFromId(), transaction.getAmount());
+        } catch (OutcomeUnknownException e) {
+            // The debit is applied, only its durability is in doubt: the credit must follow
+            debitUnknown = e;
+        } catch (RuntimeException e) {
+            aborts.increment();
+            abort(node, transferId);
+            throw e;
+        }
+
+        pendingCommits.put(transferId, new PendingCommit(node, transaction.getAccountFromId(), credit));
+        deliver(transferId);
+        if (debitUnknown != null) {
+            throw debitUnknown;
+        }
+    }
+
+    /**
+     * Votes on a credit of an account of this node.
+     * @throws InvalidArgumentException to vote no
+     */
+    public void prepare(String transferId, CrossShardLeg credit) {
+        if (credit.getAccountId() == null || accountsService.getAccount(credit.getAccountId()) == null) {
+            throw new InvalidArgumentException("Invalid account Id " + credit.getAccountId());
+        }
+        if (credit.getAmount() == null || credit.getAmount().signum() <= 0) {
+            throw new InvalidArgumentException("Transaction amount must be positive.");
+        }
+        prepared.put(transferId, new PreparedCredit(credit, System.currentTimeMillis()));
+    }
+
+    /**
+     * Applies a credit the coordinator decided to commit, once per transfer id.
+     * @throws InvalidArgumentException if this credit was not prepared under the transfer id, or was aborted
+     */
+    public void commit(String transferId, CrossShardLeg credit) {
+        synchronized (commitLocks[(transferId.hashCode() & 0x7fffffff) % COMMIT_LOCKS]) {
+            if (committed.containsKey(transferId)) {
+                return;
+            }
+            PreparedCredit preparedCredit = prepared.get(transferId);
+            if (preparedCredit == null || !preparedCredit.matches(credit)) {
+                throw new InvalidArgumentException("Cross-shard transfer " + transferId
+                        + " has no prepared credit " + credit);
+            }
+            try {
+                transactionService.settleDeposit(credit.getAccountId(), credit.getAmount());
+            } catch (OutcomeUnknownException e) {
+                // Applied, so it must not be applied again when the coordinator redelivers the commit
+                log.error("Credit of cross-shard transfer {} applied but not made durable", transferId, e);
+            }
+            committed.put(transferId, Boolean.TRUE);
+        }
+        prepared.remove(transferId);
+        commitOrder.add(transferId);
+        while (committed.size() > MAX_REMEMBERED_COMMITS) {
+            committed.remove(commitOrder.poll());
+        }
+    }
+
+    public void abort(String transferId) {
+        prepared.remove(transferId);
+    }
+
+    private void abort(String node, String transferId) {
+        try {
+            clusterRouting.post(node, PATH + transferId + "/abort", null);
+        } catch (RestClientException e) {
+            log.warn("Abort of cross-shard transfer {} not delivered to {}: {}", transferId, node, e.getMessage());
+        }
+    }
+
+    /**
+     * Delivers a pending commit once. It stays pending if the owner could not be reached or asked to retry, and is
+     * refunded if the owner refused it. A refund that could not be applied stays pending as such and is retried.
+     */
+    private void deliver(String transferId) {
+        PendingCommit pending = pendingCommits.get(transferId);
+        if (pending == null) {
+            return;
+        }
+        if (pending.refused) {
+            if (pendingCommits.remove(transferId, pending)) {
+                refund(transferId, pending);
+            }
+            return;
+        }
+        ResponseEntity<String> response;
+        try {
+            response = clusterRouting.post(pending.node, PATH + transferId + "/commit", pending.credit);
+        } catch (RestClientException e) {
+            log.warn("Commit of cross-shard transfer {} not delivered to {}, retrying: {}", transferId,
+                    pending.node, e.getMessage());
+            return;
+        }
+        HttpStatus status = response.getStatusCode();
+        if (status.is2xxSuccessful()) {
+            if (pendingCommits.remove(transferId, pending)) {
+                commits.increment();
+            }
+        } else if (status.is4xxClientError() && status != HttpStatus.TOO_MANY_REQUESTS
+                && pendingCommits.remove(transferId, pending)) {
+            log.error("Commit of cross-shard transfer {} refused by {}: {}, refunding {}", transferId, pending.node,
+                    response.getBody(), pending.accountFromId);
+            refund(transferId, pending.refused());
+        }
+    }
+
+    /**
+     * Gives the amount of a refused commit back to the debited account, or puts it back to pending to retry if it
+     * could not be applied. A refund applied but not made durable is not applied again.
+     */
+    private void refund(String transferId, PendingCommit refused) {
+        try {
+            transactionService.settleDeposit(refused.accountFromId, refused.credit.getAmount());
+        } catch (OutcomeUnknownException e) {
+            log.error("Refund of cross-shard transfer {} applied but not made durable", transferId, e);
+        } catch (RuntimeException e) {
+            log.warn("Refund of cross-shard transfer {} to {} failed, retrying: {}", transferId,
+                    refused.accountFromId, e.getMessage());
+            pendingCommits.put(transferId, refused);
+            return;
+        }
+        refunds.increment();
+    }
+
+    private void retryPending() {
+        try {
+            pendingCommits.keySet().forEach(this::deliver);
+            long expired = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1);
+            prepared.values().removeIf(credit -> credit.preparedAt < expired);
+        } catch (RuntimeException e) {
+            log.error("Retrying cross-shard commits failed", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (retries != null) {
+            retries.shutdownNow();
+        }
+        if (!pendingCommits.isEmpty()) {
+            log.error("{} cross-shard commits not delivered: {}", pendingCommits.size(), pendingCommits.keySet());
+        }
+    }
+
+    private static final class PreparedCredit {
+
+        private final CrossShardLeg credit;
+        private final long preparedAt;
+
+        private PreparedCredit(CrossShardLeg credit, long preparedAt) {
+            this.credit = credit;
+            this.preparedAt = preparedAt;
+        }
+
+        private boolean matches(CrossShardLeg other) {
+            return credit.getAccountId().equals(other.getAccountId()) && other.getAmount() != null
+                    && credit.getAmount().compareTo(other.getAmount()) == 0;
+        }
+    }
+
+    private static final class PendingCommit {
+
+        private final String node;
+        private final String accountFromId;
+        private final CrossShardLeg credit;
+        /** The owner refused the commit, the amount is to be refunded rather than delivered. */
+        private final boolean refused;
+
+        private PendingCommit(String node, String accountFromId, CrossShardLeg credit) {
+            this(node, accountFromId, credit, false);
+        }
+
+        private PendingCommit(String node, String accountFromId, CrossShardLeg credit, boolean refused) {
+            this.node = node;
+            this.accountFromId = accountFromId;
+            this.credit = credit;
+            this.refused = refused;
+        }
+
+        private PendingCommit refused() {
+            return new PendingCommit(node, accountFromId, credit, true);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.db.awmd.challenge.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring placing every node at a number of virtual points, an account belongs to the node of the first
+ * point at or after the hash of its id. Points are derived from the node addresses with a hash that does not depend
+ * on the JVM, so every node computes the same ring; adding a node only moves the ids of the ranges it takes over.
+ */
+public final class HashRing {
+
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(List<String> nodes, int virtualNodes) {
+        long[][] placed = new long[nodes.size() * virtualNodes][];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                placed[node * virtualNodes + v] = new long[] {hash(nodes.get(node) + "#" + v), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[placed.length];
+        this.owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    /**
+     * @return index of the node owning the id, in the order the nodes were given
+     */
+    public int ownerOf(String accountId) {
+        int index = Arrays.binarySearch(points, hash(accountId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mix so nearby ids spread over the ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
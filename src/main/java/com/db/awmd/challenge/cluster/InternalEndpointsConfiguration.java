@@ -0,0 +1,43 @@
+package com.db.awmd.challenge.cluster;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Endpoints under {@code /internal/} are called by the other nodes only and answer 403 to requests without the
+ * cluster secret, see {@link ClusterRouting#isFromNode(HttpServletRequest)}.
+ */
+@Configuration
+public class InternalEndpointsConfiguration extends WebMvcConfigurerAdapter {
+
+    private final ClusterRouting clusterRouting;
+
+    public InternalEndpointsConfiguration(ClusterRouting clusterRouting) {
+        this.clusterRouting = clusterRouting;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws IOException {
+                if (clusterRouting.isFromNode(request)) {
+                    return true;
+                }
+                response.setStatus(HttpStatus.FORBIDDEN.value());
+                response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+                response.getWriter().write("Internal endpoint, only the nodes of the cluster may call it");
+                return false;
+            }
+        }).addPathPatterns("/internal/**");
+    }
+}
@@ -1,11 +1,15 @@
 package com.db.awmd.challenge.domain;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import org.hibernate.validator.constraints.NotBlank;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -16,19 +20,50 @@ public class Account {
   @NotEmpty
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  /**
+   * Balance and version, replaced together so reads never see one without the other.
+   */
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private volatile BalanceSnapshot snapshot;
 
   public Account(String accountId) {
-    this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
+    this(accountId, BigDecimal.ZERO);
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
     @JsonProperty("balance") BigDecimal balance) {
     this.accountId = accountId;
-    this.balance = balance;
+    this.snapshot = new BalanceSnapshot(balance, 0);
+  }
+
+  @NotNull
+  @Min(value = 0, message = "Initial balance must be positive.")
+  public BigDecimal getBalance() {
+    return snapshot.getBalance();
+  }
+
+  /**
+   * Publishes the balance with the next version. Writers are serialized by the account locks.
+   */
+  public void setBalance(BigDecimal balance) {
+    this.snapshot = snapshot.next(balance);
+  }
+
+  /**
+   * Number of balance changes since the account was created.
+   */
+  @JsonIgnore
+  public long getVersion() {
+    return getSnapshot().getVersion();
+  }
+
+  /**
+   * Balance and version as of one update, read without locking.
+   */
+  @JsonIgnore
+  public BalanceSnapshot getSnapshot() {
+    return snapshot;
   }
 }
@@ -0,0 +1,27 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Aggregates over all accounts, maintained as balances move rather than computed on request.
+ */
+@Data
+public class AccountStats {
+
+    private final long accounts;
+
+    private final BigDecimal totalBalance;
+
+    /**
+     * Largest balances first.
+     */
+    private final List<Account> topAccounts;
+
+    /**
+     * When a full scan last checked the aggregates, in milliseconds since the epoch, 0 if none has run yet.
+     */
+    private final long verifiedAt;
+}
@@ -0,0 +1,50 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+import java.util.function.Supplier;
+
+/**
+ * Immutable pair of a balance and its version, replaced as a whole on every change so readers see both from the
+ * same update without locking. The rendered representation of the account can be cached on it, it goes stale
+ * together with the snapshot.
+ */
+@Getter
+@ToString(exclude = "representation")
+@EqualsAndHashCode(exclude = "representation")
+public final class BalanceSnapshot {
+
+    private final BigDecimal balance;
+
+    /**
+     * Number of balance changes since the account was created.
+     */
+    private final long version;
+
+    private volatile byte[] representation;
+
+    public BalanceSnapshot(BigDecimal balance, long version) {
+        this.balance = balance;
+        this.version = version;
+    }
+
+    public BalanceSnapshot next(BigDecimal balance) {
+        return new BalanceSnapshot(balance, version + 1);
+    }
+
+    /**
+     * Returns the representation cached on this snapshot, rendering it on first use. Concurrent first readers may
+     * each render it, they produce the same bytes.
+     */
+    public byte[] getRepresentation(Supplier<byte[]> render) {
+        byte[] cached = representation;
+        if (cached == null) {
+            cached = render.get();
+            representation = cached;
+        }
+        return cached;
+    }
+}
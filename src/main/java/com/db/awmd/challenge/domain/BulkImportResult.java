@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of a bulk account import. Only the first failures are listed, the counters cover all of them.
+ */
+@Data
+public class BulkImportResult {
+
+    public static final int MAX_LISTED_FAILURES = 100;
+
+    private long imported;
+
+    private long duplicates;
+
+    private long rejected;
+
+    /**
+     * False if the body could not be read to the end, the accounts before the malformed part are still imported.
+     */
+    private boolean complete = true;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public void addImported(int count) {
+        imported += count;
+    }
+
+    public void addDuplicate(String accountId) {
+        duplicates++;
+        listFailure("Account id " + accountId + " already exists!");
+    }
+
+    public void addRejected(String message) {
+        rejected++;
+        listFailure(message);
+    }
+
+    public void abort(String message) {
+        complete = false;
+        failures.add(message);
+    }
+
+    private void listFailure(String message) {
+        if (failures.size() < MAX_LISTED_FAILURES) {
+            failures.add(message);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * The credit a node asks the owner of the credited account to prepare and then commit, see
+ * {@link com.db.awmd.challenge.cluster.CrossShardTransfers}.
+ */
+@Data
+public class CrossShardLeg {
+
+    private final String accountId;
+
+    private final BigDecimal amount;
+
+    @JsonCreator
+    public CrossShardLeg(@JsonProperty("accountId") String accountId,
+                         @JsonProperty("amount") BigDecimal amount) {
+        this.accountId = accountId;
+        this.amount = amount;
+    }
+}
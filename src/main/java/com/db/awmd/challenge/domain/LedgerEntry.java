@@ -0,0 +1,34 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * One money movement recorded in the ledger. Deposits have no source account, withdrawals no target account.
+ */
+@Data
+public class LedgerEntry {
+
+    public enum Type {
+        TRANSFER, DEPOSIT, WITHDRAWAL
+    }
+
+    /**
+     * Position in the ledger, increasing with time.
+     */
+    private final long sequence;
+
+    /**
+     * Milliseconds since the epoch.
+     */
+    private final long timestamp;
+
+    private final Type type;
+
+    private final String accountFromId;
+
+    private final String accountToId;
+
+    private final BigDecimal amount;
+}
@@ -0,0 +1,121 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Account whose balance is held as a count of minor units (e.g. cents for a scale of 2), so it can be updated with
+ * compare-and-set instead of a lock. The balance is still exposed as a {@link BigDecimal}, conversion only happens
+ * when it is read or written through the bean accessors.
+ * <p>
+ * Every change replaces the minor units and the version together in one {@link State}, so a
+ * {@link #getSnapshot() snapshot} always pairs a balance with its own version. The snapshot of a state is built on
+ * first read and then shared, like the one of an {@link Account}.
+ */
+public class MinorUnitAccount extends Account implements MinorUnitBalance {
+
+    private final int scale;
+    private final AtomicReference<State> state;
+
+    public MinorUnitAccount(String accountId, BigDecimal balance, int scale) {
+        super(accountId);
+        this.scale = scale;
+        this.state = new AtomicReference<>(new State(toMinorUnits(balance), 0));
+    }
+
+    /**
+     * Returns the account itself if it already holds minor units, a minor unit copy of it otherwise.
+     */
+    public static MinorUnitAccount of(Account account, int scale) {
+        if (account instanceof MinorUnitAccount) {
+            return (MinorUnitAccount) account;
+        }
+        return new MinorUnitAccount(account.getAccountId(), account.getBalance(), scale);
+    }
+
+    @Override
+    public BigDecimal getBalance() {
+        return BigDecimal.valueOf(state.get().units, scale);
+    }
+
+    @Override
+    public void setBalance(BigDecimal balance) {
+        long units = toMinorUnits(balance);
+        for (;;) {
+            State current = state.get();
+            if (state.compareAndSet(current, new State(units, current.version + 1))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    @JsonIgnore
+    public long getVersion() {
+        return state.get().version;
+    }
+
+    @Override
+    @JsonIgnore
+    public BalanceSnapshot getSnapshot() {
+        State current = state.get();
+        BalanceSnapshot snapshot = current.snapshot;
+        if (snapshot == null) {
+            // Racing first readers may each build one, they are equal
+            snapshot = new BalanceSnapshot(BigDecimal.valueOf(current.units, scale), current.version);
+            current.snapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    @Override
+    @JsonIgnore
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    @JsonIgnore
+    public long getMinorUnits() {
+        return state.get().units;
+    }
+
+    @Override
+    public boolean tryDebit(long units) {
+        for (;;) {
+            State current = state.get();
+            if (current.units < units) {
+                return false;
+            }
+            if (state.compareAndSet(current, new State(current.units - units, current.version + 1))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void credit(long units) {
+        for (;;) {
+            State current = state.get();
+            if (state.compareAndSet(current, new State(Math.addExact(current.units, units), current.version + 1))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Balance in minor units and its version, replaced as a whole on every change.
+     */
+    private static final class State {
+        private final long units;
+        private final long version;
+        private volatile BalanceSnapshot snapshot;
+
+        private State(long units, long version) {
+            this.units = units;
+            this.version = version;
+        }
+    }
+}
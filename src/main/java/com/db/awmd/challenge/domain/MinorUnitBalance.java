@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.domain;
+
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Balance held as a count of minor units (e.g. cents for a scale of 2) that can be updated with compare-and-set
+ * instead of a lock, see {@link MinorUnitAccount}.
+ */
+public interface MinorUnitBalance {
+
+    String getAccountId();
+
+    int getScale();
+
+    long getMinorUnits();
+
+    /**
+     * Debits the account unless that would overdraw it.
+     * @return false if the balance does not cover the amount
+     */
+    boolean tryDebit(long units);
+
+    /**
+     * @throws ArithmeticException if the balance would overflow, the account is left unchanged
+     */
+    void credit(long units);
+
+    default long toMinorUnits(BigDecimal amount) {
+        return toMinorUnits(amount, getScale());
+    }
+
+    /**
+     * @throws InvalidArgumentException if the amount has more decimal places than the scale or does not fit a long
+     */
+    static long toMinorUnits(BigDecimal amount, int scale) {
+        try {
+            return amount.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new InvalidArgumentException(
+                    "Amount " + amount + " cannot be represented with " + scale + " decimal places", e);
+        }
+    }
+}
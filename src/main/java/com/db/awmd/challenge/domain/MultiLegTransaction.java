@@ -0,0 +1,35 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.NonNull;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.Valid;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Transfers applied together or not at all, e.g. a payment with its fee and tax split.
+ */
+@Data
+public class MultiLegTransaction {
+
+    @NonNull
+    @NotEmpty
+    @Valid
+    private final List<Transaction> legs;
+
+    @JsonCreator
+    public MultiLegTransaction(@JsonProperty("legs") List<Transaction> legs) {
+        this.legs = legs;
+    }
+
+    /**
+     * The same transaction with every leg {@link Transaction#normalized() normalized}.
+     */
+    public MultiLegTransaction normalized() {
+        return new MultiLegTransaction(legs.stream().map(Transaction::normalized).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,71 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+
+/**
+ * Movements of one account waiting to be notified to its owner: a single debit or credit, or a summary of several
+ * coalesced ones. The description is only rendered when the notification is delivered.
+ */
+@Getter
+public class Notification {
+
+    public enum Kind {
+        DEBIT, CREDIT
+    }
+
+    private final Account account;
+
+    /**
+     * {@link System#nanoTime()} of the first movement, the delivery lag is measured from there.
+     */
+    private final long createdNanos = System.nanoTime();
+
+    private int debits;
+
+    private BigDecimal debitTotal = BigDecimal.ZERO;
+
+    private int credits;
+
+    private BigDecimal creditTotal = BigDecimal.ZERO;
+
+    public Notification(Account account, Kind kind, BigDecimal amount) {
+        this.account = account;
+        add(kind, amount);
+    }
+
+    /**
+     * Folds another movement of the same account into this notification.
+     */
+    public Notification add(Kind kind, BigDecimal amount) {
+        if (kind == Kind.DEBIT) {
+            debits++;
+            debitTotal = debitTotal.add(amount);
+        } else {
+            credits++;
+            creditTotal = creditTotal.add(amount);
+        }
+        return this;
+    }
+
+    public String getDescription() {
+        if (debits + credits == 1) {
+            return debits == 1 ? String.format("Account debited with amount %s", debitTotal)
+                    : String.format("Account credited with amount %s", creditTotal);
+        }
+        StringBuilder description = new StringBuilder();
+        if (debits > 0) {
+            description.append(debits).append(debits == 1 ? " debit" : " debits").append(" totalling ")
+                    .append(debitTotal);
+        }
+        if (credits > 0) {
+            if (debits > 0) {
+                description.append(", ");
+            }
+            description.append(credits).append(credits == 1 ? " credit" : " credits").append(" totalling ")
+                    .append(creditTotal);
+        }
+        return description.toString();
+    }
+}
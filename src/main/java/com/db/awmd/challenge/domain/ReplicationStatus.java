@@ -0,0 +1,33 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * Where this node stands in the change stream of the primary. On the primary both offsets are its last offset.
+ */
+@Data
+public class ReplicationStatus {
+
+    public enum Role {
+        PRIMARY, REPLICA
+    }
+
+    private final Role role;
+
+    /**
+     * Last offset applied, pass it as {@code minOffset} to read at least this state from a replica.
+     */
+    private final long offset;
+
+    /**
+     * Last offset of the primary known to this node.
+     */
+    private final long primaryOffset;
+
+    /**
+     * How far the applied state trails the primary, -1 before the first snapshot.
+     */
+    private final long lagMillis;
+
+    private final boolean connected;
+}
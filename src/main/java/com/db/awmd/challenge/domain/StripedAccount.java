@@ -0,0 +1,204 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Account that starts with a plain {@link BigDecimal} balance guarded by the account locks and can be promoted to a
+ * hot mode, where the balance is split over striped sub-balances of minor units in the style of
+ * {@link java.util.concurrent.atomic.LongAdder}. In hot mode credits land on a random stripe with a single
+ * compare-and-set, and debits take from one stripe or borrow across all of them, never overdrawing the account.
+ * <p>
+ * Promotion is one way. The balance read while hot is the sum of the stripes, like {@code LongAdder.sum()} it is
+ * exact when no movement is in flight but may be off by a concurrent one otherwise; so may the version, which
+ * counts hot movements in a {@link LongAdder} on top of the version reached before promotion. A snapshot of a hot
+ * account therefore only approximates one update, which is what keeps its movements off a shared reference; it is
+ * reused while neither the sum nor the version moves, so its cached representation survives idle reads.
+ */
+public class StripedAccount extends Account {
+
+    /**
+     * Longs per stripe, so every stripe sits on its own cache line.
+     */
+    private static final int PADDING = 8;
+
+    private final int stripeCount;
+    private final ReentrantLock borrowLock = new ReentrantLock();
+    private volatile int scale;
+    private volatile AtomicLongArray stripes;
+    private volatile boolean promotionRequested;
+    private final LongAdder hotMovements = new LongAdder();
+    private volatile long promotedVersion;
+    private volatile BalanceSnapshot hotSnapshot;
+
+    public StripedAccount(String accountId, BigDecimal balance, int stripeCount) {
+        super(accountId, balance);
+        this.stripeCount = stripeCount;
+    }
+
+    @JsonIgnore
+    public boolean isHot() {
+        return stripes != null;
+    }
+
+    @JsonIgnore
+    public boolean isPromotionRequested() {
+        return promotionRequested;
+    }
+
+    public void setPromotionRequested(boolean promotionRequested) {
+        this.promotionRequested = promotionRequested;
+    }
+
+    /**
+     * Moves the balance into the stripes. Called while holding the account lock, so no plain balance update races
+     * with it.
+     * @throws com.db.awmd.challenge.exception.InvalidArgumentException if the balance has more decimal places than
+     *                                                                   the scale
+     */
+    public void promote(int scale) {
+        if (isHot()) {
+            return;
+        }
+        AtomicLongArray promoted = new AtomicLongArray(stripeCount * PADDING);
+        promoted.set(0, MinorUnitBalance.toMinorUnits(super.getBalance(), scale));
+        this.scale = scale;
+        this.promotedVersion = super.getSnapshot().getVersion();
+        this.stripes = promoted;
+    }
+
+    @Override
+    public BigDecimal getBalance() {
+        AtomicLongArray current = stripes;
+        if (current == null) {
+            return super.getBalance();
+        }
+        return BigDecimal.valueOf(sum(current), scale);
+    }
+
+    @Override
+    @JsonIgnore
+    public BalanceSnapshot getSnapshot() {
+        if (!isHot()) {
+            return super.getSnapshot();
+        }
+        long version = promotedVersion + hotMovements.sum();
+        BigDecimal balance = getBalance();
+        BalanceSnapshot cached = hotSnapshot;
+        if (cached != null && cached.getVersion() == version && cached.getBalance().equals(balance)) {
+            return cached;
+        }
+        BalanceSnapshot snapshot = new BalanceSnapshot(balance, version);
+        hotSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * @throws IllegalStateException once the account is hot, its balance then only moves by credits and debits
+     */
+    @Override
+    public void setBalance(BigDecimal balance) {
+        if (isHot()) {
+            throw new IllegalStateException("Balance of hot account " + getAccountId() + " cannot be overwritten");
+        }
+        super.setBalance(balance);
+    }
+
+    @JsonIgnore
+    public int getScale() {
+        return scale;
+    }
+
+    public long toMinorUnits(BigDecimal amount) {
+        return MinorUnitBalance.toMinorUnits(amount, scale);
+    }
+
+    /**
+     * @throws ArithmeticException if the stripe would overflow, the account is left unchanged
+     */
+    public void credit(long units) {
+        AtomicLongArray current = stripes;
+        int index = randomStripe();
+        for (;;) {
+            long value = current.get(index);
+            if (current.compareAndSet(index, value, Math.addExact(value, units))) {
+                hotMovements.increment();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Debits a random stripe if it covers the amount, otherwise borrows from all stripes in turn. Borrowing is
+     * serialized per account, so two large debits never hold partial amounts that together would cover both and
+     * fail each other.
+     * @return false if the whole balance does not cover the amount, the account is then left unchanged
+     */
+    public boolean tryDebit(long units) {
+        AtomicLongArray current = stripes;
+        if (takeAll(current, randomStripe(), units)) {
+            hotMovements.increment();
+            return true;
+        }
+        borrowLock.lock();
+        try {
+            long[] taken = new long[stripeCount];
+            long remaining = units;
+            for (int i = 0; i < stripeCount && remaining > 0; i++) {
+                taken[i] = takeUpTo(current, i * PADDING, remaining);
+                remaining -= taken[i];
+            }
+            if (remaining == 0) {
+                hotMovements.increment();
+                return true;
+            }
+            for (int i = 0; i < stripeCount; i++) {
+                if (taken[i] > 0) {
+                    current.addAndGet(i * PADDING, taken[i]);
+                }
+            }
+            return false;
+        } finally {
+            borrowLock.unlock();
+        }
+    }
+
+    private int randomStripe() {
+        return ThreadLocalRandom.current().nextInt(stripeCount) * PADDING;
+    }
+
+    private static boolean takeAll(AtomicLongArray stripes, int index, long units) {
+        for (;;) {
+            long value = stripes.get(index);
+            if (value < units) {
+                return false;
+            }
+            if (stripes.compareAndSet(index, value, value - units)) {
+                return true;
+            }
+        }
+    }
+
+    private static long takeUpTo(AtomicLongArray stripes, int index, long units) {
+        for (;;) {
+            long value = stripes.get(index);
+            long taken = Math.min(value, units);
+            if (taken <= 0 || stripes.compareAndSet(index, value, value - taken)) {
+                return Math.max(taken, 0);
+            }
+        }
+    }
+
+    private long sum(AtomicLongArray current) {
+        long sum = 0;
+        for (int i = 0; i < stripeCount; i++) {
+            sum += current.get(i * PADDING);
+        }
+        return sum;
+    }
+}
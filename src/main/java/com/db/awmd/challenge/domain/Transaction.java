@@ -33,4 +33,13 @@ public class Transaction {
         this.amount = amount;
     }
 
+    /**
+     * The same transaction with its amount stripped of trailing zeros, so that it equals any transaction of the same
+     * accounts and an amount of another scale but the same value, e.g. 500.00 and 500.
+     */
+    public Transaction normalized() {
+        BigDecimal normalized = amount.signum() == 0 ? BigDecimal.ZERO : amount.stripTrailingZeros();
+        return new Transaction(accountFromId, accountToId, normalized);
+    }
+
 }
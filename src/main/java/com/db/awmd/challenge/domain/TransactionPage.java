@@ -0,0 +1,17 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A page of the movements of an account, newest first. The cursor fetches the next, older, page and is null on the
+ * last one.
+ */
+@Data
+public class TransactionPage {
+
+    private final List<LedgerEntry> transactions;
+
+    private final Long nextCursor;
+}
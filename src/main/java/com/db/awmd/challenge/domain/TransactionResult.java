@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * Outcome of one transaction of a batch, identified by its position in the request.
+ */
+@Data
+public class TransactionResult {
+
+    public enum Status {
+        APPLIED, REJECTED
+    }
+
+    private final int index;
+
+    private Status status;
+
+    private String message;
+
+    public TransactionResult(int index) {
+        this.index = index;
+    }
+}
@@ -0,0 +1,22 @@
+package com.db.awmd.challenge.domain;
+
+import lombok.Data;
+
+/**
+ * State of a transfer submitted asynchronously. Rejected transfers were refused as invalid and must not be retried,
+ * failed ones were not applied and may be retried. Unknown ones were applied but may not be durable, retrying them
+ * may apply them twice.
+ */
+@Data
+public class TransferStatus {
+
+    public enum State {
+        PENDING, COMPLETED, REJECTED, FAILED, UNKNOWN
+    }
+
+    private final String transferId;
+
+    private final State state;
+
+    private final String message;
+}
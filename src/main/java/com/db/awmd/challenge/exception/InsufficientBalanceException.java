@@ -0,0 +1,8 @@
+package com.db.awmd.challenge.exception;
+
+public class InsufficientBalanceException extends InvalidArgumentException {
+
+    public InsufficientBalanceException() {
+        super("Withdraw failed, Insufficient balance");
+    }
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * The operation was applied but whether it took effect for good is unknown, typically because the journal could not
+ * make it durable. Unlike a {@link TransactionFailureException} it must not be retried as is, doing so may apply it
+ * twice; a request sent with an idempotency key gets this same outcome again when retried with that key.
+ */
+public class OutcomeUnknownException extends RuntimeException {
+
+    public OutcomeUnknownException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
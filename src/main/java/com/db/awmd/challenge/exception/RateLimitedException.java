@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * The operation was turned away by admission control before touching any account, it can be retried as is once
+ * the given delay has passed.
+ */
+public class RateLimitedException extends ServerBusyException {
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return the delay rounded up to whole seconds, as sent in a {@code Retry-After} header
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfterMillis + 999) / 1000);
+    }
+}
@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * The operation was turned away because the server is saturated, it was not applied and can be retried as is.
+ */
+public class ServerBusyException extends TransactionFailureException {
+
+    public ServerBusyException() {
+        super("Server busy, please try again later");
+    }
+
+    public ServerBusyException(Throwable cause) {
+        super("Server busy, please try again later", cause);
+    }
+
+    protected ServerBusyException(String message) {
+        super(message);
+    }
+}
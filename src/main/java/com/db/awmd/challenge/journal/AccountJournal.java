@@ -0,0 +1,45 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Transaction;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Append-only log of account creations and balance movements, replayed on startup to rebuild the accounts. Records
+ * are written once the operation is applied in memory, not ahead of it, and replayed as deltas in journal order
+ * without checking balances again. Recovery is therefore only right if the journal order follows the causal order of
+ * the movements: the {@link com.db.awmd.challenge.service.TransferEngine} journals a debit once it is applied and a
+ * credit before any other movement can see it, so a debit is never journaled before the credit that funded it and
+ * any prefix of the journal left by a crash replays without overdrawing an account. Every append returns the journal
+ * position just after the record, which callers pass to {@link #awaitDurable(long)} before acknowledging the
+ * operation.
+ */
+public interface AccountJournal {
+
+    /**
+     * Reads back every intact record from the given position on and positions the journal for appending. Must be
+     * called once, before any append.
+     * @param fromPosition position covered by the snapshot the accounts were loaded from, 0 without snapshot
+     */
+    void recover(long fromPosition, JournalVisitor visitor);
+
+    long appendCreate(String accountId, BigDecimal balance);
+
+    long appendTransfer(String accountFromId, String accountToId, BigDecimal amount);
+
+    /**
+     * Records all the transfers as a single record, so they are recovered all together or not at all.
+     */
+    long appendTransfers(List<Transaction> transactions);
+
+    long appendDeposit(String accountId, BigDecimal amount);
+
+    long appendWithdraw(String accountId, BigDecimal amount);
+
+    /**
+     * Blocks until the record ending at the given position is durable according to the configured
+     * {@link DurabilityMode}.
+     */
+    void awaitDurable(long position);
+}
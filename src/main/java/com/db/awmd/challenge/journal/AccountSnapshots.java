@@ -0,0 +1,437 @@
+package com.db.awmd.challenge.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Point-in-time snapshots of the account balances, so startup only replays the journal written since the last one.
+ * <p>
+ * A snapshot is built by compacting the journal rather than by copying the live accounts: the previous snapshot is
+ * merged with the movements of the journal segments closed since, which gives the exact balances at a segment
+ * boundary without pausing transfers. Accounts are stored sorted by id in independently checksummed chunks, so the
+ * merge streams through the previous snapshot and loading decodes the chunks in parallel. The two newest snapshots
+ * are kept, the older one being the fallback if the newest cannot be read, along with the journal segments after it.
+ * <p>
+ * File layout: {@code [chunk]* [chunk table] [footer]}, each chunk holding {@code [id][balance]} entries, each
+ * table entry {@code [offset][length][accounts][crc32]} and the footer
+ * {@code [journal position][accounts][chunks][table offset][table crc32][magic]}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "true")
+public class AccountSnapshots implements DisposableBean {
+
+    private static final int MAGIC = 0x534e4150;
+    private static final int FOOTER_SIZE = 8 + 8 + 4 + 8 + 4 + 4;
+    private static final int TABLE_ENTRY_SIZE = 8 + 4 + 4 + 4;
+    private static final int RETAINED = 2;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final MappedAccountJournal journal;
+    private final Path directory;
+    private final int chunkAccounts;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public AccountSnapshots(MappedAccountJournal journal,
+                            @Value("${journal.directory:data/journal}") String directory,
+                            @Value("${journal.snapshot.interval-seconds:300}") long intervalSeconds,
+                            @Value("${journal.snapshot.chunk-accounts:65536}") int chunkAccounts) {
+        this.journal = journal;
+        this.directory = Paths.get(directory);
+        this.chunkAccounts = chunkAccounts;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::scheduledSnapshot, intervalSeconds, intervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Loads the newest readable snapshot, decoding its chunks in parallel. Every chunk is verified before the first
+     * account is handed to the sink, so a damaged snapshot is skipped as a whole.
+     * @param sink receives every account and its balance, from several threads
+     * @return journal position the snapshot covers, 0 if there is none
+     */
+    public long load(BiConsumer<String, BigDecimal> sink) {
+        List<Path> snapshots = listSnapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try {
+                return load(snapshots.get(i), sink);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Skipping unreadable snapshot {}", snapshots.get(i), e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compacts the journal segments closed since the newest snapshot into a new snapshot.
+     * @return journal position the new snapshot covers, -1 if there was nothing to compact
+     */
+    public synchronized long snapshot() throws IOException {
+        long target = journal.closedPosition();
+        List<Path> snapshots = listSnapshots();
+        Path base = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        long basePosition = base == null ? 0 : positionOf(base);
+        if (target <= basePosition) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        TailDeltas tail = new TailDeltas();
+        journal.replay(basePosition, target, tail);
+
+        Path snapshot = snapshotPath(target);
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        long accounts;
+        try (SnapshotWriter writer = new SnapshotWriter(temp)) {
+            Iterator<Map.Entry<String, Delta>> deltas = tail.deltas.entrySet().iterator();
+            Map.Entry<String, Delta> next = deltas.hasNext() ? deltas.next() : null;
+            if (base != null) {
+                for (Map.Entry<String, BigDecimal> entry : new SnapshotIterable(base)) {
+                    String accountId = entry.getKey();
+                    while (next != null && next.getKey().compareTo(accountId) < 0) {
+                        writer.addCreated(next);
+                        next = deltas.hasNext() ? deltas.next() : null;
+                    }
+                    BigDecimal balance = entry.getValue();
+                    if (next != null && next.getKey().equals(accountId)) {
+                        balance = balance.add(next.getValue().amount);
+                        next = deltas.hasNext() ? deltas.next() : null;
+                    }
+                    writer.add(accountId, balance);
+                }
+            }
+            while (next != null) {
+                writer.addCreated(next);
+                next = deltas.hasNext() ? deltas.next() : null;
+            }
+            accounts = writer.finish(target);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+
+        snapshots.add(snapshot);
+        while (snapshots.size() > RETAINED) {
+            Files.delete(snapshots.remove(0));
+        }
+        if (snapshots.size() == RETAINED) {
+            journal.deleteBefore(positionOf(snapshots.get(0)));
+        }
+        log.info("Snapshot of {} accounts at journal position {} written in {} ms, {} journal records compacted",
+                accounts, target, (System.nanoTime() - start) / 1_000_000, tail.records);
+        return target;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Journal snapshot failed", e);
+        }
+    }
+
+    private long load(Path path, BiConsumer<String, BigDecimal> sink) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Footer footer = readFooter(channel);
+            List<ByteBuffer> chunks = new ArrayList<>(footer.chunks.size());
+            for (long[] chunk : footer.chunks) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1]));
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                if (crc(chunks.get(i).duplicate()) != (int) footer.chunks.get(i)[3]) {
+                    throw new IllegalStateException("Snapshot chunk " + i + " is corrupt");
+                }
+            }
+            chunks.parallelStream().forEach(chunk -> {
+                ByteBuffer entries = chunk.duplicate();
+                while (entries.hasRemaining()) {
+                    sink.accept(RecordCodec.getString(entries), RecordCodec.getDecimal(entries));
+                }
+            });
+            log.info("Loaded {} accounts from snapshot {} in {} ms, {} chunks", footer.accounts, path.getFileName(),
+                    (System.nanoTime() - start) / 1_000_000, chunks.size());
+            return footer.position;
+        }
+    }
+
+    private static Footer readFooter(FileChannel channel) throws IOException {
+        if (channel.size() < FOOTER_SIZE) {
+            throw new IllegalStateException("Snapshot is truncated");
+        }
+        ByteBuffer footer = readFully(channel, channel.size() - FOOTER_SIZE, FOOTER_SIZE);
+        if (footer.getInt(FOOTER_SIZE - 4) != MAGIC) {
+            throw new IllegalStateException("Snapshot footer is missing");
+        }
+        Footer result = new Footer();
+        result.position = footer.getLong();
+        result.accounts = footer.getLong();
+        int chunkCount = footer.getInt();
+        long tableOffset = footer.getLong();
+        int tableCrc = footer.getInt();
+        ByteBuffer table = readFully(channel, tableOffset, chunkCount * TABLE_ENTRY_SIZE);
+        if (crc(table.duplicate()) != tableCrc) {
+            throw new IllegalStateException("Snapshot chunk table is corrupt");
+        }
+        result.chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            result.chunks.add(new long[]{table.getLong(), table.getInt(), table.getInt(), table.getInt()});
+        }
+        return result;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IllegalStateException("Snapshot is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer);
+        return (int) checksum.getValue();
+    }
+
+    private List<Path> listSnapshots() {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list snapshots in " + directory, e);
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private Path snapshotPath(long position) {
+        return directory.resolve(String.format("%s%019d%s", SNAPSHOT_PREFIX, position, SNAPSHOT_SUFFIX));
+    }
+
+    private static long positionOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    private static class Footer {
+        long position;
+        long accounts;
+        List<long[]> chunks;
+    }
+
+    private static class Delta {
+        boolean created;
+        BigDecimal amount = BigDecimal.ZERO;
+    }
+
+    /**
+     * Sums up the movements of the compacted segments per account, sorted by account id for the merge.
+     */
+    private static class TailDeltas implements JournalVisitor {
+
+        private final TreeMap<String, Delta> deltas = new TreeMap<>();
+        private long records;
+
+        @Override
+        public void accountCreated(String accountId, BigDecimal balance) {
+            add(accountId, balance).created = true;
+            records++;
+        }
+
+        @Override
+        public void transferred(String accountFromId, String accountToId, BigDecimal amount) {
+            add(accountFromId, amount.negate());
+            add(accountToId, amount);
+            records++;
+        }
+
+        @Override
+        public void deposited(String accountId, BigDecimal amount) {
+            add(accountId, amount);
+            records++;
+        }
+
+        @Override
+        public void withdrawn(String accountId, BigDecimal amount) {
+            add(accountId, amount.negate());
+            records++;
+        }
+
+        private Delta add(String accountId, BigDecimal amount) {
+            Delta delta = deltas.computeIfAbsent(accountId, id -> new Delta());
+            delta.amount = delta.amount.add(amount);
+            return delta;
+        }
+    }
+
+    /**
+     * Reads a snapshot back sequentially, one mapped chunk at a time.
+     */
+    private static class SnapshotIterable implements Iterable<Map.Entry<String, BigDecimal>> {
+
+        private final Path path;
+
+        SnapshotIterable(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, BigDecimal>> iterator() {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                Footer footer = readFooter(channel);
+                List<ByteBuffer> chunks = new ArrayList<>(footer.chunks.size());
+                for (long[] chunk : footer.chunks) {
+                    chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1]));
+                }
+                return new Iterator<Map.Entry<String, BigDecimal>>() {
+                    private int chunk;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (chunk < chunks.size() && !chunks.get(chunk).hasRemaining()) {
+                            chunk++;
+                        }
+                        return chunk < chunks.size();
+                    }
+
+                    @Override
+                    public Map.Entry<String, BigDecimal> next() {
+                        hasNext();
+                        ByteBuffer entries = chunks.get(chunk);
+                        String accountId = RecordCodec.getString(entries);
+                        return new AbstractMap.SimpleImmutableEntry<>(accountId,
+                                RecordCodec.getDecimal(entries));
+                    }
+                };
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read snapshot " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Writes accounts, in ascending id order, into chunks of a fixed number of accounts.
+     */
+    private class SnapshotWriter implements Closeable {
+
+        private final FileChannel channel;
+        private ByteBuffer chunk = ByteBuffer.allocate(1024 * 1024);
+        private ByteBuffer table = ByteBuffer.allocate(1024 * TABLE_ENTRY_SIZE);
+        private int chunkCount;
+        private int inChunk;
+        private long accounts;
+
+        SnapshotWriter(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void addCreated(Map.Entry<String, Delta> entry) throws IOException {
+            if (entry.getValue().created) {
+                add(entry.getKey(), entry.getValue().amount);
+            }
+        }
+
+        void add(String accountId, BigDecimal balance) throws IOException {
+            chunk = RecordCodec.putString(chunk, accountId);
+            chunk = RecordCodec.putDecimal(chunk, balance);
+            accounts++;
+            if (++inChunk == chunkAccounts) {
+                writeChunk();
+            }
+        }
+
+        long finish(long position) throws IOException {
+            writeChunk();
+            long tableOffset = channel.position();
+            table.flip();
+            int tableCrc = crc(table.duplicate());
+            write(table);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(position).putLong(accounts).putInt(chunkCount).putLong(tableOffset).putInt(tableCrc)
+                    .putInt(MAGIC);
+            footer.flip();
+            write(footer);
+            channel.force(true);
+            return accounts;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void writeChunk() throws IOException {
+            if (inChunk == 0) {
+                return;
+            }
+            chunk.flip();
+            if (table.remaining() < TABLE_ENTRY_SIZE) {
+                ByteBuffer grown = ByteBuffer.allocate(table.capacity() * 2);
+                table.flip();
+                table = grown.put(table);
+            }
+            table.putLong(channel.position()).putInt(chunk.remaining()).putInt(inChunk).putInt(crc(chunk.duplicate()));
+            write(chunk);
+            chunk.clear();
+            chunkCount++;
+            inChunk = 0;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.journal;
+
+/**
+ * When an operation recorded in the {@link AccountJournal} is acknowledged to the client.
+ */
+public enum DurabilityMode {
+
+    /** As soon as the record is written to the mapped file, the operating system flushes it eventually. */
+    NONE,
+
+    /** Once a group commit forced the record to disk, every N records or every M microseconds. */
+    GROUP,
+
+    /** Once the record is forced to disk, concurrent callers share a single force. */
+    SYNC
+}
@@ -0,0 +1,97 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rebuilds the accounts on startup, before the application accepts requests: the newest snapshot is loaded, then
+ * the journal written since is replayed on top of it.
+ */
+@Slf4j
+@Component
+public class JournalRecovery implements JournalVisitor {
+
+    private final AccountJournal accountJournal;
+    private final AccountsService accountsService;
+    private final Optional<AccountSnapshots> accountSnapshots;
+    private final Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
+    private long records;
+
+    @Autowired
+    public JournalRecovery(AccountJournal accountJournal, AccountsService accountsService,
+                           Optional<AccountSnapshots> accountSnapshots) {
+        this.accountJournal = accountJournal;
+        this.accountsService = accountsService;
+        this.accountSnapshots = accountSnapshots;
+    }
+
+    @PostConstruct
+    public void recover() {
+        long start = System.nanoTime();
+        long position = accountSnapshots.map(snapshots -> snapshots.load(balances::put)).orElse(0L);
+        long loaded = System.nanoTime();
+        int snapshotAccounts = balances.size();
+        accountJournal.recover(position, this);
+        long replayed = System.nanoTime();
+        balances.entrySet().parallelStream()
+                .forEach(entry -> accountsService.restoreAccount(new Account(entry.getKey(), entry.getValue())));
+        long restored = System.nanoTime();
+        log.info("Recovered {} accounts in {} ms: snapshot load {} ms ({} accounts), journal replay {} ms "
+                        + "({} records from position {}), restore {} ms", balances.size(), millis(start, restored),
+                millis(start, loaded), snapshotAccounts, millis(loaded, replayed), records, position,
+                millis(replayed, restored));
+        balances.clear();
+    }
+
+    @Override
+    public void accountCreated(String accountId, BigDecimal balance) {
+        balances.put(accountId, balance);
+        records++;
+    }
+
+    @Override
+    public void transferred(String accountFromId, String accountToId, BigDecimal amount) {
+        apply(accountFromId, amount.negate());
+        apply(accountToId, amount);
+        records++;
+    }
+
+    @Override
+    public void deposited(String accountId, BigDecimal amount) {
+        apply(accountId, amount);
+        records++;
+    }
+
+    @Override
+    public void withdrawn(String accountId, BigDecimal amount) {
+        apply(accountId, amount.negate());
+        records++;
+    }
+
+    /**
+     * Movements were checked when they were applied and the journal follows their causal order, see
+     * {@link AccountJournal}, so they are replayed as they are. An account overdrawn on the way means the journal
+     * broke that order and is reported, the balance is kept as journaled.
+     */
+    private void apply(String accountId, BigDecimal delta) {
+        BigDecimal balance = balances.computeIfPresent(accountId, (id, current) -> current.add(delta));
+        if (balance == null) {
+            log.warn("Ignoring journaled movement of {} for unknown account {}", delta, accountId);
+        } else if (balance.signum() < 0) {
+            log.error("Journaled movement of {} overdraws account {} to {}", delta, accountId, balance);
+        }
+    }
+
+    private static long millis(long from, long to) {
+        return (to - from) / 1_000_000;
+    }
+}
@@ -0,0 +1,17 @@
+package com.db.awmd.challenge.journal;
+
+import java.math.BigDecimal;
+
+/**
+ * Receives the operations read back from the {@link AccountJournal}, in the order they were appended.
+ */
+public interface JournalVisitor {
+
+    void accountCreated(String accountId, BigDecimal balance);
+
+    void transferred(String accountFromId, String accountToId, BigDecimal amount);
+
+    void deposited(String accountId, BigDecimal amount);
+
+    void withdrawn(String accountId, BigDecimal amount);
+}
@@ -0,0 +1,515 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@link AccountJournal} written through memory-mapped segment files ({@code journal-<index>.log}). Each record is
+ * framed as {@code [body length][CRC32 of body][body]}; a zero length marks the end of the written data. On recovery
+ * the first record whose length or checksum does not match is treated as a torn write: the rest of the last
+ * segment is zeroed and appending resumes there.
+ * <p>
+ * Records are appended under a single lock into the mapped buffer, forcing them to disk happens outside of it, by
+ * the group commit thread or by the waiting callers, depending on the {@link DurabilityMode}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "true")
+public class MappedAccountJournal implements AccountJournal, DisposableBean {
+
+    private static final byte CREATE = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte DEPOSIT = 3;
+    private static final byte WITHDRAW = 4;
+    private static final byte BATCH = 5;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    private final Path directory;
+    private final int segmentSize;
+    private final DurabilityMode durabilityMode;
+    private final int groupCommitRecords;
+    private final long groupCommitIntervalNanos;
+    private final long awaitWarnMillis;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    private int uncommittedRecords;
+    private volatile long writtenPosition = -1;
+
+    private final Object flushMonitor = new Object();
+    private final Object durableMonitor = new Object();
+    private volatile long durablePosition;
+    private volatile RuntimeException flushFailure;
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    @Autowired
+    public MappedAccountJournal(@Value("${journal.directory:data/journal}") String directory,
+                                @Value("${journal.segment-size-mb:64}") int segmentSizeMb,
+                                @Value("${journal.durability:GROUP}") DurabilityMode durabilityMode,
+                                @Value("${journal.group-commit.records:256}") int groupCommitRecords,
+                                @Value("${journal.group-commit.interval-micros:1000}") long groupCommitIntervalMicros,
+                                @Value("${journal.await-warn-millis:5000}") long awaitWarnMillis) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSizeMb * 1024 * 1024;
+        this.durabilityMode = durabilityMode;
+        this.groupCommitRecords = groupCommitRecords;
+        this.groupCommitIntervalNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitIntervalMicros);
+        this.awaitWarnMillis = awaitWarnMillis;
+    }
+
+    @Override
+    public void recover(long fromPosition, JournalVisitor visitor) {
+        appendLock.lock();
+        try {
+            if (writtenPosition >= 0) {
+                throw new IllegalStateException("Journal " + directory + " has already been recovered");
+            }
+            Files.createDirectories(directory);
+            long firstIndex = fromPosition >>> 32;
+            List<Path> segments = listSegments(firstIndex);
+            for (int i = 0; i < segments.size(); i++) {
+                long index = segmentIndexOf(segments.get(i));
+                if (index != firstIndex + i) {
+                    throw new IllegalStateException("Journal segment " + (firstIndex + i) + " is missing in "
+                            + directory);
+                }
+                openSegment(index);
+                int end = replay(segment, visitor);
+                boolean torn = segment.capacity() - end >= 4 && segment.getInt(end) != 0;
+                if (i < segments.size() - 1) {
+                    if (torn) {
+                        throw new IllegalStateException("Journal segment " + segments.get(i)
+                                + " is corrupt at offset " + end);
+                    }
+                    channel.close();
+                } else {
+                    if (torn) {
+                        log.warn("Discarding torn journal record in {} at offset {}", segments.get(i), end);
+                        zeroFrom(end);
+                    }
+                    segment.position(end);
+                }
+            }
+            if (segments.isEmpty()) {
+                openSegment(firstIndex);
+            }
+            writtenPosition = position(segmentIndex, segment.position());
+            durablePosition = writtenPosition;
+            log.info("Journal {} recovered, appending to segment {} at offset {}", directory, segmentIndex,
+                    segment.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Journal recovery failed in " + directory, e);
+        } finally {
+            appendLock.unlock();
+        }
+        if (durabilityMode == DurabilityMode.GROUP) {
+            flusher = new Thread(this::groupCommit, "journal-group-commit");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Position of the first record of the segment being appended to. Every record before it lives in a segment that
+     * has been forced and is never written again.
+     * @return the position, or -1 before recovery
+     */
+    public long closedPosition() {
+        appendLock.lock();
+        try {
+            return writtenPosition < 0 ? -1 : position(segmentIndex, 0);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Visits the records of the closed segments between the two positions, both of them segment boundaries.
+     */
+    public void replay(long fromPosition, long toPosition, JournalVisitor visitor) throws IOException {
+        for (long index = fromPosition >>> 32; index < toPosition >>> 32; index++) {
+            try (FileChannel segmentChannel = FileChannel.open(segmentPath(index), StandardOpenOption.READ)) {
+                replay(segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, segmentChannel.size()), visitor);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments holding only records before the given position, once they are covered by a snapshot.
+     */
+    public void deleteBefore(long position) throws IOException {
+        long firstIndex = position >>> 32;
+        for (Path segment : listSegments(0)) {
+            if (segmentIndexOf(segment) < firstIndex) {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    @Override
+    public long appendCreate(String accountId, BigDecimal balance) {
+        appendLock.lock();
+        try {
+            begin(CREATE);
+            putString(accountId);
+            putDecimal(balance);
+            return append();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+        appendLock.lock();
+        try {
+            begin(TRANSFER);
+            putString(accountFromId);
+            putString(accountToId);
+            putDecimal(amount);
+            return append();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfers(List<Transaction> transactions) {
+        appendLock.lock();
+        try {
+            begin(BATCH);
+            scratch = RecordCodec.putInt(scratch, transactions.size());
+            for (Transaction transaction : transactions) {
+                putString(transaction.getAccountFromId());
+                putString(transaction.getAccountToId());
+                putDecimal(transaction.getAmount());
+            }
+            return append();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendDeposit(String accountId, BigDecimal amount) {
+        return appendMovement(DEPOSIT, accountId, amount);
+    }
+
+    @Override
+    public long appendWithdraw(String accountId, BigDecimal amount) {
+        return appendMovement(WITHDRAW, accountId, amount);
+    }
+
+    /**
+     * The record is already applied by the time its durability is awaited, so there is no timeout: giving up would
+     * leave the caller unable to tell whether it took effect. A slow commit is logged every
+     * {@code journal.await-warn-millis}, and interrupts are deferred until the wait is over.
+     * @throws OutcomeUnknownException if forcing the journal failed
+     */
+    @Override
+    public void awaitDurable(long position) {
+        if (position <= durablePosition || durabilityMode == DurabilityMode.NONE) {
+            return;
+        }
+        if (durabilityMode == DurabilityMode.SYNC) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                throw outcomeUnknown(e);
+            }
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long warnAt = start + awaitWarnMillis;
+        boolean interrupted = false;
+        try {
+            synchronized (durableMonitor) {
+                while (durablePosition < position) {
+                    if (flushFailure != null) {
+                        throw outcomeUnknown(flushFailure);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= warnAt) {
+                        log.warn("Waited {} ms for the journal to commit position {}", now - start, position);
+                        warnAt = now + awaitWarnMillis;
+                    }
+                    try {
+                        durableMonitor.wait(warnAt - now);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static OutcomeUnknownException outcomeUnknown(RuntimeException cause) {
+        return new OutcomeUnknownException("Journal commit failed, the operation was applied but may not survive "
+                + "a restart, do not retry it", cause);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        if (writtenPosition >= 0) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private long appendMovement(byte type, String accountId, BigDecimal amount) {
+        appendLock.lock();
+        try {
+            begin(type);
+            putString(accountId);
+            putDecimal(amount);
+            return append();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void begin(byte type) {
+        if (writtenPosition < 0) {
+            throw new IllegalStateException("Journal " + directory + " must be recovered before appending");
+        }
+        scratch.clear();
+        scratch.put(type);
+    }
+
+    private void putString(String value) {
+        scratch = RecordCodec.putString(scratch, value);
+    }
+
+    private void putDecimal(BigDecimal value) {
+        scratch = RecordCodec.putDecimal(scratch, value);
+    }
+
+    /**
+     * Frames the record prepared in the scratch buffer into the current segment, rolling to a new segment if it
+     * does not fit. The length is written last so a partially written record never has a complete header.
+     */
+    private long append() throws UncheckedIOException {
+        scratch.flip();
+        int length = scratch.remaining();
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + length + " bytes exceeds the segment size");
+        }
+        if (segment.remaining() < HEADER_SIZE + length) {
+            roll();
+        }
+        checksum.reset();
+        checksum.update(scratch.array(), scratch.arrayOffset(), length);
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putInt((int) checksum.getValue());
+        segment.put(scratch);
+        segment.putInt(start, length);
+        writtenPosition = position(segmentIndex, segment.position());
+        if (durabilityMode == DurabilityMode.GROUP && ++uncommittedRecords >= groupCommitRecords) {
+            uncommittedRecords = 0;
+            LockSupport.unpark(flusher);
+        }
+        return writtenPosition;
+    }
+
+    /**
+     * Starts the next segment. The current one is forced first, so a durable position always implies that every
+     * earlier segment is durable too.
+     */
+    private void roll() {
+        try {
+            segment.force();
+            channel.close();
+            openSegment(segmentIndex + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll journal segment in " + directory, e);
+        }
+    }
+
+    /**
+     * A failing force is reported to the callers waiting for it and retried on the next interval.
+     */
+    private void groupCommit() {
+        while (running) {
+            LockSupport.parkNanos(this, groupCommitIntervalNanos);
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Forcing journal {} failed", directory, e);
+                synchronized (durableMonitor) {
+                    flushFailure = e;
+                    durableMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces everything appended so far. Concurrent callers are serialized, so those arriving while a force is in
+     * progress usually find their records already durable once it completes.
+     */
+    private void flush() {
+        synchronized (flushMonitor) {
+            MappedByteBuffer target;
+            long position;
+            appendLock.lock();
+            try {
+                target = segment;
+                position = writtenPosition;
+            } finally {
+                appendLock.unlock();
+            }
+            if (position <= durablePosition) {
+                return;
+            }
+            target.force();
+            synchronized (durableMonitor) {
+                durablePosition = position;
+                flushFailure = null;
+                durableMonitor.notifyAll();
+            }
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private void openSegment(long index) throws IOException {
+        channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), segmentSize));
+        segmentIndex = index;
+    }
+
+    private void zeroFrom(int offset) {
+        ByteBuffer tail = segment.duplicate();
+        tail.position(offset);
+        while (tail.hasRemaining()) {
+            tail.put(ZEROS, 0, Math.min(ZEROS.length, tail.remaining()));
+        }
+        segment.force();
+    }
+
+    private List<Path> listSegments(long firstIndex) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                if (segmentIndexOf(path) >= firstIndex) {
+                    segments.add(path);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentIndexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Journal positions combine the segment index and the offset within it, so they grow monotonically across
+     * segments.
+     */
+    private static long position(long segmentIndex, int offset) {
+        return (segmentIndex << 32) | offset;
+    }
+
+    /**
+     * Visits every intact record of the segment.
+     * @return offset just after the last intact record
+     */
+    private static int replay(ByteBuffer buffer, JournalVisitor visitor) {
+        CRC32 checksum = new CRC32();
+        int offset = 0;
+        int limit = buffer.capacity();
+        while (limit - offset >= HEADER_SIZE) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > limit - offset - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer body = RecordCodec.slice(buffer, offset + HEADER_SIZE, length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            decode(body, visitor);
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private static void decode(ByteBuffer body, JournalVisitor visitor) {
+        byte type = body.get();
+        switch (type) {
+            case CREATE:
+                visitor.accountCreated(RecordCodec.getString(body), RecordCodec.getDecimal(body));
+                break;
+            case TRANSFER:
+                visitor.transferred(RecordCodec.getString(body), RecordCodec.getString(body), RecordCodec.getDecimal(body));
+                break;
+            case DEPOSIT:
+                visitor.deposited(RecordCodec.getString(body), RecordCodec.getDecimal(body));
+                break;
+            case WITHDRAW:
+                visitor.withdrawn(RecordCodec.getString(body), RecordCodec.getDecimal(body));
+                break;
+            case BATCH:
+                int count = body.getInt();
+                for (int i = 0; i < count; i++) {
+                    visitor.transferred(RecordCodec.getString(body), RecordCodec.getString(body), RecordCodec.getDecimal(body));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+}
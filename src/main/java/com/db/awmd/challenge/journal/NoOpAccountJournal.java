@@ -0,0 +1,49 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Transaction;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Journal used when journaling is disabled, accounts then only live in memory.
+ */
+@Component
+@ConditionalOnProperty(name = "journal.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpAccountJournal implements AccountJournal {
+
+    @Override
+    public void recover(long fromPosition, JournalVisitor visitor) {
+    }
+
+    @Override
+    public long appendCreate(String accountId, BigDecimal balance) {
+        return 0;
+    }
+
+    @Override
+    public long appendTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+        return 0;
+    }
+
+    @Override
+    public long appendTransfers(List<Transaction> transactions) {
+        return 0;
+    }
+
+    @Override
+    public long appendDeposit(String accountId, BigDecimal amount) {
+        return 0;
+    }
+
+    @Override
+    public long appendWithdraw(String accountId, BigDecimal amount) {
+        return 0;
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+    }
+}
@@ -0,0 +1,78 @@
+package com.db.awmd.challenge.journal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of the values stored in journal records and snapshots. Strings are written as an unsigned short
+ * length followed by their UTF-8 bytes, decimals as their scale followed by the unscaled value.
+ */
+final class RecordCodec {
+
+    private RecordCodec() {
+    }
+
+    /**
+     * @return the buffer holding the encoded value, a larger copy of the given one if it ran out of space
+     */
+    static ByteBuffer putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Value too long to be journaled: " + bytes.length + " bytes");
+        }
+        ByteBuffer target = ensureCapacity(buffer, 2 + bytes.length);
+        target.putChar((char) bytes.length);
+        target.put(bytes);
+        return target;
+    }
+
+    static ByteBuffer putDecimal(ByteBuffer buffer, BigDecimal value) {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        ByteBuffer target = ensureCapacity(buffer, 6 + unscaled.length);
+        target.putInt(value.scale());
+        target.putChar((char) unscaled.length);
+        target.put(unscaled);
+        return target;
+    }
+
+    static ByteBuffer putInt(ByteBuffer buffer, int value) {
+        ByteBuffer target = ensureCapacity(buffer, 4);
+        target.putInt(value);
+        return target;
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getChar()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static BigDecimal getDecimal(ByteBuffer buffer) {
+        int scale = buffer.getInt();
+        byte[] unscaled = new byte[buffer.getChar()];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    /**
+     * Returns a view of {@code length} bytes of the buffer starting at {@code offset}, independent of its position.
+     */
+    static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
@@ -0,0 +1,360 @@
+package com.db.awmd.challenge.ledger;
+
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.domain.TransactionPage;
+import com.db.awmd.challenge.metrics.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Append-only in-memory record of every applied money movement, with a per-account index for history queries.
+ * <p>
+ * Entries are stored column-wise in chunks of 64k: a timestamp, the amount as unscaled long and scale byte, and
+ * references to the index of each account involved, about 25 bytes per entry. Each account index is a list of ledger
+ * sequences held in primitive arrays of up to 1024 entries. Amounts that do not fit a long with a scale of at most
+ * 127 are kept aside in a map.
+ * <p>
+ * Only claiming the next sequence is serialized, so timestamps never decrease along the ledger; the entry itself and
+ * the account indexes are written afterwards, outside of the lock and outside of the transfer critical section.
+ * <p>
+ * The ledger keeps the most recent movements only, up to a maximum number of entries rounded up to whole chunks (4M
+ * by default, about 100 MB plus the indexes). Starting a new chunk beyond it drops the oldest chunk, and the index
+ * prefixes of the accounts it referenced; history queries skip entries dropped while they run.
+ */
+@Component
+public class TransactionLedger {
+
+    static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final byte WIDE_AMOUNT = Byte.MIN_VALUE;
+
+    private final boolean enabled;
+    /** Ring of the retained chunks, chunk number n in slot n modulo its length. */
+    private final AtomicReferenceArray<Chunk> chunks;
+    private final ConcurrentMap<String, AccountIndex> indexes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, BigDecimal> wideAmounts = new ConcurrentHashMap<>();
+    private long size;
+    /** Sequence of the oldest entry retained. */
+    private volatile long firstSequence;
+    private long lastTimestamp;
+
+    @Autowired
+    public TransactionLedger(@Value("${ledger.enabled:true}") boolean enabled,
+                             @Value("${ledger.max-entries:4194304}") long maxEntries, Metrics metrics) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("ledger.max-entries must be positive, was " + maxEntries);
+        }
+        this.enabled = enabled;
+        this.chunks = new AtomicReferenceArray<>((int) Math.min(Integer.MAX_VALUE,
+                (maxEntries + CHUNK_MASK) >>> CHUNK_BITS));
+        metrics.gauge("ledger_entries", "Money movements retained in the ledger", this::size);
+        metrics.gauge("ledger_accounts", "Accounts with at least one movement in the ledger", indexes::size);
+    }
+
+    public void recordTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+        if (enabled) {
+            append(index(accountFromId), index(accountToId), amount);
+        }
+    }
+
+    public void recordDeposit(String accountId, BigDecimal amount) {
+        if (enabled) {
+            append(null, index(accountId), amount);
+        }
+    }
+
+    public void recordWithdrawal(String accountId, BigDecimal amount) {
+        if (enabled) {
+            append(index(accountId), null, amount);
+        }
+    }
+
+    /**
+     * @return the number of movements retained
+     */
+    public synchronized long size() {
+        return size - firstSequence;
+    }
+
+    /**
+     * Returns the movements of the account, newest first.
+     * @param cursor only movements older than the cursor of a previous page, null for the newest ones
+     * @param fromMillis only movements at or after this time, null for no lower bound
+     * @param toMillis only movements at or before this time, null for no upper bound
+     * @param limit the maximum number of movements returned
+     */
+    public TransactionPage history(String accountId, Long cursor, Long fromMillis, Long toMillis, int limit) {
+        AccountIndex index = indexes.get(accountId);
+        if (index == null) {
+            return new TransactionPage(Collections.emptyList(), null);
+        }
+        long[] sequences;
+        Long nextCursor = null;
+        synchronized (index) {
+            index.trim(firstSequence);
+            int end = index.size;
+            if (cursor != null) {
+                end = index.firstPosition(sequence -> sequence >= cursor);
+            }
+            if (toMillis != null) {
+                end = Math.min(end, index.firstPosition(sequence -> timestamp(sequence) > toMillis));
+            }
+            int start = fromMillis == null ? 0 : index.firstPosition(sequence -> timestamp(sequence) >= fromMillis);
+            int pageStart = Math.max(start, end - limit);
+            sequences = index.copy(pageStart, Math.max(pageStart, end));
+            if (pageStart > start && sequences.length > 0) {
+                nextCursor = sequences[0];
+            }
+        }
+        List<LedgerEntry> entries = new ArrayList<>(sequences.length);
+        for (int i = sequences.length - 1; i >= 0; i--) {
+            LedgerEntry entry = entry(sequences[i]);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return new TransactionPage(entries, nextCursor);
+    }
+
+    private AccountIndex index(String accountId) {
+        return indexes.computeIfAbsent(accountId, AccountIndex::new);
+    }
+
+    private void append(AccountIndex from, AccountIndex to, BigDecimal amount) {
+        long sequence;
+        Chunk chunk;
+        Chunk dropped = null;
+        int slot;
+        synchronized (this) {
+            sequence = size;
+            slot = (int) (sequence & CHUNK_MASK);
+            long number = sequence >>> CHUNK_BITS;
+            int ringSlot = (int) (number % chunks.length());
+            if (slot == 0) {
+                dropped = chunks.getAndSet(ringSlot, new Chunk(number));
+                if (dropped != null) {
+                    firstSequence = (dropped.number + 1) << CHUNK_BITS;
+                }
+            }
+            chunk = chunks.get(ringSlot);
+            lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+            chunk.timestamps[slot] = lastTimestamp;
+            size++;
+        }
+        if (dropped != null) {
+            release(dropped);
+        }
+        chunk.from[slot] = from;
+        chunk.to[slot] = to;
+        if (amount.scale() >= 0 && amount.scale() <= Byte.MAX_VALUE && amount.precision() <= 18) {
+            chunk.units[slot] = amount.unscaledValue().longValue();
+            chunk.scales[slot] = (byte) amount.scale();
+        } else {
+            wideAmounts.put(sequence, amount);
+            chunk.scales[slot] = WIDE_AMOUNT;
+        }
+        // Adding to the indexes publishes the entry to readers
+        if (from != null) {
+            from.add(sequence);
+        }
+        if (to != null) {
+            to.add(sequence);
+        }
+    }
+
+    /**
+     * Trims the indexes of the accounts the dropped chunk referenced, and forgets its wide amounts.
+     */
+    private void release(Chunk dropped) {
+        long first = firstSequence;
+        AccountIndex previous = null;
+        for (AccountIndex[] column : Arrays.asList(dropped.from, dropped.to)) {
+            for (AccountIndex index : column) {
+                if (index != null && index != previous) {
+                    synchronized (index) {
+                        index.trim(first);
+                    }
+                    previous = index;
+                }
+            }
+        }
+        if (!wideAmounts.isEmpty()) {
+            wideAmounts.keySet().removeIf(sequence -> sequence < first);
+        }
+    }
+
+    /**
+     * Returns the chunk of the sequence, null if it was dropped.
+     */
+    private Chunk chunk(long sequence) {
+        long number = sequence >>> CHUNK_BITS;
+        Chunk chunk = chunks.get((int) (number % chunks.length()));
+        return chunk != null && chunk.number == number ? chunk : null;
+    }
+
+    /**
+     * Returns the time of the movement, or Long.MIN_VALUE once dropped as dropped movements are the oldest ones.
+     */
+    private long timestamp(long sequence) {
+        Chunk chunk = chunk(sequence);
+        return chunk == null ? Long.MIN_VALUE : chunk.timestamps[(int) (sequence & CHUNK_MASK)];
+    }
+
+    /**
+     * Returns the movement, null once dropped.
+     */
+    private LedgerEntry entry(long sequence) {
+        Chunk chunk = chunk(sequence);
+        if (chunk == null) {
+            return null;
+        }
+        int slot = (int) (sequence & CHUNK_MASK);
+        AccountIndex from = chunk.from[slot];
+        AccountIndex to = chunk.to[slot];
+        LedgerEntry.Type type = from == null ? LedgerEntry.Type.DEPOSIT
+                : to == null ? LedgerEntry.Type.WITHDRAWAL : LedgerEntry.Type.TRANSFER;
+        BigDecimal amount = chunk.scales[slot] == WIDE_AMOUNT ? wideAmounts.get(sequence)
+                : BigDecimal.valueOf(chunk.units[slot], chunk.scales[slot]);
+        return new LedgerEntry(sequence, chunk.timestamps[slot], type, from == null ? null : from.accountId,
+                to == null ? null : to.accountId, amount);
+    }
+
+    private static final class Chunk {
+
+        private final long number;
+        private final long[] timestamps = new long[CHUNK_SIZE];
+        private final long[] units = new long[CHUNK_SIZE];
+        private final byte[] scales = new byte[CHUNK_SIZE];
+        private final AccountIndex[] from = new AccountIndex[CHUNK_SIZE];
+        private final AccountIndex[] to = new AccountIndex[CHUNK_SIZE];
+
+        private Chunk(long number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Ledger sequences of the movements of one account in ascending order. The first array grows from 8 entries up
+     * to 1024, further ones are allocated full, so rarely used accounts stay small and large histories are never
+     * copied. Trimming moves the start past the dropped sequences and releases the arrays left wholly before it.
+     */
+    private static final class AccountIndex {
+
+        private static final int INDEX_CHUNK_BITS = 10;
+        private static final int INDEX_CHUNK_SIZE = 1 << INDEX_CHUNK_BITS;
+        private static final int INDEX_CHUNK_MASK = INDEX_CHUNK_SIZE - 1;
+
+        private final String accountId;
+        private long[][] chunks = {new long[8]};
+        /** Position in the arrays of the first sequence. */
+        private int start;
+        private int size;
+
+        private AccountIndex(String accountId) {
+            this.accountId = accountId;
+        }
+
+        /**
+         * Appends the sequence, moving it before any greater sequence whose writer got here first.
+         */
+        private synchronized void add(long sequence) {
+            int position = size;
+            ensureCapacity(start + position);
+            while (position > 0 && get(position - 1) > sequence) {
+                set(position, get(position - 1));
+                position--;
+            }
+            set(position, sequence);
+            size++;
+        }
+
+        /**
+         * Drops the sequences before the first one retained. Called while holding the index lock.
+         */
+        private void trim(long firstSequence) {
+            int dropped = firstPosition(sequence -> sequence >= firstSequence);
+            if (dropped == 0) {
+                return;
+            }
+            size -= dropped;
+            if (size == 0) {
+                chunks = new long[][] {new long[8]};
+                start = 0;
+                return;
+            }
+            start += dropped;
+            int released = start >>> INDEX_CHUNK_BITS;
+            if (released > 0) {
+                chunks = Arrays.copyOfRange(chunks, released, chunks.length);
+                start &= INDEX_CHUNK_MASK;
+            }
+        }
+
+        /**
+         * Returns the first position whose sequence satisfies the condition, which must hold for every later position
+         * once it holds. Called while holding the index lock.
+         */
+        private int firstPosition(LongPredicate condition) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (condition.test(get(middle))) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Called while holding the index lock.
+         */
+        private long[] copy(int from, int to) {
+            long[] result = new long[to - from];
+            for (int i = from; i < to; i++) {
+                result[i - from] = get(i);
+            }
+            return result;
+        }
+
+        private long get(int position) {
+            int offset = start + position;
+            return chunks[offset >>> INDEX_CHUNK_BITS][offset & INDEX_CHUNK_MASK];
+        }
+
+        private void set(int position, long sequence) {
+            int offset = start + position;
+            chunks[offset >>> INDEX_CHUNK_BITS][offset & INDEX_CHUNK_MASK] = sequence;
+        }
+
+        private void ensureCapacity(int position) {
+            int number = position >>> INDEX_CHUNK_BITS;
+            if (number == 0) {
+                if (position == chunks[0].length) {
+                    chunks[0] = Arrays.copyOf(chunks[0], position * 2);
+                }
+                return;
+            }
+            if (number == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[number] == null) {
+                chunks[number] = new long[INDEX_CHUNK_SIZE];
+            }
+        }
+    }
+}
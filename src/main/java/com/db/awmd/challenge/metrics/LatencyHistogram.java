@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with power of two buckets, from 1 microsecond up to 2^25 microseconds (about 33 seconds),
+ * longer durations fall in the overflow bucket. Recording only increments {@link LongAdder}s, so it never locks and,
+ * once the adders have grown their cells under contention, never allocates.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 26;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        counts[bucketOf(nanos)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of durations recorded in each bucket, the last one counting the overflows
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Upper bound, inclusive, of the bucket.
+     */
+    static long upperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * Rounds the duration up to whole microseconds, so that it never exceeds the upper bound of its bucket.
+     */
+    static int bucketOf(long nanos) {
+        long micros = (nanos + 999) / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(micros - 1));
+    }
+}
@@ -0,0 +1,120 @@
+package com.db.awmd.challenge.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the application metrics. Components register their counters, gauges and histograms once, when they are
+ * created, and then record into the returned instances directly; the registry itself is only consulted to render
+ * everything in the Prometheus text exposition format.
+ * <p>
+ * Labels are given as alternating names and values. Registering the same name and labels twice returns the same
+ * instance, so components built more than once share their series.
+ */
+@Component
+public class Metrics {
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public synchronized LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, COUNTER).series.computeIfAbsent(labels(labels), key -> new LongAdder());
+    }
+
+    /**
+     * Registers a gauge read when the metrics are rendered, replacing any previous one with the same name and labels.
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, GAUGE).series.put(labels(labels), value);
+    }
+
+    public synchronized LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, HISTOGRAM).series.computeIfAbsent(labels(labels),
+                key -> new LatencyHistogram());
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format, durations in seconds.
+     */
+    public synchronized void writeTo(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                Object value = series.getValue();
+                if (value instanceof LatencyHistogram) {
+                    writeHistogram(writer, name, series.getKey(), (LatencyHistogram) value);
+                } else {
+                    long current = value instanceof LongAdder ? ((LongAdder) value).sum()
+                            : ((LongSupplier) value).getAsLong();
+                    writer.write(name + braces(series.getKey()) + " " + current + "\n");
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer writer, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            String bound = i < LatencyHistogram.BUCKETS
+                    ? String.valueOf(LatencyHistogram.upperBoundMicros(i) / 1e6) : "+Inf";
+            writer.write(name + "_bucket{" + prefix + "le=\"" + bound + "\"} " + cumulative + "\n");
+        }
+        writer.write(name + "_sum" + braces(labels) + " " + histogram.getSumNanos() / 1e9 + "\n");
+        writer.write(name + "_count" + braces(labels) + " " + cumulative + "\n");
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static final class Family {
+
+        private final String help;
+        private final String type;
+        private final Map<String, Object> series = new LinkedHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
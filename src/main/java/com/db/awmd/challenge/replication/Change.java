@@ -0,0 +1,28 @@
+package com.db.awmd.challenge.replication;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance and version an account had at some point, numbered by the {@link ChangeStream} of the primary.
+ */
+@Data
+public class Change {
+
+    /**
+     * Position in the change stream, starting at 1.
+     */
+    private final long offset;
+
+    /**
+     * When the primary recorded the change, in milliseconds since the epoch.
+     */
+    private final long timeMillis;
+
+    private final String accountId;
+
+    private final BigDecimal balance;
+
+    private final long version;
+}
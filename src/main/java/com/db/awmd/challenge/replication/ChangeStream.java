@@ -0,0 +1,119 @@
+package com.db.awmd.challenge.replication;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.domain.ReplicationStatus;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.BalanceChangeListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Change stream of the primary: every creation and balance movement appends the balance and version the account has
+ * right after it, numbered by a global offset. Listeners are called concurrently and without the account locks, so
+ * two changes of an account may be numbered in the opposite order of their versions; replicas keep the highest
+ * version they saw, which makes the order irrelevant.
+ * <p>
+ * The last {@code replication.buffer-records} changes are retained in a ring written without locking: an append
+ * claims an offset and then publishes its change in the slot, readers stop at the first slot not published yet. A
+ * reader whose next change was overwritten has fallen behind and needs a full snapshot.
+ */
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "primary")
+public class ChangeStream implements BalanceChangeListener {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    /**
+     * Identifies this run of the primary, offsets of another run mean nothing to it.
+     */
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private final AtomicReferenceArray<Change> slots;
+    private final AtomicLong lastOffset = new AtomicLong();
+
+    @Autowired
+    public ChangeStream(@Value("${replication.buffer-records:1048576}") int bufferRecords, Metrics metrics) {
+        if (bufferRecords < 1) {
+            throw new IllegalArgumentException("replication.buffer-records must be positive");
+        }
+        this.slots = new AtomicReferenceArray<>(bufferRecords);
+        metrics.gauge("replication_offset", "Last offset of the change stream", lastOffset::get);
+    }
+
+    @Override
+    public void accountCreated(Account account) {
+        append(account);
+    }
+
+    @Override
+    public void balanceChanged(Account account, BigDecimal change) {
+        append(account);
+    }
+
+    private void append(Account account) {
+        BalanceSnapshot snapshot = account.getSnapshot();
+        long offset = lastOffset.incrementAndGet();
+        slots.set(slot(offset), new Change(offset, System.currentTimeMillis(), account.getAccountId(),
+                snapshot.getBalance(), snapshot.getVersion()));
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return offset of the last change claimed, possibly not readable yet
+     */
+    public long getOffset() {
+        return lastOffset.get();
+    }
+
+    public ReplicationStatus getStatus() {
+        long offset = getOffset();
+        return new ReplicationStatus(ReplicationStatus.Role.PRIMARY, offset, offset, 0, true);
+    }
+
+    /**
+     * Reads the changes following the given offset, waiting up to the given time for one if there is none yet.
+     * @return up to {@code max} changes in offset order, empty if none came in time, or null if the change following
+     *         the offset is no longer retained
+     */
+    public List<Change> read(long afterOffset, int max, long maxWaitMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        List<Change> changes = new ArrayList<>();
+        while (true) {
+            if (afterOffset > lastOffset.get()) {
+                return null;
+            }
+            for (long offset = afterOffset + 1; changes.size() < max; offset++) {
+                Change change = slots.get(slot(offset));
+                if (change == null || change.getOffset() < offset) {
+                    break;
+                }
+                if (change.getOffset() > offset) {
+                    return null;
+                }
+                changes.add(change);
+            }
+            if (!changes.isEmpty() || System.nanoTime() - deadline >= 0) {
+                return changes;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private int slot(long offset) {
+        return (int) (offset % slots.length());
+    }
+}
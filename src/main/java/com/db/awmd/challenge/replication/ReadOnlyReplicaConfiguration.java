@@ -0,0 +1,52 @@
+package com.db.awmd.challenge.replication;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A replica only serves what it replicates: account reads, statistics and its own metrics and status. Writes would
+ * diverge from the primary and are refused with 403, histories and transfer statuses are not replicated and answer
+ * 404.
+ */
+@Configuration
+@ConditionalOnProperty(name = "replication.role", havingValue = "replica")
+public class ReadOnlyReplicaConfiguration extends WebMvcConfigurerAdapter {
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws IOException {
+                if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+                    return refuse(response, HttpStatus.FORBIDDEN, "Read-only replica, send writes to the primary");
+                }
+                return true;
+            }
+        }).addPathPatterns("/v1/**", "/internal/**");
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws IOException {
+                return refuse(response, HttpStatus.NOT_FOUND, "Not replicated, read it from the primary");
+            }
+        }).addPathPatterns("/v1/accounts/*/transactions", "/v1/transactions/*");
+    }
+
+    private static boolean refuse(HttpServletResponse response, HttpStatus status, String message)
+            throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write(message);
+        return false;
+    }
+}
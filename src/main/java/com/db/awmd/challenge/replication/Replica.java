@@ -0,0 +1,231 @@
+package com.db.awmd.challenge.replication;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ReplicationStatus;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the change stream of the primary at {@code replication.primary} and applies it to the accounts of this
+ * node, which then serve reads only. Changes are applied by a single thread, an account keeps the change with the
+ * highest version of the primary. The connection is reopened after any failure, resuming from the last applied
+ * offset.
+ * <p>
+ * Reads may ask to see at least a version of an account or an offset of the stream, typically one returned by the
+ * primary for their own writes; they wait up to {@code replication.read-wait-millis} for the replica to catch up.
+ * Versions are those of the primary, the replica keeps them apart from the versions of its own accounts.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "replica")
+public class Replica implements DisposableBean {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_FRAMES_PER_SIGNAL = 1024;
+
+    private final AccountsService accountsService;
+    private final String host;
+    private final int port;
+    private final long readWaitMillis;
+    private final long reconnectMillis;
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+    private final Object progress = new Object();
+    private final Thread follower;
+    private volatile long epoch;
+    private volatile long appliedOffset;
+    private volatile long primaryOffset;
+    private volatile long primaryTimeMillis;
+    private volatile boolean connected;
+    private volatile Socket socket;
+    private volatile boolean running = true;
+
+    @Autowired
+    public Replica(AccountsService accountsService,
+                   @Value("${replication.primary:localhost:7070}") String primary,
+                   @Value("${replication.read-wait-millis:500}") long readWaitMillis,
+                   @Value("${replication.reconnect-millis:1000}") long reconnectMillis,
+                   Metrics metrics) {
+        this.accountsService = accountsService;
+        int colon = primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("replication.primary must be host:port, was " + primary);
+        }
+        this.host = primary.substring(0, colon);
+        this.port = Integer.parseInt(primary.substring(colon + 1));
+        this.readWaitMillis = readWaitMillis;
+        this.reconnectMillis = reconnectMillis;
+        metrics.gauge("replication_applied_offset", "Last offset of the primary applied here", () -> appliedOffset);
+        metrics.gauge("replication_lag_records", "Changes of the primary not applied here yet",
+                () -> Math.max(0, primaryOffset - appliedOffset));
+        metrics.gauge("replication_lag_millis", "Age of the state of the primary applied here, -1 before any",
+                this::getLagMillis);
+        metrics.gauge("replication_connected", "1 while connected to the primary", () -> connected ? 1 : 0);
+        this.follower = new Thread(this::follow, "replication-follower");
+        this.follower.setDaemon(true);
+        this.follower.start();
+    }
+
+    /**
+     * Waits until the replica applied at least the given version of the account and the given offset, either may be
+     * null.
+     * @return false if the replica did not catch up within {@code replication.read-wait-millis}
+     */
+    public boolean awaitApplied(String accountId, Long minVersion, Long minOffset) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readWaitMillis);
+        synchronized (progress) {
+            while (!isApplied(accountId, minVersion, minOffset)) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                progress.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    private boolean isApplied(String accountId, Long minVersion, Long minOffset) {
+        return (minOffset == null || appliedOffset >= minOffset)
+                && (minVersion == null || versions.getOrDefault(accountId, -1L) >= minVersion);
+    }
+
+    public ReplicationStatus getStatus() {
+        return new ReplicationStatus(ReplicationStatus.Role.REPLICA, appliedOffset, primaryOffset, getLagMillis(),
+                connected);
+    }
+
+    /**
+     * Time since the primary recorded the last change or heartbeat applied here. It includes the heartbeat
+     * interval when the replica is up to date, and grows while the primary cannot be reached.
+     */
+    private long getLagMillis() {
+        long time = primaryTimeMillis;
+        return time == 0 ? -1 : Math.max(0, System.currentTimeMillis() - time);
+    }
+
+    private void follow() {
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                out.writeLong(epoch);
+                out.writeLong(appliedOffset);
+                out.flush();
+                connected = true;
+                log.info("Following primary {}:{} from offset {}", host, port, appliedOffset);
+                receive(new DataInputStream(new BufferedInputStream(connection.getInputStream())));
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Replication from {}:{} interrupted, reconnecting: {}", host, port, e.getMessage());
+                }
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the frames as they come, waking up waiting reads whenever the frames received so far are applied.
+     */
+    private void receive(DataInputStream in) throws IOException {
+        int unsignalled = 0;
+        while (running) {
+            byte frame = in.readByte();
+            if (frame == ReplicationProtocol.CHANGE) {
+                Change change = ReplicationProtocol.readChange(in);
+                apply(change, false);
+                appliedOffset = change.getOffset();
+                primaryOffset = Math.max(primaryOffset, change.getOffset());
+                primaryTimeMillis = change.getTimeMillis();
+            } else if (frame == ReplicationProtocol.HEARTBEAT) {
+                primaryOffset = in.readLong();
+                primaryTimeMillis = in.readLong();
+            } else if (frame == ReplicationProtocol.SNAPSHOT) {
+                receiveSnapshot(in);
+            } else {
+                throw new IOException("Unexpected replication frame " + frame);
+            }
+            if (++unsignalled == MAX_FRAMES_PER_SIGNAL || in.available() == 0) {
+                unsignalled = 0;
+                synchronized (progress) {
+                    progress.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies every account of the snapshot whatever its version, the primary may have restarted with versions
+     * starting over.
+     */
+    private void receiveSnapshot(DataInputStream in) throws IOException {
+        long snapshotEpoch = in.readLong();
+        long offset = in.readLong();
+        long timeMillis = in.readLong();
+        long accounts = 0;
+        for (byte frame = in.readByte(); frame != ReplicationProtocol.SNAPSHOT_END; frame = in.readByte()) {
+            if (frame != ReplicationProtocol.ACCOUNT) {
+                throw new IOException("Unexpected replication frame " + frame + " in snapshot");
+            }
+            apply(ReplicationProtocol.readAccount(in, offset, timeMillis), true);
+            accounts++;
+        }
+        epoch = snapshotEpoch;
+        appliedOffset = offset;
+        primaryOffset = Math.max(primaryOffset, offset);
+        primaryTimeMillis = timeMillis;
+        log.info("Applied a snapshot of {} accounts at offset {}", accounts, offset);
+    }
+
+    private void apply(Change change, boolean snapshot) {
+        Long version = versions.get(change.getAccountId());
+        if (!snapshot && version != null && version >= change.getVersion()) {
+            return;
+        }
+        Account account = accountsService.getAccountsRepository().getAccount(change.getAccountId());
+        if (account == null) {
+            accountsService.restoreAccount(new Account(change.getAccountId(), change.getBalance()));
+        } else {
+            BigDecimal previous = account.getBalance();
+            if (previous.compareTo(change.getBalance()) != 0) {
+                account.setBalance(change.getBalance());
+                accountsService.balanceChanged(account, change.getBalance().subtract(previous));
+            }
+        }
+        versions.put(change.getAccountId(), change.getVersion());
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        running = false;
+        follower.interrupt();
+        Socket connection = socket;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Frames exchanged between a primary and a replica over TCP. The replica opens the connection and sends the epoch
+ * and offset it has applied; the primary then sends, in order:
+ * <ul>
+ * <li>if the replica is of another epoch or too far behind, a {@link #SNAPSHOT} frame with the epoch and the offset
+ * the snapshot starts from, an {@link #ACCOUNT} frame per account and a {@link #SNAPSHOT_END} frame;</li>
+ * <li>a {@link #CHANGE} frame per change after that offset, as they come;</li>
+ * <li>a {@link #HEARTBEAT} frame with the last offset and the time whenever there was no change for a while.</li>
+ * </ul>
+ */
+final class ReplicationProtocol {
+
+    static final byte SNAPSHOT = 'S';
+    static final byte ACCOUNT = 'A';
+    static final byte SNAPSHOT_END = 'E';
+    static final byte CHANGE = 'C';
+    static final byte HEARTBEAT = 'H';
+
+    private ReplicationProtocol() {
+    }
+
+    static void writeChange(DataOutputStream out, Change change) throws IOException {
+        out.writeByte(CHANGE);
+        out.writeLong(change.getOffset());
+        out.writeLong(change.getTimeMillis());
+        writeAccount(out, change.getAccountId(), change.getBalance(), change.getVersion());
+    }
+
+    static Change readChange(DataInputStream in) throws IOException {
+        long offset = in.readLong();
+        long timeMillis = in.readLong();
+        return new Change(offset, timeMillis, in.readUTF(), new BigDecimal(in.readUTF()), in.readLong());
+    }
+
+    static void writeAccount(DataOutputStream out, String accountId, BigDecimal balance, long version)
+            throws IOException {
+        out.writeUTF(accountId);
+        out.writeUTF(balance.toString());
+        out.writeLong(version);
+    }
+
+    /**
+     * Reads the body of an {@link #ACCOUNT} frame, as a change at the offset the snapshot started from.
+     */
+    static Change readAccount(DataInputStream in, long snapshotOffset, long timeMillis) throws IOException {
+        return new Change(snapshotOffset, timeMillis, in.readUTF(), new BigDecimal(in.readUTF()), in.readLong());
+    }
+}
@@ -0,0 +1,160 @@
+package com.db.awmd.challenge.replication;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ships the {@link ChangeStream} of the primary to the replicas connecting to {@code replication.port}, one thread
+ * per replica. Replicas are not authenticated, so the port listens on {@code replication.bind-address}, loopback
+ * unless the network between primary and replicas is trusted. A replica resuming within the retained changes gets the changes after the offset it applied,
+ * otherwise it first gets a snapshot of every account: its offset is taken before the accounts are traversed, so
+ * the changes following it cover whatever moved during the traversal.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "primary")
+public class ReplicationServer implements DisposableBean {
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final ChangeStream changeStream;
+    private final AccountsRepository accountsRepository;
+    private final long heartbeatMillis;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+    private final LongAdder snapshots;
+    private volatile boolean running = true;
+
+    @Autowired
+    public ReplicationServer(ChangeStream changeStream, AccountsRepository accountsRepository,
+                             @Value("${replication.bind-address:127.0.0.1}") String bindAddress,
+                             @Value("${replication.port:7070}") int port,
+                             @Value("${replication.heartbeat-millis:100}") long heartbeatMillis,
+                             Metrics metrics) throws IOException {
+        this.changeStream = changeStream;
+        this.accountsRepository = accountsRepository;
+        this.heartbeatMillis = heartbeatMillis;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        this.snapshots = metrics.counter("replication_snapshots_total", "Full snapshots sent to replicas");
+        metrics.gauge("replication_replicas", "Replicas connected to this primary", replicas::size);
+        Thread acceptor = new Thread(this::accept, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Primary shipping changes on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread sender = new Thread(() -> ship(socket), "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error("Accepting a replica failed", e);
+                }
+            }
+        }
+    }
+
+    private void ship(Socket socket) {
+        replicas.add(socket);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            long epoch = in.readLong();
+            long offset = in.readLong();
+            log.info("Replica {} connected at epoch {} offset {}", socket.getRemoteSocketAddress(), epoch, offset);
+            if (epoch != changeStream.getEpoch()) {
+                offset = sendSnapshot(out);
+            }
+            while (running) {
+                List<Change> changes = changeStream.read(offset, BATCH_SIZE, heartbeatMillis);
+                if (changes == null) {
+                    offset = sendSnapshot(out);
+                } else if (changes.isEmpty()) {
+                    out.writeByte(ReplicationProtocol.HEARTBEAT);
+                    out.writeLong(changeStream.getOffset());
+                    out.writeLong(System.currentTimeMillis());
+                } else {
+                    for (Change change : changes) {
+                        ReplicationProtocol.writeChange(out, change);
+                    }
+                    offset = changes.get(changes.size() - 1).getOffset();
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            log.info("Replica {} disconnected: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            replicas.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * @return offset the changes following the snapshot start from
+     */
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        long offset = changeStream.getOffset();
+        out.writeByte(ReplicationProtocol.SNAPSHOT);
+        out.writeLong(changeStream.getEpoch());
+        out.writeLong(offset);
+        out.writeLong(System.currentTimeMillis());
+        long accounts = 0;
+        for (Iterator<Account> iterator = accountsRepository.stream().iterator(); iterator.hasNext(); accounts++) {
+            Account account = iterator.next();
+            BalanceSnapshot snapshot = account.getSnapshot();
+            out.writeByte(ReplicationProtocol.ACCOUNT);
+            ReplicationProtocol.writeAccount(out, account.getAccountId(), snapshot.getBalance(),
+                    snapshot.getVersion());
+        }
+        out.writeByte(ReplicationProtocol.SNAPSHOT_END);
+        snapshots.increment();
+        log.info("Sent a snapshot of {} accounts at offset {}", accounts, offset);
+        return offset;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        closeQuietly(serverSocket);
+        replicas.forEach(ReplicationServer::closeQuietly);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.debug("Closing {} failed", closeable, e);
+        }
+    }
+}
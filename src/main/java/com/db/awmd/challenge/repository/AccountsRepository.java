@@ -2,12 +2,34 @@ package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * Throws whatever {@link #createAccount(Account)} would throw for the account, other than for a duplicate id, so
+   * that a creation is journaled only if the repository accepts it. The answer holds as long as no other account is
+   * created in between.
+   */
+  default void checkCreate(Account account) {
+  }
+
   Account getAccount(String accountId);
 
   void clearAccounts();
+
+  /**
+   * Weakly consistent traversal of all accounts: it never blocks writers nor fails on concurrent changes, and sees
+   * accounts created during the traversal or not. Balances are read one account at a time, so they need not add up
+   * to a total that existed at any single point in time. The spliterator splits for parallel traversal.
+   */
+  Spliterator<Account> spliterator();
+
+  default Stream<Account> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
 }
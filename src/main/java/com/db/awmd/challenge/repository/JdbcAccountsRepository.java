@@ -0,0 +1,308 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.BalanceChangeListener;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository serving every read and write from memory, like {@link AccountsRepositoryInMemory}, and persisting the
+ * accounts to a database behind the requests. Creations and balance movements only mark the account dirty; a
+ * flusher thread writes the current balance of the dirty accounts every {@code accounts.jdbc.flush-interval-millis}
+ * as batched upserts of {@code accounts.jdbc.batch-size} rows, one transaction per batch. An account moving many
+ * times between two flushes is written once.
+ * <p>
+ * The dirty set is bounded by {@code accounts.jdbc.max-dirty}: beyond it, writers start a flush and wait for the
+ * set to drain rather than let it grow while the database falls behind. A batch that fails stays dirty and is
+ * retried by the next flush. Shutdown flushes whatever is still dirty; movements acknowledged since the last flush
+ * are lost if the process dies, which is the price of not writing on the request path. The accounts are loaded back
+ * in bulk on startup, see {@link JdbcAccountsWarmup}.
+ * <p>
+ * The upsert is H2's {@code MERGE ... KEY}; any database with a JDBC driver on the classpath and that statement
+ * works.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "jdbc")
+public class JdbcAccountsRepository implements AccountsRepository, BalanceChangeListener, DisposableBean {
+
+  private static final String CREATE_TABLE =
+      "CREATE TABLE IF NOT EXISTS accounts (account_id VARCHAR(255) PRIMARY KEY, balance DECIMAL NOT NULL)";
+  private static final String UPSERT = "MERGE INTO accounts (account_id, balance) KEY (account_id) VALUES (?, ?)";
+  private static final String SELECT_ALL = "SELECT account_id, balance FROM accounts";
+  private static final int FETCH_SIZE = 10_000;
+
+  private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+  private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger dirtyCount = new AtomicInteger();
+
+  private final Connection connection;
+
+  private final int batchSize;
+
+  private final int maxDirty;
+
+  private final long flushIntervalMillis;
+
+  private final ScheduledExecutorService flusher;
+
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+  private final Object drained = new Object();
+
+  private final LongAdder flushed;
+
+  private final LongAdder failures;
+
+  private final LongAdder writerWaits;
+
+  private volatile boolean loading;
+
+  @Autowired
+  public JdbcAccountsRepository(@Value("${accounts.jdbc.url:jdbc:h2:./data/accounts}") String url,
+                                @Value("${accounts.jdbc.username:sa}") String username,
+                                @Value("${accounts.jdbc.password:}") String password,
+                                @Value("${accounts.jdbc.flush-interval-millis:200}") long flushIntervalMillis,
+                                @Value("${accounts.jdbc.batch-size:1000}") int batchSize,
+                                @Value("${accounts.jdbc.max-dirty:100000}") int maxDirty,
+                                Metrics metrics) throws SQLException {
+    if (batchSize < 1 || maxDirty < batchSize) {
+      throw new IllegalArgumentException("accounts.jdbc.batch-size must be positive and at most max-dirty");
+    }
+    this.batchSize = batchSize;
+    this.maxDirty = maxDirty;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.connection = DriverManager.getConnection(url, username, password);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(CREATE_TABLE);
+    }
+    this.connection.setAutoCommit(false);
+    this.flushed = metrics.counter("jdbc_flushed_accounts_total", "Accounts written to the database");
+    this.failures = metrics.counter("jdbc_flush_failures_total", "Batches the database failed to write");
+    this.writerWaits = metrics.counter("jdbc_writer_waits_total",
+        "Movements that waited for the dirty accounts to be flushed");
+    metrics.gauge("jdbc_dirty_accounts", "Accounts changed and not written to the database yet", dirtyCount::get);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "jdbc-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher.scheduleWithFixedDelay(this::scheduledFlush, flushIntervalMillis, flushIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    log.info("Accounts persisted to {} every {} ms in batches of {}", url, flushIntervalMillis, batchSize);
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
+    if (previousAccount != null) {
+      throw new DuplicateAccountIdException(
+        "Account id " + account.getAccountId() + " already exists!");
+    }
+    if (!loading) {
+      markDirty(account.getAccountId());
+    }
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    return accounts.get(accountId);
+  }
+
+  /**
+   * Removes the accounts from memory and from the database.
+   */
+  @Override
+  public synchronized void clearAccounts() {
+    accounts.clear();
+    dirty.clear();
+    dirtyCount.set(0);
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("DELETE FROM accounts");
+      connection.commit();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot clear the accounts table", e);
+    }
+  }
+
+  @Override
+  public Spliterator<Account> spliterator() {
+    return accounts.values().spliterator();
+  }
+
+  @Override
+  public void accountCreated(Account account) {
+    // Marked by createAccount already
+  }
+
+  @Override
+  public void balanceChanged(Account account, BigDecimal change) {
+    markDirty(account.getAccountId());
+  }
+
+  /**
+   * Streams every stored account to the consumer, which is expected to create it through this repository; those
+   * creations are not marked dirty. Must be called on startup, before any request.
+   * @return number of accounts loaded
+   */
+  public synchronized long load(BiConsumer<String, BigDecimal> consumer) throws SQLException {
+    long loaded = 0;
+    loading = true;
+    try (Statement statement = connection.createStatement()) {
+      statement.setFetchSize(FETCH_SIZE);
+      try (ResultSet rows = statement.executeQuery(SELECT_ALL)) {
+        while (rows.next()) {
+          consumer.accept(rows.getString(1), rows.getBigDecimal(2));
+          loaded++;
+        }
+      }
+      connection.commit();
+    } finally {
+      loading = false;
+    }
+    return loaded;
+  }
+
+  private void markDirty(String accountId) {
+    if (dirty.add(accountId) && dirtyCount.incrementAndGet() > maxDirty) {
+      awaitDrained();
+    }
+  }
+
+  /**
+   * Called by writers finding the dirty set full, without any account lock held by the flusher, so waiting cannot
+   * deadlock. Waits as long as the database does not take the writes.
+   */
+  private void awaitDrained() {
+    writerWaits.increment();
+    if (flushRequested.compareAndSet(false, true)) {
+      flusher.execute(this::scheduledFlush);
+    }
+    synchronized (drained) {
+      while (dirtyCount.get() > maxDirty && !flusher.isShutdown()) {
+        try {
+          drained.wait(flushIntervalMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void scheduledFlush() {
+    flushRequested.set(false);
+    try {
+      flush();
+    } catch (SQLException e) {
+      log.error("Flushing dirty accounts failed, {} still dirty", dirtyCount.get(), e);
+    }
+  }
+
+  /**
+   * Writes the current balance of every dirty account. An account is taken out of the dirty set before its balance
+   * is read, so a movement racing with the flush marks it again and is written by the next one.
+   * @return number of accounts written
+   */
+  public synchronized int flush() throws SQLException {
+    int written = 0;
+    List<String> batch = new ArrayList<>(batchSize);
+    try (PreparedStatement upsert = connection.prepareStatement(UPSERT)) {
+      for (Iterator<String> iterator = dirty.iterator(); iterator.hasNext(); ) {
+        String accountId = iterator.next();
+        iterator.remove();
+        dirtyCount.decrementAndGet();
+        Account account = accounts.get(accountId);
+        if (account == null) {
+          continue;
+        }
+        upsert.setString(1, accountId);
+        upsert.setBigDecimal(2, account.getBalance());
+        upsert.addBatch();
+        batch.add(accountId);
+        if (batch.size() == batchSize) {
+          written += writeBatch(upsert, batch);
+        }
+      }
+      if (!batch.isEmpty()) {
+        written += writeBatch(upsert, batch);
+      }
+    }
+    return written;
+  }
+
+  private int writeBatch(PreparedStatement upsert, List<String> batch) throws SQLException {
+    try {
+      upsert.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      failures.increment();
+      connection.rollback();
+      upsert.clearBatch();
+      for (String accountId : batch) {
+        if (dirty.add(accountId)) {
+          dirtyCount.incrementAndGet();
+        }
+      }
+      batch.clear();
+      throw e;
+    }
+    int written = batch.size();
+    flushed.add(written);
+    batch.clear();
+    synchronized (drained) {
+      drained.notifyAll();
+    }
+    return written;
+  }
+
+  /**
+   * Flushes what is still dirty once the application no longer moves money, then closes the connection.
+   */
+  @Override
+  public void destroy() throws SQLException {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      try {
+        int written = flush();
+        log.info("Flushed {} accounts on shutdown", written);
+      } finally {
+        connection.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import java.sql.SQLException;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the accounts persisted by the {@link JdbcAccountsRepository} on startup, before the application accepts
+ * requests, in one streamed query. They are restored through the {@link AccountsService} so that the transfer
+ * engine adopts them and the statistics count them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "jdbc")
+public class JdbcAccountsWarmup {
+
+  private final JdbcAccountsRepository accountsRepository;
+
+  private final AccountsService accountsService;
+
+  @Autowired
+  public JdbcAccountsWarmup(JdbcAccountsRepository accountsRepository, AccountsService accountsService,
+                            @Value("${journal.enabled:false}") boolean journalEnabled) {
+    if (journalEnabled) {
+      throw new IllegalStateException("accounts.repository=jdbc persists the accounts itself, "
+          + "it cannot be combined with journal.enabled=true");
+    }
+    this.accountsRepository = accountsRepository;
+    this.accountsService = accountsService;
+  }
+
+  @PostConstruct
+  public void warm() throws SQLException {
+    long start = System.nanoTime();
+    long loaded = this.accountsRepository.load(
+        (accountId, balance) -> this.accountsService.restoreAccount(new Account(accountId, balance)));
+    log.info("Loaded {} accounts from the database in {} ms", loaded,
+        (System.nanoTime() - start) / 1_000_000);
+  }
+}
@@ -0,0 +1,360 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.domain.MinorUnitBalance;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository keeping accounts in fixed-size slots indexed by open addressing with linear probing. The account ids
+ * live off-heap in a direct buffer, one 48 byte record per slot: {@code [id length][id bytes]}. The words updated
+ * atomically, the hash of every slot and its balance in minor units and version, live in two primitive atomic
+ * arrays, since Java 8 offers no atomic access to a direct buffer. Lookups return short-lived {@link OffHeapAccount}
+ * views reading and writing the slot in place, so the heap holds no per-account object.
+ * <p>
+ * Slots are claimed with compare-and-set on their hash word and published once the id is written, so lookups and
+ * inserts never lock. Accounts are never removed, which keeps every probe sequence intact; the capacity is fixed at
+ * startup (1M accounts by default) and account ids are limited to 40 bytes.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "offheap")
+public class OffHeapAccountsRepository implements AccountsRepository {
+
+  static final int RECORD_SIZE = 48;
+  private static final int ID_OFFSET = 8;
+  static final int MAX_ID_BYTES = RECORD_SIZE - ID_OFFSET;
+
+  private static final int EMPTY = 0;
+  private static final int BUSY = 1;
+  private static final int MIN_SPLIT_SLOTS = 1 << 10;
+
+  private final int scale;
+  private final int maxAccounts;
+  private final int mask;
+  private final ByteBuffer records;
+  private final AtomicIntegerArray hashes;
+  /** Balance of slot i at 2i, its version at 2i + 1. */
+  private final AtomicLongArray words;
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * Allocates the smallest power of two of slots keeping a quarter of them free when full, so between 4/3 and 8/3
+   * slots per account: 48 bytes off-heap and 20 bytes on the heap each.
+   */
+  @Autowired
+  public OffHeapAccountsRepository(@Value("${accounts.offheap.capacity:1048576}") int capacity,
+                                   @Value("${accounts.offheap.scale:2}") int scale) {
+    int slots = 1;
+    while (slots < capacity + capacity / 3 + 1) {
+      slots <<= 1;
+    }
+    if ((long) slots * RECORD_SIZE > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("accounts.offheap.capacity " + capacity + " needs " + slots
+        + " slots, more than a direct buffer holds");
+    }
+    this.scale = scale;
+    this.maxAccounts = capacity;
+    this.mask = slots - 1;
+    this.records = ByteBuffer.allocateDirect(slots * RECORD_SIZE);
+    this.hashes = new AtomicIntegerArray(slots);
+    this.words = new AtomicLongArray(2 * slots);
+    log.info("Allocated {} MB off-heap and {} MB on the heap for {} accounts in {} slots",
+        ((long) slots * RECORD_SIZE) >> 20, ((long) slots * 20) >> 20, capacity, slots);
+  }
+
+  @Override
+  public void createAccount(Account account) throws DuplicateAccountIdException {
+    byte[] id = checkedIdBytes(account.getAccountId());
+    long units = toMinorUnits(account);
+    if (size.incrementAndGet() > maxAccounts) {
+      size.decrementAndGet();
+      throw full();
+    }
+    int hash = hash(account.getAccountId());
+    for (int index = hash & mask; ; ) {
+      int current = hashes.get(index);
+      if (current == EMPTY) {
+        if (hashes.compareAndSet(index, EMPTY, BUSY)) {
+          int record = index * RECORD_SIZE;
+          records.putShort(record, (short) id.length);
+          for (int i = 0; i < id.length; i++) {
+            records.put(record + ID_OFFSET + i, id[i]);
+          }
+          words.set(2 * index, units);
+          words.set(2 * index + 1, 0L);
+          hashes.set(index, hash);
+          return;
+        }
+        continue;
+      }
+      if (current == BUSY) {
+        Thread.yield();
+        continue;
+      }
+      if (current == hash && idEquals(index, id)) {
+        size.decrementAndGet();
+        throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  @Override
+  public void checkCreate(Account account) {
+    checkedIdBytes(account.getAccountId());
+    toMinorUnits(account);
+    if (size.get() >= maxAccounts) {
+      throw full();
+    }
+  }
+
+  @Override
+  public Account getAccount(String accountId) {
+    byte[] id = idBytes(accountId);
+    if (id.length > MAX_ID_BYTES) {
+      return null;
+    }
+    int hash = hash(accountId);
+    for (int index = hash & mask; ; ) {
+      int current = hashes.get(index);
+      if (current == EMPTY) {
+        return null;
+      }
+      if (current == BUSY) {
+        Thread.yield();
+        continue;
+      }
+      if (current == hash && idEquals(index, id)) {
+        return new OffHeapAccount(accountId, index);
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /**
+   * Drops every account. Must not run concurrently with other operations, outstanding views become invalid.
+   */
+  @Override
+  public void clearAccounts() {
+    for (int index = 0; index <= mask; index++) {
+      hashes.set(index, EMPTY);
+    }
+    size.set(0);
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Splits by slot range. Records are reported once published, a slot still being written is skipped.
+   */
+  @Override
+  public Spliterator<Account> spliterator() {
+    return new SlotSpliterator(0, mask + 1);
+  }
+
+  private boolean idEquals(int index, byte[] id) {
+    int record = index * RECORD_SIZE;
+    if (records.getShort(record) != id.length) {
+      return false;
+    }
+    for (int i = 0; i < id.length; i++) {
+      if (records.get(record + ID_OFFSET + i) != id[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long toMinorUnits(Account account) {
+    if (account instanceof MinorUnitBalance && ((MinorUnitBalance) account).getScale() == scale) {
+      return ((MinorUnitBalance) account).getMinorUnits();
+    }
+    return MinorUnitBalance.toMinorUnits(account.getBalance(), scale);
+  }
+
+  private String readId(int index) {
+    int record = index * RECORD_SIZE;
+    byte[] id = new byte[records.getShort(record)];
+    for (int i = 0; i < id.length; i++) {
+      id[i] = records.get(record + ID_OFFSET + i);
+    }
+    return new String(id, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] idBytes(String accountId) {
+    return accountId.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] checkedIdBytes(String accountId) {
+    byte[] id = idBytes(accountId);
+    if (id.length > MAX_ID_BYTES) {
+      throw new InvalidArgumentException("Account id " + accountId + " is longer than " + MAX_ID_BYTES + " bytes");
+    }
+    return id;
+  }
+
+  private IllegalStateException full() {
+    return new IllegalStateException("Account repository is full, capacity is " + maxAccounts + " accounts");
+  }
+
+  /**
+   * Spreads the string hash and keeps it clear of the two reserved slot states.
+   */
+  private static int hash(String accountId) {
+    int h = accountId.hashCode();
+    h ^= h >>> 16;
+    return h == EMPTY || h == BUSY ? h + 2 : h;
+  }
+
+  private final class SlotSpliterator implements Spliterator<Account> {
+
+    private int index;
+    private final int end;
+
+    private SlotSpliterator(int index, int end) {
+      this.index = index;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Account> action) {
+      while (index < end) {
+        int slot = index++;
+        int current = hashes.get(slot);
+        if (current != EMPTY && current != BUSY) {
+          action.accept(new OffHeapAccount(readId(slot), slot));
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Spliterator<Account> trySplit() {
+      int middle = (index + end) >>> 1;
+      if (middle - index < MIN_SPLIT_SLOTS) {
+        return null;
+      }
+      SlotSpliterator prefix = new SlotSpliterator(index, middle);
+      index = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return (long) (end - index) * size.get() / (mask + 1);
+    }
+
+    @Override
+    public int characteristics() {
+      return CONCURRENT | DISTINCT | NONNULL;
+    }
+  }
+
+  /**
+   * View of one account slot. Balance reads and writes go straight to the slot and bump its version, the
+   * {@link MinorUnitBalance} operations use compare-and-set on it, so every transfer engine can work on it.
+   */
+  public class OffHeapAccount extends Account implements MinorUnitBalance {
+
+    private final int balanceWord;
+    private final int versionWord;
+
+    OffHeapAccount(String accountId, int index) {
+      super(accountId);
+      this.balanceWord = 2 * index;
+      this.versionWord = 2 * index + 1;
+    }
+
+    @Override
+    public BigDecimal getBalance() {
+      return BigDecimal.valueOf(getMinorUnits(), scale);
+    }
+
+    /**
+     * Reads the version, balance and version again until both versions agree. The version is bumped after the
+     * balance, so a movement in flight may still pair the new balance with the previous version.
+     */
+    @Override
+    @JsonIgnore
+    public BalanceSnapshot getSnapshot() {
+      for (;;) {
+        long version = getVersion();
+        long units = getMinorUnits();
+        if (getVersion() == version) {
+          return new BalanceSnapshot(BigDecimal.valueOf(units, scale), version);
+        }
+      }
+    }
+
+    @Override
+    public void setBalance(BigDecimal balance) {
+      words.set(balanceWord, toMinorUnits(balance));
+      words.incrementAndGet(versionWord);
+    }
+
+    @Override
+    @JsonIgnore
+    public int getScale() {
+      return scale;
+    }
+
+    @Override
+    @JsonIgnore
+    public long getMinorUnits() {
+      return words.get(balanceWord);
+    }
+
+    /**
+     * Number of balance changes since the account was created.
+     */
+    @Override
+    @JsonIgnore
+    public long getVersion() {
+      return words.get(versionWord);
+    }
+
+    @Override
+    public boolean tryDebit(long units) {
+      for (;;) {
+        long current = getMinorUnits();
+        if (current < units) {
+          return false;
+        }
+        if (words.compareAndSet(balanceWord, current, current - units)) {
+          words.incrementAndGet(versionWord);
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void credit(long units) {
+      for (;;) {
+        long current = getMinorUnits();
+        if (words.compareAndSet(balanceWord, current, Math.addExact(current, units))) {
+          words.incrementAndGet(versionWord);
+          return;
+        }
+      }
+    }
+  }
+}
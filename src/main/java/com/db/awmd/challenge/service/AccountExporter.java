@@ -0,0 +1,54 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Writes every account as one line of newline delimited JSON, in the format {@link AccountImporter} reads. Accounts
+ * are taken from the repository traversal one at a time and go straight to the output through the Jackson streaming
+ * generator, so neither the accounts nor the output are collected in memory and no account lock is taken.
+ */
+@Slf4j
+@Component
+public class AccountExporter {
+
+    private final AccountsService accountsService;
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public AccountExporter(AccountsService accountsService, ObjectMapper objectMapper) {
+        this.accountsService = accountsService;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * @return the number of accounts written
+     */
+    public long exportAccounts(OutputStream output) throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+            generator.setRootValueSeparator(null);
+            Iterator<Account> accounts = accountsService.streamAccounts().iterator();
+            while (accounts.hasNext()) {
+                Account account = accounts.next();
+                generator.writeStartObject();
+                generator.writeStringField("accountId", account.getAccountId());
+                generator.writeNumberField("balance", account.getBalance());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        log.info("Exported {} accounts", count);
+        return count;
+    }
+}
@@ -0,0 +1,129 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.cluster.ClusterRouting;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BulkImportResult;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads accounts from a JSON array or from newline delimited JSON objects with the Jackson streaming parser, so
+ * memory use does not depend on the size of the body, and creates them in batches through
+ * {@link AccountsService#createAccounts(List, BulkImportResult)}. Records are checked against the same rules as
+ * {@link Account}'s validation annotations; invalid and duplicate accounts are counted and skipped. In partitioned
+ * mode accounts owned by other nodes are rejected too, they would be out of reach here.
+ */
+@Slf4j
+@Component
+public class AccountImporter {
+
+    private final AccountsService accountsService;
+    private final ClusterRouting clusterRouting;
+    private final JsonFactory jsonFactory;
+    private final int batchSize;
+
+    @Autowired
+    public AccountImporter(AccountsService accountsService, ClusterRouting clusterRouting, ObjectMapper objectMapper,
+                           @Value("${accounts.bulk.batch-size:1000}") int batchSize) {
+        this.accountsService = accountsService;
+        this.clusterRouting = clusterRouting;
+        this.jsonFactory = objectMapper.getFactory();
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports every account of the body. A malformed body stops the import, the accounts read before it are still
+     * created and the result is marked incomplete.
+     */
+    public BulkImportResult importAccounts(InputStream body) throws IOException {
+        BulkImportResult result = new BulkImportResult();
+        List<Account> batch = new ArrayList<>(batchSize);
+        long record = 0;
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                record++;
+                try {
+                    Account account = readAccount(parser);
+                    if (clusterRouting.isRemote(account.getAccountId())) {
+                        result.addRejected("Record " + record + ": account " + account.getAccountId()
+                                + " is owned by node " + clusterRouting.ownerOf(account.getAccountId()));
+                    } else {
+                        batch.add(account);
+                    }
+                } catch (InvalidArgumentException iae) {
+                    result.addRejected("Record " + record + ": " + iae.getMessage());
+                }
+                if (batch.size() == batchSize) {
+                    flush(batch, result);
+                }
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            result.abort("Record " + record + ": malformed JSON, " + e.getOriginalMessage());
+        }
+        flush(batch, result);
+        log.info("Imported {} accounts, {} duplicates, {} rejected, complete {}", result.getImported(),
+                result.getDuplicates(), result.getRejected(), result.isComplete());
+        return result;
+    }
+
+    private void flush(List<Account> batch, BulkImportResult result) {
+        if (!batch.isEmpty()) {
+            accountsService.createAccounts(batch, result);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Reads the object the parser is positioned on up to its end, unknown fields are ignored.
+     * @throws InvalidArgumentException if it is not a valid account, once the whole record has been consumed
+     */
+    private static Account readAccount(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            throw new InvalidArgumentException("Expected an account object");
+        }
+        String accountId = null;
+        BigDecimal balance = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("accountId".equals(field) && value == JsonToken.VALUE_STRING) {
+                accountId = parser.getText();
+            } else if ("balance".equals(field) && value.isNumeric()) {
+                balance = parser.getDecimalValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (accountId == null || accountId.isEmpty()) {
+            throw new InvalidArgumentException("Account id must not be empty");
+        }
+        if (balance == null) {
+            throw new InvalidArgumentException("Account " + accountId + " has no balance");
+        }
+        if (balance.signum() < 0) {
+            throw new InvalidArgumentException("Account " + accountId + ": Initial balance must be positive.");
+        }
+        return new Account(accountId, balance);
+    }
+}
@@ -0,0 +1,134 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.LatencyHistogram;
+import com.db.awmd.challenge.metrics.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped lock table guarding account balances. Every account id hashes onto one stripe, so operations on
+ * unrelated accounts never wait on each other. Operations touching several accounts take their stripes in
+ * ascending stripe order, which rules out lock cycles between concurrent transfers.
+ */
+@Component
+public class AccountLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final long timeoutMillis;
+    private final LatencyHistogram lockWait;
+    private final LongAdder lockTimeouts;
+
+    @Autowired
+    public AccountLocks(@Value("${transfer.lock.stripes:1024}") int stripeCount,
+                        @Value("${transfer.lock.timeout-millis:5000}") long timeoutMillis,
+                        Metrics metrics) {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.timeoutMillis = timeoutMillis;
+        this.lockWait = metrics.histogram("account_lock_wait_seconds",
+                "Time spent acquiring the account locks of an operation");
+        this.lockTimeouts = metrics.counter("account_lock_timeouts_total",
+                "Operations turned away because their account locks were not acquired in time");
+    }
+
+    public int stripeOf(String accountId) {
+        int h = accountId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return true if some thread currently holds the stripe, a hint only as it may change right after
+     */
+    public boolean isLocked(int stripe) {
+        return stripes[stripe].isLocked();
+    }
+
+    /**
+     * Returns the distinct stripes of the given accounts in acquisition order.
+     */
+    public int[] orderedStripes(String... accountIds) {
+        int[] result = new int[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            result[i] = stripeOf(accountIds[i]);
+        }
+        Arrays.sort(result);
+        int distinct = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[distinct - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return distinct == result.length ? result : Arrays.copyOf(result, distinct);
+    }
+
+    /**
+     * Acquires all the given stripes within the timeout. On failure every stripe taken so far is released. The time
+     * spent waiting is recorded either way.
+     * @param orderedStripes stripes as returned by {@link #orderedStripes(String...)}
+     * @return true if all stripes are now held by the calling thread
+     */
+    public boolean tryLock(int[] orderedStripes, long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        try {
+            for (int i = 0; i < orderedStripes.length; i++) {
+                ReentrantLock stripe = stripes[orderedStripes[i]];
+                boolean acquired;
+                try {
+                    acquired = stripe.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    unlock(orderedStripes, i);
+                    throw e;
+                }
+                if (!acquired) {
+                    unlock(orderedStripes, i);
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lockWait.recordSince(start);
+        }
+    }
+
+    /**
+     * Acquires all the given stripes, waiting at most the configured lock timeout (5sec by default).
+     * @throws ServerBusyException if the stripes could not be acquired in time
+     */
+    public void lock(int[] orderedStripes) {
+        try {
+            if (!tryLock(orderedStripes, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                lockTimeouts.increment();
+                throw new ServerBusyException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException(e);
+        }
+    }
+
+    public void unlock(int[] orderedStripes) {
+        unlock(orderedStripes, orderedStripes.length);
+    }
+
+    private void unlock(int[] orderedStripes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[orderedStripes[i]].unlock();
+        }
+    }
+}
@@ -1,7 +1,19 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BulkImportResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.journal.AccountJournal;
+import com.db.awmd.challenge.metrics.Metrics;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -12,16 +24,157 @@ public class AccountsService {
   @Getter
   private final AccountsRepository accountsRepository;
 
+  private final TransferEngine transferEngine;
+
+  private final AccountLocks accountLocks;
+
+  private final AccountJournal accountJournal;
+
+  private final List<BalanceChangeListener> balanceChangeListeners;
+
+  /**
+   * Held while checking, journaling and inserting accounts, so no other creation fills the repository in between.
+   */
+  private final Object creationLock = new Object();
+
+  private final LongAdder lookupHits;
+
+  private final LongAdder lookupMisses;
+
+  private final LongAdder created;
+
   @Autowired
-  public AccountsService(AccountsRepository accountsRepository) {
+  public AccountsService(AccountsRepository accountsRepository, TransferEngine transferEngine,
+                         AccountLocks accountLocks, AccountJournal accountJournal,
+                         List<BalanceChangeListener> balanceChangeListeners, Metrics metrics) {
     this.accountsRepository = accountsRepository;
+    this.transferEngine = transferEngine;
+    this.accountLocks = accountLocks;
+    this.accountJournal = accountJournal;
+    this.balanceChangeListeners = balanceChangeListeners;
+    this.lookupHits = metrics.counter("account_lookups_total", "Repository lookups by result", "result", "hit");
+    this.lookupMisses = metrics.counter("account_lookups_total", "Repository lookups by result", "result", "miss");
+    this.created = metrics.counter("accounts_created_total", "Accounts created through the service");
   }
 
+  /**
+   * Journals the creation before the account becomes visible, so every movement journaled for it comes after its
+   * creation record. The repository is asked first whether it accepts the account, a creation it would refuse is
+   * never journaled as recovery could not replay it. Returns once the creation is durable.
+   */
   public void createAccount(Account account) {
-    this.accountsRepository.createAccount(account);
+    Account adopted = this.transferEngine.adopt(account);
+    int[] stripes = this.accountLocks.orderedStripes(adopted.getAccountId());
+    long position;
+    synchronized (this.creationLock) {
+      this.accountLocks.lock(stripes);
+      try {
+        if (this.accountsRepository.getAccount(adopted.getAccountId()) != null) {
+          throw new DuplicateAccountIdException("Account id " + adopted.getAccountId() + " already exists!");
+        }
+        this.accountsRepository.checkCreate(adopted);
+        position = this.accountJournal.appendCreate(adopted.getAccountId(), adopted.getBalance());
+        this.accountsRepository.createAccount(adopted);
+      } finally {
+        this.accountLocks.unlock(stripes);
+      }
+    }
+    this.accountJournal.awaitDurable(position);
+    this.created.increment();
+    created(adopted.getAccountId());
+  }
+
+  /**
+   * Creates a batch of accounts like {@link #createAccount(Account)}, taking the locks of the whole batch and
+   * waiting for durability once. Accounts that already exist, or appear twice in the batch, are skipped and so are
+   * accounts the engine cannot adopt or the repository refuses; each outcome is added to the result.
+   */
+  public void createAccounts(List<Account> accounts, BulkImportResult result) {
+    List<Account> adopted = new ArrayList<>(accounts.size());
+    for (Account account : accounts) {
+      try {
+        adopted.add(this.transferEngine.adopt(account));
+      } catch (InvalidArgumentException iae) {
+        result.addRejected("Account id " + account.getAccountId() + ": " + iae.getMessage());
+      }
+    }
+    String[] accountIds = new String[adopted.size()];
+    for (int i = 0; i < accountIds.length; i++) {
+      accountIds[i] = adopted.get(i).getAccountId();
+    }
+    int[] stripes = this.accountLocks.orderedStripes(accountIds);
+    Set<String> batchIds = new HashSet<>();
+    int count = 0;
+    long position = -1;
+    synchronized (this.creationLock) {
+      this.accountLocks.lock(stripes);
+      try {
+        for (Account account : adopted) {
+          if (!batchIds.add(account.getAccountId())
+              || this.accountsRepository.getAccount(account.getAccountId()) != null) {
+            result.addDuplicate(account.getAccountId());
+            continue;
+          }
+          try {
+            this.accountsRepository.checkCreate(account);
+          } catch (InvalidArgumentException | IllegalStateException ex) {
+            result.addRejected(ex.getMessage());
+            continue;
+          }
+          position = this.accountJournal.appendCreate(account.getAccountId(), account.getBalance());
+          this.accountsRepository.createAccount(account);
+          created(account.getAccountId());
+          count++;
+        }
+      } finally {
+        this.accountLocks.unlock(stripes);
+      }
+    }
+    if (position >= 0) {
+      this.accountJournal.awaitDurable(position);
+    }
+    result.addImported(count);
+    this.created.add(count);
+  }
+
+  /**
+   * Puts back an account rebuilt from the journal, without journaling it again.
+   */
+  public void restoreAccount(Account account) {
+    this.accountsRepository.createAccount(this.transferEngine.adopt(account));
+    created(account.getAccountId());
+  }
+
+  /**
+   * Reports a movement applied to the account to every {@link BalanceChangeListener}.
+   * @param change amount added to the balance, negative for a debit
+   */
+  public void balanceChanged(Account account, BigDecimal change) {
+    for (BalanceChangeListener listener : this.balanceChangeListeners) {
+      listener.balanceChanged(account, change);
+    }
+  }
+
+  /**
+   * All accounts, weakly consistent, see {@link AccountsRepository#spliterator()}.
+   */
+  public Stream<Account> streamAccounts() {
+    return this.accountsRepository.stream();
   }
 
   public Account getAccount(String accountId) {
-    return this.accountsRepository.getAccount(accountId);
+    Account account = this.accountsRepository.getAccount(accountId);
+    (account == null ? this.lookupMisses : this.lookupHits).increment();
+    return account;
+  }
+
+  /**
+   * Reports the account as stored by the repository, which for some repositories is not the instance created.
+   */
+  private void created(String accountId) {
+    Account account = this.accountsRepository.getAccount(accountId);
+    for (BalanceChangeListener listener : this.balanceChangeListeners) {
+      listener.accountCreated(account);
+    }
   }
 }
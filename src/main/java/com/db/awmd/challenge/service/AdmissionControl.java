@@ -0,0 +1,189 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.exception.RateLimitedException;
+import com.db.awmd.challenge.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns away money movements up front instead of letting them queue on the account locks. Every account has a
+ * token bucket, kept as a single theoretical arrival time updated with compare-and-set (the generic cell rate
+ * algorithm), and all movements share a limit on how many are in flight. A rejected movement fails right away with
+ * the delay after which it would be admitted.
+ * <p>
+ * Buckets are created on first use and dropped once full again, so idle accounts cost nothing. Limits apply to
+ * every account unless overridden per account in {@code transfer.admission.overrides} as {@code id=rate:burst}; a
+ * rate of 0 means unlimited. Rejections are counted per reason, and per account for the overridden ones.
+ */
+@Slf4j
+@Component
+public class AdmissionControl {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long IN_FLIGHT_RETRY_MILLIS = 1000;
+
+    private final Limit defaultLimit;
+    private final Map<String, Limit> overrides = new HashMap<>();
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final LongAdder inFlightRejections;
+    private final Permit permit;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    @Autowired
+    public AdmissionControl(@Value("${transfer.admission.max-in-flight:0}") int maxInFlight,
+                            @Value("${transfer.admission.rate-per-second:0}") double ratePerSecond,
+                            @Value("${transfer.admission.burst:1}") int burst,
+                            @Value("${transfer.admission.overrides:}") String[] overrides,
+                            Metrics metrics) {
+        String help = "Money movements turned away by admission control";
+        this.defaultLimit = new Limit(ratePerSecond, burst,
+                metrics.counter("admission_rejections_total", help, "reason", "account_rate", "account", "default"));
+        for (String override : overrides) {
+            if (!override.trim().isEmpty()) {
+                parseOverride(override.trim(), help, metrics);
+            }
+        }
+        this.maxInFlight = maxInFlight;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.permit = inFlight == null ? () -> { } : inFlight::release;
+        this.inFlightRejections = metrics.counter("admission_rejections_total", help, "reason", "in_flight",
+                "account", "all");
+        metrics.gauge("admission_in_flight", "Money movements admitted and not finished yet",
+                () -> inFlight == null ? 0 : maxInFlight - inFlight.availablePermits());
+        log.info("Admission control with {} movements in flight, {} per second and account with a burst of {}, "
+                + "{} overrides", maxInFlight, ratePerSecond, burst, this.overrides.size());
+    }
+
+    private void parseOverride(String override, String help, Metrics metrics) {
+        int equals = override.lastIndexOf('=');
+        int colon = override.lastIndexOf(':');
+        try {
+            String accountId = override.substring(0, equals);
+            boolean withBurst = colon > equals;
+            double rate = Double.parseDouble(override.substring(equals + 1, withBurst ? colon : override.length()));
+            int burst = withBurst ? Integer.parseInt(override.substring(colon + 1)) : 1;
+            overrides.put(accountId, new Limit(rate, burst, metrics.counter("admission_rejections_total", help,
+                    "reason", "account_rate", "account", accountId)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid admission override " + override + ", expected id=rate:burst",
+                    e);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket of every given account and a slot of the in-flight limit. Null ids are skipped,
+     * with no id only the in-flight limit applies. The returned permit must be closed once the movement is over.
+     * @throws RateLimitedException if an account is over its rate or too many movements are in flight, no token or
+     *                              slot is then kept
+     */
+    public Permit admit(String... accountIds) {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        for (int i = 0; i < accountIds.length; i++) {
+            if (accountIds[i] == null) {
+                continue;
+            }
+            Limit limit = limitOf(accountIds[i]);
+            long waitNanos = limit.take(buckets, accountIds[i], now);
+            if (waitNanos > 0) {
+                refund(accountIds, i);
+                limit.rejections.increment();
+                throw new RateLimitedException("Too many requests for account " + accountIds[i],
+                        TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+            }
+        }
+        if (inFlight != null && !inFlight.tryAcquire()) {
+            refund(accountIds, accountIds.length);
+            inFlightRejections.increment();
+            throw new RateLimitedException("Too many requests in flight", IN_FLIGHT_RETRY_MILLIS);
+        }
+        return permit;
+    }
+
+    /**
+     * Gives back the tokens taken from the first {@code count} accounts.
+     */
+    private void refund(String[] accountIds, int count) {
+        for (int i = 0; i < count; i++) {
+            AtomicLong bucket = accountIds[i] == null ? null : buckets.get(accountIds[i]);
+            if (bucket != null) {
+                bucket.addAndGet(-limitOf(accountIds[i]).intervalNanos);
+            }
+        }
+    }
+
+    private Limit limitOf(String accountId) {
+        Limit limit = overrides.get(accountId);
+        return limit != null ? limit : defaultLimit;
+    }
+
+    /**
+     * Drops the buckets that filled up again. A movement racing with the removal may take its token from the
+     * dropped bucket, at worst letting the account go one token over its burst.
+     */
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        buckets.entrySet().removeIf(bucket -> bucket.getValue().get() - now <= 0);
+    }
+
+    /**
+     * Slot of the in-flight limit, closing it twice releases two slots.
+     */
+    public interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    private static final class Limit {
+
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final LongAdder rejections;
+
+        private Limit(double ratePerSecond, int burst, LongAdder rejections) {
+            if (ratePerSecond < 0 || burst < 1) {
+                throw new IllegalArgumentException("Admission rate must not be negative and burst must be positive");
+            }
+            this.intervalNanos = ratePerSecond == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            this.toleranceNanos = intervalNanos * burst;
+            this.rejections = rejections;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise how long until one is available
+         */
+        private long take(ConcurrentMap<String, AtomicLong> buckets, String accountId, long now) {
+            if (intervalNanos == 0) {
+                return 0;
+            }
+            AtomicLong bucket = buckets.computeIfAbsent(accountId, id -> new AtomicLong(now));
+            for (;;) {
+                long arrival = bucket.get();
+                long next = Math.max(arrival - now, 0) + intervalNanos;
+                if (next > toleranceNanos) {
+                    return next - toleranceNanos;
+                }
+                if (bucket.compareAndSet(arrival, now + next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
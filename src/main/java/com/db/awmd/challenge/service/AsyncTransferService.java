@@ -0,0 +1,182 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs transfers on a dedicated bounded executor, so request threads do not wait for account locks or the journal.
+ * Every submitted transfer gets an id under which its {@link TransferStatus} can be looked up; the most recent
+ * statuses are kept (100k by default), older ones are forgotten.
+ */
+@Slf4j
+@Service
+public class AsyncTransferService implements DisposableBean {
+
+    private final TransactionService transactionService;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, TransferStatus> statuses = new ConcurrentHashMap<>();
+    private final Queue<String> tracked = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger trackedCount = new AtomicInteger();
+    private final int maxTracked;
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final long shutdownTimeoutMillis;
+    private final LongAdder rejections;
+
+    @Autowired
+    public AsyncTransferService(TransactionService transactionService,
+                                @Value("${transfer.async.threads:16}") int threads,
+                                @Value("${transfer.async.queue-capacity:10000}") int queueCapacity,
+                                @Value("${transfer.async.max-tracked:100000}") int maxTracked,
+                                @Value("${transfer.async.timeout-millis:5000}") long defaultTimeoutMillis,
+                                @Value("${transfer.async.max-timeout-millis:30000}") long maxTimeoutMillis,
+                                @Value("${transfer.async.shutdown-timeout-millis:10000}") long shutdownTimeoutMillis,
+                                Metrics metrics) {
+        this.transactionService = transactionService;
+        this.maxTracked = maxTracked;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "transfer-executor-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.rejections = metrics.counter("transfer_executor_rejections_total",
+                "Asynchronous transfers turned away on a full executor queue");
+        metrics.gauge("transfer_executor_queue_depth", "Asynchronous transfers waiting for a thread",
+                () -> executor.getQueue().size());
+        metrics.gauge("transfer_executor_active_threads", "Threads applying asynchronous transfers",
+                executor::getActiveCount);
+    }
+
+    /**
+     * Queues the transfer on the executor.
+     * @return the submission, whose completion never completes exceptionally
+     * @throws ServerBusyException if the executor queue is full
+     */
+    public Submission submit(Transaction transaction) {
+        String transferId = UUID.randomUUID().toString();
+        CompletableFuture<TransferStatus> completion = new CompletableFuture<>();
+        track(new TransferStatus(transferId, TransferStatus.State.PENDING, null));
+        try {
+            executor.execute(() -> completion.complete(apply(transferId, transaction)));
+        } catch (RejectedExecutionException e) {
+            statuses.remove(transferId);
+            rejections.increment();
+            throw new ServerBusyException(e);
+        }
+        return new Submission(transferId, completion);
+    }
+
+    /**
+     * @return the status of the transfer, null if the id is unknown or was forgotten
+     */
+    public TransferStatus getStatus(String transferId) {
+        return statuses.get(transferId);
+    }
+
+    /**
+     * Returns how long a request should wait for its transfer: the requested time, the configured default (5sec)
+     * when none was given, at most the configured maximum (30sec). Zero means not waiting at all.
+     */
+    public long timeoutMillis(Long requestedMillis) {
+        if (requestedMillis == null) {
+            return defaultTimeoutMillis;
+        }
+        if (requestedMillis < 0) {
+            throw new InvalidArgumentException("Timeout must not be negative");
+        }
+        return Math.min(requestedMillis, maxTimeoutMillis);
+    }
+
+    /**
+     * Stops taking transfers and lets the queued ones complete, waiting at most the shutdown timeout (10sec).
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("Transfer executor stopped with {} transfers not applied", executor.getQueue().size());
+        }
+    }
+
+    private TransferStatus apply(String transferId, Transaction transaction) {
+        TransferStatus status;
+        try {
+            transactionService.transferMoney(transaction);
+            status = new TransferStatus(transferId, TransferStatus.State.COMPLETED, null);
+        } catch (InvalidArgumentException ex) {
+            status = new TransferStatus(transferId, TransferStatus.State.REJECTED, ex.getMessage());
+        } catch (TransactionFailureException ex) {
+            status = new TransferStatus(transferId, TransferStatus.State.FAILED, ex.getMessage());
+        } catch (OutcomeUnknownException ex) {
+            status = new TransferStatus(transferId, TransferStatus.State.UNKNOWN, ex.getMessage());
+        } catch (RuntimeException ex) {
+            log.error("Asynchronous transfer {} failed", transferId, ex);
+            status = new TransferStatus(transferId, TransferStatus.State.FAILED,
+                    "Transfer failed, please try again later");
+        }
+        statuses.replace(transferId, status);
+        return status;
+    }
+
+    private void track(TransferStatus status) {
+        statuses.put(status.getTransferId(), status);
+        tracked.add(status.getTransferId());
+        if (trackedCount.incrementAndGet() > maxTracked) {
+            String oldest = tracked.poll();
+            if (oldest != null) {
+                trackedCount.decrementAndGet();
+                statuses.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * Id of a submitted transfer and the future completed with its final status.
+     */
+    public static final class Submission {
+
+        private final String transferId;
+        private final CompletableFuture<TransferStatus> completion;
+
+        Submission(String transferId, CompletableFuture<TransferStatus> completion) {
+            this.transferId = transferId;
+            this.completion = completion;
+        }
+
+        public String getTransferId() {
+            return transferId;
+        }
+
+        public CompletableFuture<TransferStatus> getCompletion() {
+            return completion;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.service;
+
+/**
+ * What the {@link NotificationDispatcher} does when its queue is full.
+ */
+public enum BackpressurePolicy {
+
+    /** The request thread waits until the consumers free some space. */
+    BLOCK,
+
+    /** The oldest queued notification is discarded to make room. */
+    DROP_OLDEST,
+
+    /** Requests are turned away with "Server busy" before being applied, see {@link NotificationDispatcher#admit()}. */
+    FAIL_FAST
+}
@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * Told about every account created and every applied balance movement, after the movement is applied. Calls come
+ * from the request threads, concurrently and without any account lock held.
+ */
+public interface BalanceChangeListener {
+
+    void accountCreated(Account account);
+
+    /**
+     * @param change amount added to the balance of the account, negative for a debit
+     */
+    void balanceChanged(Account account, BigDecimal change);
+}
@@ -0,0 +1,185 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnitAccount;
+import com.db.awmd.challenge.domain.MinorUnitBalance;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.journal.AccountJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Lock-free engine. Accounts are adopted as {@link MinorUnitAccount}s and balances are moved with compare-and-set
+ * on their minor unit counters. The debit is applied first and never overdraws the account, the credit follows,
+ * so the money in flight is briefly visible on neither account but is never lost or created.
+ * <p>
+ * With no lock to journal under, each movement is journaled between its compare-and-sets: after the debit succeeded
+ * and before the credit is added, so a movement spending money credited by another is journaled after it.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transfer.engine", havingValue = "cas")
+public class CasTransferEngine implements TransferEngine {
+
+    private final AccountJournal accountJournal;
+    private final int scale;
+
+    @Autowired
+    public CasTransferEngine(AccountJournal accountJournal, @Value("${transfer.cas.scale:2}") int scale) {
+        this.accountJournal = accountJournal;
+        this.scale = scale;
+    }
+
+    @Override
+    public Account adopt(Account account) {
+        return MinorUnitAccount.of(account, scale);
+    }
+
+    /**
+     * If the credit overflows once the transfer is journaled, the reverse transfer is journaled before the debit is
+     * credited back.
+     */
+    @Override
+    public long transfer(Account accountFrom, Account accountTo, BigDecimal amount) {
+        MinorUnitBalance debited = minorUnitBalance(accountFrom);
+        MinorUnitBalance credited = minorUnitBalance(accountTo);
+        long units = debited.toMinorUnits(amount);
+        checkBalance(amount, units, debited);
+        long position;
+        try {
+            position = accountJournal.appendTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            debited.credit(units);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        try {
+            credited.credit(units);
+        } catch (ArithmeticException e) {
+            JournalUndo.append(() -> accountJournal.appendTransfer(accountTo.getAccountId(),
+                    accountFrom.getAccountId(), amount), "transfer to " + accountTo.getAccountId());
+            debited.credit(units);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        return position;
+    }
+
+    @Override
+    public long withdraw(Account account, BigDecimal amount) {
+        MinorUnitBalance debited = minorUnitBalance(account);
+        long units = debited.toMinorUnits(amount);
+        checkBalance(amount, units, debited);
+        try {
+            return accountJournal.appendWithdraw(account.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            debited.credit(units);
+            throw new TransactionFailureException("Withdraw failed, please try again later", e);
+        }
+    }
+
+    /**
+     * Journals the deposit before crediting it, and journals it withdrawn again if the credit overflows.
+     */
+    @Override
+    public long deposit(Account account, BigDecimal amount) {
+        MinorUnitBalance credited = minorUnitBalance(account);
+        long units = credited.toMinorUnits(amount);
+        long position;
+        try {
+            position = accountJournal.appendDeposit(account.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            throw new TransactionFailureException("Deposit failed, please try again later", e);
+        }
+        try {
+            credited.credit(units);
+        } catch (ArithmeticException e) {
+            JournalUndo.append(() -> accountJournal.appendWithdraw(account.getAccountId(), amount),
+                    "deposit to " + account.getAccountId());
+            throw new TransactionFailureException("Deposit failed, please try again later", e);
+        }
+        return position;
+    }
+
+    /**
+     * Settles an atomic batch on its net changes: every net debit first, each checked by its compare-and-set, then
+     * every net credit. If an account cannot cover its debit the debits already made are credited back and the batch
+     * is rejected, so concurrent movements may briefly see those accounts lower but never part of the batch credited.
+     * The batch is journaled as one record between the debits and the credits.
+     */
+    @Override
+    public long transferBatch(TransferBatch batch, boolean atomic) {
+        if (!atomic) {
+            return batch.applyEach(this);
+        }
+        Map<Account, BigDecimal> changes = batch.netChanges();
+        Account[] accounts = changes.keySet().toArray(new Account[0]);
+        long[] units = new long[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            units[i] = minorUnitBalance(accounts[i]).toMinorUnits(changes.get(accounts[i]));
+        }
+        for (int i = 0; i < accounts.length; i++) {
+            if (units[i] < 0 && !minorUnitBalance(accounts[i]).tryDebit(-units[i])) {
+                undo(accounts, units, i, 0);
+                batch.rejectOverdrawn(accounts[i]);
+                return -1;
+            }
+        }
+        batch.applyAll();
+        long position;
+        try {
+            position = batch.journal(accountJournal);
+        } catch (RuntimeException e) {
+            undo(accounts, units, units.length, 0);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        for (int i = 0; i < accounts.length; i++) {
+            if (units[i] > 0) {
+                try {
+                    minorUnitBalance(accounts[i]).credit(units[i]);
+                } catch (ArithmeticException e) {
+                    JournalUndo.append(() -> batch.journalReversal(accountJournal), "batch of " + batch.size());
+                    undo(accounts, units, units.length, i);
+                    throw new TransactionFailureException("Transfer failed, please try again later", e);
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Reverts the debits before {@code debited} and the credits before {@code credited}. A credit whose money has
+     * already moved on cannot be taken back, which only an overflowing credit racing with others can lead to.
+     */
+    private void undo(Account[] accounts, long[] units, int debited, int credited) {
+        for (int i = 0; i < accounts.length; i++) {
+            if (units[i] < 0 && i < debited) {
+                minorUnitBalance(accounts[i]).credit(-units[i]);
+            } else if (units[i] > 0 && i < credited && !minorUnitBalance(accounts[i]).tryDebit(units[i])) {
+                log.error("Could not take back credit {} from account {} ", units[i], accounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Debits the account, the no-overdraft rule is enforced by the compare-and-set loop itself.
+     */
+    private void checkBalance(BigDecimal amount, long units, MinorUnitBalance account) {
+        if (!account.tryDebit(units)) {
+            log.error("Withdraw amount {} failed on account {} ", amount, account);
+            throw new InsufficientBalanceException();
+        }
+    }
+
+    private MinorUnitBalance minorUnitBalance(Account account) {
+        if (!(account instanceof MinorUnitBalance)) {
+            throw new IllegalStateException("Account " + account.getAccountId() + " was not adopted by the CAS engine");
+        }
+        return (MinorUnitBalance) account;
+    }
+}
@@ -0,0 +1,132 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.StripedAccount;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which accounts of the {@link LockingTransferEngine} run in hot mode, see {@link StripedAccount}. Accounts
+ * listed in the configuration are hot from the start. With automatic promotion, an account whose lock is found taken
+ * more often than the threshold within one window is promoted by the next operation holding its lock.
+ * <p>
+ * Accounts are only adopted as {@link StripedAccount}s when hot mode can be used at all, otherwise they are left as
+ * they are and the engine behaves exactly as without it.
+ */
+@Slf4j
+@Component
+public class HotAccounts {
+
+    private final Set<String> configured;
+    private final boolean autoPromote;
+    private final int stripes;
+    private final int scale;
+    private final int contentionThreshold;
+    private final long windowNanos;
+    private final ConcurrentMap<String, AtomicInteger> contention = new ConcurrentHashMap<>();
+    private final LongAdder promotions;
+    private volatile long windowStart = System.nanoTime();
+
+    @Autowired
+    public HotAccounts(@Value("${transfer.hot.accounts:}") String[] accountIds,
+                       @Value("${transfer.hot.auto-promote:false}") boolean autoPromote,
+                       @Value("${transfer.hot.stripes:16}") int stripes,
+                       @Value("${transfer.hot.scale:2}") int scale,
+                       @Value("${transfer.hot.contention-threshold:1000}") int contentionThreshold,
+                       @Value("${transfer.hot.contention-window-millis:1000}") long windowMillis,
+                       Metrics metrics) {
+        this.configured = Arrays.stream(accountIds).map(String::trim).filter(id -> !id.isEmpty())
+                .collect(Collectors.toSet());
+        this.autoPromote = autoPromote;
+        this.stripes = stripes;
+        this.scale = scale;
+        this.contentionThreshold = contentionThreshold;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.promotions = metrics.counter("hot_account_promotions_total",
+                "Accounts promoted to hot mode after contention on their lock");
+    }
+
+    public boolean isEnabled() {
+        return autoPromote || !configured.isEmpty();
+    }
+
+    /**
+     * Returns the account as a {@link StripedAccount} when hot mode is enabled, already promoted if it is configured
+     * as hot.
+     * @throws InvalidArgumentException if a configured hot account has a balance with more decimal places than the
+     *                                  hot scale
+     */
+    public Account adopt(Account account) {
+        if (!isEnabled() || account instanceof StripedAccount) {
+            return account;
+        }
+        StripedAccount striped = new StripedAccount(account.getAccountId(), account.getBalance(), stripes);
+        if (configured.contains(account.getAccountId())) {
+            striped.promote(scale);
+        }
+        return striped;
+    }
+
+    /**
+     * Counts an operation that found the lock of the account taken. Called before waiting for the lock.
+     */
+    public void recordContention(Account account) {
+        if (!autoPromote || !(account instanceof StripedAccount)) {
+            return;
+        }
+        StripedAccount striped = (StripedAccount) account;
+        if (striped.isHot() || striped.isPromotionRequested()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - windowStart > windowNanos) {
+            windowStart = now;
+            contention.clear();
+        }
+        AtomicInteger count = contention.computeIfAbsent(account.getAccountId(), id -> new AtomicInteger());
+        if (count.incrementAndGet() >= contentionThreshold) {
+            striped.setPromotionRequested(true);
+            contention.remove(account.getAccountId());
+        }
+    }
+
+    /**
+     * Promotes the account if contention asked for it. Called while holding the account lock.
+     * @return true if the account is hot
+     */
+    public boolean promoteIfRequested(Account account) {
+        if (!(account instanceof StripedAccount)) {
+            return false;
+        }
+        StripedAccount striped = (StripedAccount) account;
+        if (!striped.isHot() && striped.isPromotionRequested()) {
+            try {
+                striped.promote(scale);
+            } catch (InvalidArgumentException e) {
+                log.warn("Account {} not promoted to hot mode, {}", account.getAccountId(), e.getMessage());
+                striped.setPromotionRequested(false);
+                return false;
+            }
+            promotions.increment();
+            log.info("Account {} promoted to hot mode with {} stripes", account.getAccountId(), stripes);
+        }
+        return striped.isHot();
+    }
+
+    public static boolean isHot(Account account) {
+        return account instanceof StripedAccount && ((StripedAccount) account).isHot();
+    }
+}
@@ -0,0 +1,224 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of requests carrying an idempotency key, so a retried request gets the original outcome
+ * instead of being applied again. A duplicate arriving while the original is still running waits for it.
+ * <p>
+ * Keys are spread over independently locked segments, each a segmented LRU: new keys enter a probation area and move
+ * to a protected area, a fifth of the segment by default, when they are seen again. Eviction takes the least recently
+ * used probation entry first, so a burst of one-off keys cannot flush the keys clients are actually retrying.
+ * Outcomes also expire after the time to live (1h by default). A request still running is neither evicted nor
+ * expired, so its duplicates always wait for it; a segment full of running requests grows beyond its capacity.
+ */
+@Component
+public class IdempotencyCache {
+
+    private static final int PROBATION_PERCENT = 20;
+
+    private final Segment[] segments;
+    private final int mask;
+    private final long ttlNanos;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    @Autowired
+    public IdempotencyCache(@Value("${idempotency.capacity:100000}") int capacity,
+                            @Value("${idempotency.ttl-seconds:3600}") long ttlSeconds,
+                            @Value("${idempotency.segments:64}") int segmentCount,
+                            Metrics metrics) {
+        int size = 1;
+        while (size < segmentCount) {
+            size <<= 1;
+        }
+        this.segments = new Segment[size];
+        int segmentCapacity = Math.max(1, (capacity + size - 1) / size);
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.mask = size - 1;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.hits = metrics.counter("idempotency_lookups_total", "Idempotency key lookups by result", "result", "hit");
+        this.misses = metrics.counter("idempotency_lookups_total", "Idempotency key lookups by result", "result",
+                "miss");
+        this.evictions = metrics.counter("idempotency_evictions_total", "Outcomes evicted before they expired");
+        metrics.gauge("idempotency_keys", "Idempotency keys currently remembered", this::size);
+    }
+
+    /**
+     * Runs the action once per key and returns its outcome, or the outcome of the earlier request with the same key.
+     * An action throwing is not remembered, the exception reaches the caller and any duplicate waiting for it, and a
+     * later retry runs the action again.
+     * @param fingerprint what the request asked for, a key reused for a different request is refused
+     * @throws IdempotencyKeyReusedException if the key was used with a different fingerprint
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Object fingerprint, Supplier<T> action) {
+        Segment segment = segments[spread(key.hashCode()) & mask];
+        Entry created = new Entry(fingerprint, System.nanoTime() + ttlNanos);
+        Entry entry = segment.putIfAbsent(key, created);
+        if (entry != created) {
+            if (!entry.fingerprint.equals(fingerprint)) {
+                throw new IdempotencyKeyReusedException(key);
+            }
+            hits.increment();
+            return (T) await(entry.outcome);
+        }
+        misses.increment();
+        try {
+            T outcome = action.get();
+            created.outcome.complete(outcome);
+            return outcome;
+        } catch (RuntimeException | Error e) {
+            segment.remove(key, created);
+            created.outcome.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static Object await(CompletableFuture<Object> outcome) {
+        try {
+            return outcome.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException(e);
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+
+        private final Object fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<Object> outcome = new CompletableFuture<>();
+
+        private Entry(Object fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0 && outcome.isDone();
+        }
+    }
+
+    /**
+     * One lock and two insertion ordered maps, moving an entry to the most recently used end is a remove and a put.
+     */
+    private final class Segment {
+
+        private final int capacity;
+        private final int protectedCapacity;
+        private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<String, Entry> protectedEntries = new LinkedHashMap<>();
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity - Math.max(1, capacity * PROBATION_PERCENT / 100);
+        }
+
+        /**
+         * @return the live entry of the key, the given one if there was none
+         */
+        private synchronized Entry putIfAbsent(String key, Entry entry) {
+            long now = System.nanoTime();
+            Entry existing = protectedEntries.remove(key);
+            if (existing == null) {
+                existing = probation.remove(key);
+            }
+            if (existing != null && !existing.isExpired(now)) {
+                protectedEntries.put(key, existing);
+                if (protectedEntries.size() > protectedCapacity) {
+                    Map.Entry<String, Entry> demoted = eldest(protectedEntries);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+                return existing;
+            }
+            probation.put(key, entry);
+            expireEldest(probation, now);
+            expireEldest(protectedEntries, now);
+            if (probation.size() + protectedEntries.size() > capacity
+                    && (evictEldestDone(probation) || evictEldestDone(protectedEntries))) {
+                evictions.increment();
+            }
+            return entry;
+        }
+
+        private synchronized void remove(String key, Entry entry) {
+            if (!probation.remove(key, entry)) {
+                protectedEntries.remove(key, entry);
+            }
+        }
+
+        private synchronized int size() {
+            return probation.size() + protectedEntries.size();
+        }
+
+        /**
+         * Drops the least recently used entries as long as they are expired.
+         */
+        private void expireEldest(LinkedHashMap<String, Entry> entries, long now) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext() && iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+
+        /**
+         * Removes the least recently used entry whose request has ended.
+         * @return false if every request of the map is still running
+         */
+        private boolean evictEldestDone(LinkedHashMap<String, Entry> entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().outcome.isDone()) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Removes and returns the least recently used entry.
+         */
+        private Map.Entry<String, Entry> eldest(LinkedHashMap<String, Entry> entries) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            return eldest;
+        }
+    }
+}
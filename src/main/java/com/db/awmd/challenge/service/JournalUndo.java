@@ -0,0 +1,29 @@
+package com.db.awmd.challenge.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Journals the undoing of a movement a {@link TransferEngine} already journaled but could not complete, e.g. a credit
+ * overflowing after its transfer was journaled. The undo record is appended before the money is put back, like any
+ * other credit.
+ */
+@Slf4j
+final class JournalUndo {
+
+    private JournalUndo() {
+    }
+
+    /**
+     * If the undo record cannot be appended either, the journal keeps the movement and recovery will restore it, which
+     * is all that is left to report.
+     */
+    static void append(LongSupplier append, String movement) {
+        try {
+            append.getAsLong();
+        } catch (RuntimeException e) {
+            log.error("Could not journal undoing the {}, recovery will replay it", movement, e);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.StripedAccount;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.journal.AccountJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.db.awmd.challenge.service.HotAccounts.isHot;
+
+/**
+ * Default engine. Balances are plain {@link BigDecimal}s updated while holding the striped locks of every account
+ * involved, see {@link AccountLocks}. Hot accounts, see {@link HotAccounts}, are left out of the locks: their balance
+ * is split over striped sub-balances moved with compare-and-set, so deposits to them no longer queue on one lock.
+ * <p>
+ * Movements are journaled while the locks are held, so the next movement of the same accounts is journaled after
+ * them. A hot account is not locked, its debits are journaled once taken and its credits before they are added.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transfer.engine", havingValue = "locking", matchIfMissing = true)
+public class LockingTransferEngine implements TransferEngine {
+
+    private final AccountLocks accountLocks;
+    private final HotAccounts hotAccounts;
+    private final AccountJournal accountJournal;
+
+    @Autowired
+    public LockingTransferEngine(AccountLocks accountLocks, HotAccounts hotAccounts, AccountJournal accountJournal) {
+        this.accountLocks = accountLocks;
+        this.hotAccounts = hotAccounts;
+        this.accountJournal = accountJournal;
+    }
+
+    @Override
+    public Account adopt(Account account) {
+        return hotAccounts.adopt(account);
+    }
+
+    /**
+     * Both legs run in a single critical section holding the locks of both accounts, so the transfer is applied
+     * completely or not at all, and transfers between unrelated accounts proceed in parallel. When one of the
+     * accounts is hot, see {@link #transferHot(Account, Account, BigDecimal)}.
+     */
+    @Override
+    public long transfer(Account accountFrom, Account accountTo, BigDecimal amount) {
+        if (isHot(accountFrom) && isHot(accountTo)) {
+            return transferHot(accountFrom, accountTo, amount);
+        }
+        int[] stripes = lockAccounts(accountFrom, accountTo);
+        try {
+            boolean fromHot = hotAccounts.promoteIfRequested(accountFrom);
+            boolean toHot = hotAccounts.promoteIfRequested(accountTo);
+            if (fromHot || toHot) {
+                return transferHot(accountFrom, accountTo, amount);
+            }
+            BigDecimal fromBalance = accountFrom.getBalance();
+            BigDecimal toBalance = accountTo.getBalance();
+            checkBalance(amount, accountFrom, fromBalance);
+            try {
+                accountFrom.setBalance(fromBalance.subtract(amount));
+                accountTo.setBalance(accountTo.getBalance().add(amount));
+                return accountJournal.appendTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount);
+            } catch (Exception e) {
+                rollbackTransaction(accountFrom, fromBalance);
+                rollbackTransaction(accountTo, toBalance);
+                throw new TransactionFailureException("Transfer failed, please try again later", e);
+            }
+        } finally {
+            accountLocks.unlock(stripes);
+        }
+    }
+
+    /**
+     * Withdraw amount operation is performed while holding the account lock. Upon a failure operation the
+     * transaction is rolled back
+     */
+    @Override
+    public long withdraw(Account account, BigDecimal amount) {
+        if (isHot(account)) {
+            return withdrawHot(account, amount);
+        }
+        int[] stripes = lockAccounts(account);
+        try {
+            if (hotAccounts.promoteIfRequested(account)) {
+                return withdrawHot(account, amount);
+            }
+            BigDecimal currentBalance = account.getBalance();
+            checkBalance(amount, account, currentBalance);
+            try {
+                account.setBalance(currentBalance.subtract(amount));
+                return accountJournal.appendWithdraw(account.getAccountId(), amount);
+            } catch (Exception e) {
+                rollbackTransaction(account, currentBalance);
+                throw new TransactionFailureException("Withdraw failed, please try again later", e);
+            }
+        } finally {
+            accountLocks.unlock(stripes);
+        }
+    }
+
+    /**
+     * Deposit amount operation is performed while holding the account lock. Upon any failure the transaction is
+     * rolled back
+     */
+    @Override
+    public long deposit(Account account, BigDecimal amount) {
+        if (isHot(account)) {
+            return depositHot(account, amount);
+        }
+        int[] stripes = lockAccounts(account);
+        try {
+            if (hotAccounts.promoteIfRequested(account)) {
+                return depositHot(account, amount);
+            }
+            BigDecimal originalBalance = account.getBalance();
+            try {
+                account.setBalance(originalBalance.add(amount));
+                return accountJournal.appendDeposit(account.getAccountId(), amount);
+            } catch (Exception e) {
+                rollbackTransaction(account, originalBalance);
+                throw new TransactionFailureException("Deposit failed, please try again later", e);
+            }
+        } finally {
+            accountLocks.unlock(stripes);
+        }
+    }
+
+    /**
+     * Locks every touched account once, in stripe order, and settles the whole batch against their balances, see
+     * {@link TransferBatch#settle(Map, boolean)}. Each changed account is written once, hot accounts through
+     * {@link #hotChanges(Map, Map)}; the applied items are journaled as one record once the hot accounts are debited
+     * and before they are credited.
+     */
+    @Override
+    public long transferBatch(TransferBatch batch, boolean atomic) {
+        List<Account> accounts = batch.getAccounts();
+        if (accounts.isEmpty()) {
+            return -1;
+        }
+        int[] stripes = lockAccounts(accounts.toArray(new Account[0]));
+        try {
+            Map<Account, BigDecimal> balances = new IdentityHashMap<>();
+            for (Account account : accounts) {
+                balances.put(account, account.getBalance());
+            }
+            Map<Account, BigDecimal> settled = batch.settle(balances, atomic);
+            Map<StripedAccount, Long> hotChanges = hotChanges(settled, balances);
+            debitHot(hotChanges);
+            long position;
+            try {
+                position = batch.journal(accountJournal);
+            } catch (RuntimeException e) {
+                hotChanges.forEach((account, change) -> {
+                    if (change < 0) {
+                        account.credit(-change);
+                    }
+                });
+                throw new TransactionFailureException("Transfer failed, please try again later", e);
+            }
+            hotChanges.forEach((account, change) -> {
+                if (change > 0) {
+                    account.credit(change);
+                }
+            });
+            for (Map.Entry<Account, BigDecimal> updated : settled.entrySet()) {
+                updated.getKey().setBalance(updated.getValue());
+            }
+            return position;
+        } finally {
+            accountLocks.unlock(stripes);
+        }
+    }
+
+    /**
+     * Moves the amount between accounts of which at least one is hot, while holding the locks of the other. The hot
+     * account is debited first or credited last, so the money in flight is briefly visible on neither account but
+     * is never lost or created. The transfer is journaled in between; if the credit then fails, the reverse transfer
+     * is journaled before the debit is credited back.
+     */
+    private long transferHot(Account accountFrom, Account accountTo, BigDecimal amount) {
+        long fromUnits = minorUnits(accountFrom, amount);
+        long toUnits = minorUnits(accountTo, amount);
+        debit(accountFrom, amount, fromUnits);
+        long position;
+        try {
+            position = accountJournal.appendTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            credit(accountFrom, amount, fromUnits);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        try {
+            credit(accountTo, amount, toUnits);
+        } catch (RuntimeException e) {
+            JournalUndo.append(() -> accountJournal.appendTransfer(accountTo.getAccountId(),
+                    accountFrom.getAccountId(), amount), "transfer to " + accountTo.getAccountId());
+            credit(accountFrom, amount, fromUnits);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        return position;
+    }
+
+    private long withdrawHot(Account account, BigDecimal amount) {
+        long units = minorUnits(account, amount);
+        debit(account, amount, units);
+        try {
+            return accountJournal.appendWithdraw(account.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            credit(account, amount, units);
+            throw new TransactionFailureException("Withdraw failed, please try again later", e);
+        }
+    }
+
+    /**
+     * Journals the deposit before crediting it, and journals it withdrawn again if the credit overflows.
+     */
+    private long depositHot(Account account, BigDecimal amount) {
+        long units = minorUnits(account, amount);
+        long position;
+        try {
+            position = accountJournal.appendDeposit(account.getAccountId(), amount);
+        } catch (RuntimeException e) {
+            throw new TransactionFailureException("Deposit failed, please try again later", e);
+        }
+        try {
+            credit(account, amount, units);
+        } catch (ArithmeticException e) {
+            JournalUndo.append(() -> accountJournal.appendWithdraw(account.getAccountId(), amount),
+                    "deposit to " + account.getAccountId());
+            throw new TransactionFailureException("Deposit failed, please try again later", e);
+        }
+        return position;
+    }
+
+    /**
+     * Hot accounts keep moving while the batch holds its locks, so their part of the settlement is applied as a
+     * change of balance rather than a new balance. Hot accounts are removed from the settled balances.
+     * @return the change of every hot account in minor units, negative for a debit
+     */
+    private Map<StripedAccount, Long> hotChanges(Map<Account, BigDecimal> settled, Map<Account, BigDecimal> balances) {
+        Map<StripedAccount, Long> changes = new IdentityHashMap<>();
+        for (Iterator<Map.Entry<Account, BigDecimal>> it = settled.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Account, BigDecimal> updated = it.next();
+            if (isHot(updated.getKey())) {
+                StripedAccount account = (StripedAccount) updated.getKey();
+                changes.put(account, account.toMinorUnits(updated.getValue().subtract(balances.get(account))));
+                it.remove();
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Takes the debits of the hot accounts. When a hot account no longer covers its debit the debits taken so far are
+     * put back and the batch fails without writing anything.
+     */
+    private void debitHot(Map<StripedAccount, Long> changes) {
+        List<Map.Entry<StripedAccount, Long>> debited = new ArrayList<>();
+        for (Map.Entry<StripedAccount, Long> change : changes.entrySet()) {
+            if (change.getValue() < 0) {
+                if (!change.getKey().tryDebit(-change.getValue())) {
+                    debited.forEach(taken -> taken.getKey().credit(-taken.getValue()));
+                    log.error("Batch failed, hot account {} drained concurrently", change.getKey().getAccountId());
+                    throw new TransactionFailureException("Transfer failed, please try again later");
+                }
+                debited.add(change);
+            }
+        }
+    }
+
+    /**
+     * Acquires the locks of the given accounts that are not hot, see {@link AccountLocks#lock(int[])}. A lock found
+     * already taken counts towards promoting its account, see {@link HotAccounts#recordContention(Account)}.
+     * @param accounts the first one is reported in the log when the locks cannot be taken
+     * @return the stripes to unlock
+     */
+    private int[] lockAccounts(Account... accounts) {
+        String[] accountIds = new String[accounts.length];
+        int count = 0;
+        for (Account account : accounts) {
+            if (!isHot(account)) {
+                accountIds[count++] = account.getAccountId();
+                if (hotAccounts.isEnabled() && accountLocks.isLocked(accountLocks.stripeOf(account.getAccountId()))) {
+                    hotAccounts.recordContention(account);
+                }
+            }
+        }
+        int[] stripes = accountLocks.orderedStripes(count == accounts.length ? accountIds
+                : Arrays.copyOf(accountIds, count));
+        try {
+            accountLocks.lock(stripes);
+        } catch (TransactionFailureException e) {
+            log.error("Locking failed for account {}, Error: {}", accounts[0].getAccountId(), e.getMessage());
+            throw e;
+        }
+        return stripes;
+    }
+
+    /**
+     * @return the amount in minor units of the hot account, 0 for an account with a plain balance
+     * @throws com.db.awmd.challenge.exception.InvalidArgumentException if the amount has more decimal places than
+     *                                                                   the hot account
+     */
+    private static long minorUnits(Account account, BigDecimal amount) {
+        return isHot(account) ? ((StripedAccount) account).toMinorUnits(amount) : 0;
+    }
+
+    /**
+     * Debits a hot account with its sub-balances, any other one with its plain balance while holding its lock.
+     */
+    private void debit(Account account, BigDecimal amount, long units) {
+        if (isHot(account)) {
+            if (!((StripedAccount) account).tryDebit(units)) {
+                log.error("Withdraw amount {} failed on account {} ", amount, account);
+                throw new InsufficientBalanceException();
+            }
+            return;
+        }
+        BigDecimal currentBalance = account.getBalance();
+        checkBalance(amount, account, currentBalance);
+        account.setBalance(currentBalance.subtract(amount));
+    }
+
+    private void credit(Account account, BigDecimal amount, long units) {
+        if (isHot(account)) {
+            ((StripedAccount) account).credit(units);
+        } else {
+            account.setBalance(account.getBalance().add(amount));
+        }
+    }
+
+    private void checkBalance(BigDecimal amount, Account account, BigDecimal currentBalance) {
+        if (amount.compareTo(currentBalance) > 0) {
+            log.error("Withdraw amount {} failed on account {} ", amount, account);
+            throw new InsufficientBalanceException();
+        }
+    }
+
+    private void rollbackTransaction(Account account, BigDecimal originalBalance) {
+        account.setBalance(originalBalance);
+    }
+}
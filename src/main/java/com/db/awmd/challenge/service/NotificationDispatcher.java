@@ -0,0 +1,246 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Notification;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.LatencyHistogram;
+import com.db.awmd.challenge.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers transfer notifications outside of the request threads. Notifications wait in a bounded queue drained by
+ * a pool of consumer threads, each handing whatever has accumulated, up to the batch size, to the
+ * {@link NotificationService} in one call. What happens when the queue is full is set by the
+ * {@link BackpressurePolicy}. On shutdown the consumers deliver everything still queued before stopping.
+ * <p>
+ * With a coalescing window, movements are first collected per account and every window each account with pending
+ * movements gets a single summary notification queued, see {@link Notification#getDescription()}.
+ * <p>
+ * Notifications can be switched off entirely with {@code notification.enabled}, movements are then not recorded.
+ */
+@Slf4j
+@Component
+public class NotificationDispatcher implements DisposableBean {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final NotificationService notificationService;
+    private final BlockingQueue<Notification> queue;
+    private final BackpressurePolicy backpressurePolicy;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+    private final Thread[] consumers;
+    private final ConcurrentMap<String, Notification> coalesced = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService coalescer;
+    private final boolean enabled;
+    private final LongAdder delivered;
+    private final LongAdder dropped;
+    private final LongAdder failed;
+    private final LatencyHistogram deliveryLag;
+    private volatile boolean running = true;
+
+    @Autowired
+    public NotificationDispatcher(NotificationService notificationService,
+                                  @Value("${notification.queue-capacity:65536}") int queueCapacity,
+                                  @Value("${notification.consumers:2}") int consumerCount,
+                                  @Value("${notification.batch-size:256}") int batchSize,
+                                  @Value("${notification.backpressure:BLOCK}") BackpressurePolicy backpressurePolicy,
+                                  @Value("${notification.shutdown-timeout-millis:10000}") long shutdownTimeoutMillis,
+                                  @Value("${notification.coalesce-window-millis:0}") long coalesceWindowMillis,
+                                  @Value("${notification.enabled:true}") boolean enabled,
+                                  Metrics metrics) {
+        this.notificationService = notificationService;
+        this.enabled = enabled;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.backpressurePolicy = backpressurePolicy;
+        this.batchSize = batchSize;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.delivered = metrics.counter("notifications_delivered_total", "Notifications handed to the service");
+        this.dropped = metrics.counter("notifications_dropped_total", "Notifications dropped on a full queue");
+        this.failed = metrics.counter("notifications_failed_total", "Notifications whose delivery threw");
+        this.deliveryLag = metrics.histogram("notification_delivery_lag_seconds",
+                "Time from the first movement of a notification to its delivery");
+        metrics.gauge("notification_queue_depth", "Notifications waiting for delivery", queue::size);
+        metrics.gauge("notification_coalescing_accounts", "Accounts with movements waiting for the next window",
+                coalesced::size);
+        this.consumers = new Thread[enabled ? consumerCount : 0];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(this::consume, "notification-dispatcher-" + i);
+            consumers[i].setDaemon(true);
+            consumers[i].start();
+        }
+        if (enabled && coalesceWindowMillis > 0) {
+            this.coalescer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "notification-coalescer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            coalescer.scheduleAtFixedRate(this::flushCoalesced, coalesceWindowMillis, coalesceWindowMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.coalescer = null;
+        }
+    }
+
+    /**
+     * Turns the request away while the queue is full and the policy is {@link BackpressurePolicy#FAIL_FAST}, so the
+     * operation is rejected before it is applied rather than applied without notification.
+     * @throws ServerBusyException if the request should be retried later
+     */
+    public void admit() {
+        if (backpressurePolicy == BackpressurePolicy.FAIL_FAST && queue.remainingCapacity() == 0) {
+            throw new ServerBusyException();
+        }
+    }
+
+    /**
+     * Queues a notification of the movement according to the backpressure policy, or folds it into the pending
+     * summary of the account when coalescing.
+     */
+    public void dispatch(Account account, Notification.Kind kind, BigDecimal amount) {
+        if (!enabled) {
+            return;
+        }
+        if (coalescer == null) {
+            enqueue(new Notification(account, kind, amount));
+        } else {
+            coalesced.compute(account.getAccountId(), (accountId, pending) ->
+                    pending == null ? new Notification(account, kind, amount) : pending.add(kind, amount));
+        }
+    }
+
+    private void enqueue(Notification notification) {
+        switch (backpressurePolicy) {
+            case BLOCK:
+                try {
+                    queue.put(notification);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(notification);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(notification)) {
+                    Notification oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            default:
+                if (!queue.offer(notification)) {
+                    drop(notification);
+                }
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Lets the consumers drain the queue, waiting at most the shutdown timeout (10sec by default).
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (coalescer != null) {
+            coalescer.shutdown();
+            coalescer.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+            flushCoalesced();
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Thread consumer : consumers) {
+            consumer.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Notification dispatcher stopped with {} notifications undelivered", queue.size());
+        }
+    }
+
+    /**
+     * Queues the pending summary of every account. A movement folded in while its account is being flushed ends up
+     * either in the flushed summary or in a new one.
+     */
+    private void flushCoalesced() {
+        try {
+            for (String accountId : coalesced.keySet()) {
+                Notification notification = coalesced.remove(accountId);
+                if (notification != null) {
+                    enqueue(notification);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Flushing coalesced notifications failed", e);
+        }
+    }
+
+    private void consume() {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Notification first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                log.error("Notification consumer interrupted, {} notifications pending", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void deliver(List<Notification> batch) {
+        try {
+            notificationService.notifyAboutTransfers(batch);
+            delivered.add(batch.size());
+            long now = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                deliveryLag.record(now - batch.get(i).getCreatedNanos());
+            }
+        } catch (RuntimeException e) {
+            failed.add(batch.size());
+            log.error("Delivery of {} notifications failed", batch.size(), e);
+        }
+    }
+
+    private void drop(Notification notification) {
+        dropped.increment();
+        log.debug("Notification queue full, dropped notification for account {}",
+                notification.getAccount().getAccountId());
+    }
+}
@@ -1,8 +1,19 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Notification;
+import java.util.List;
 
 public interface NotificationService {
 
   void notifyAboutTransfer(Account account, String transferDescription);
+
+  /**
+   * Delivers several notifications at once. Sends them one by one unless the implementation can do better.
+   */
+  default void notifyAboutTransfers(List<Notification> notifications) {
+    for (Notification notification : notifications) {
+      notifyAboutTransfer(notification.getAccount(), notification.getDescription());
+    }
+  }
 }
@@ -0,0 +1,85 @@
+package com.db.awmd.challenge.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer single-consumer queue over pre-allocated, reusable slots. Producers claim a sequence,
+ * fill the slot in place and publish it; the consumer handles published slots in order, in batches, and frees them
+ * once per batch. No locks are taken and nothing is allocated after construction.
+ * @param <E> slot type, mutated in place by producers and reset by the consumer's handler
+ */
+public class RingBuffer<E> {
+
+    private final Object[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    public RingBuffer(int capacity, Supplier<E> slotFactory) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two, was " + capacity);
+        }
+        this.slots = new Object[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = slotFactory.get();
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return the claimed sequence, or -1 if the ring is full
+     */
+    public long tryClaim() {
+        for (;;) {
+            long next = claimed.get();
+            if (next - consumed.get() >= slots.length) {
+                return -1;
+            }
+            if (claimed.compareAndSet(next, next + 1)) {
+                return next;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E slot(long sequence) {
+        return (E) slots[(int) sequence & mask];
+    }
+
+    public void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+    }
+
+    /**
+     * Hands up to {@code maxBatch} published slots to the handler, in order. Must only be called by the consumer.
+     * @return number of slots handled
+     */
+    public int drain(Consumer<E> handler, int maxBatch) {
+        long next = consumed.get();
+        int handled = 0;
+        while (handled < maxBatch && published.get((int) next & mask) == next) {
+            handler.accept(slot(next));
+            next++;
+            handled++;
+        }
+        if (handled > 0) {
+            consumed.lazySet(next);
+        }
+        return handled;
+    }
+
+    public boolean isEmpty() {
+        long next = consumed.get();
+        return published.get((int) next & mask) != next;
+    }
+
+    public int size() {
+        return (int) (claimed.get() - consumed.get());
+    }
+}
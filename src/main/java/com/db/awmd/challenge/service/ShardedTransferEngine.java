@@ -0,0 +1,596 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnitAccount;
+import com.db.awmd.challenge.domain.MinorUnitBalance;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.journal.AccountJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free engine built from single-writer shards. Every account is owned by the shard its id hashes to and only
+ * that shard's thread ever changes its balance. Callers publish commands into the shard's pre-allocated
+ * {@link RingBuffer} and wait on a completion future; each shard drains its ring in batches.
+ * <p>
+ * A transfer between accounts of the same shard is applied in one step. Otherwise the owning shard of the debited
+ * account debits it and forwards a credit to the other shard; if that credit cannot be applied a refund is sent
+ * back, so money is never created or lost, only briefly in flight.
+ * <p>
+ * The shard thread journals each movement as it applies it: a transfer once the debit is taken, before its credit
+ * is applied or forwarded, a withdrawal once taken and a deposit before it is credited. Any later movement of those
+ * accounts goes through the same shard, so it is journaled after them.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transfer.engine", havingValue = "sharded")
+public class ShardedTransferEngine implements TransferEngine, DisposableBean {
+
+    private static final int TRANSFER = 1;
+    private static final int CREDIT = 2;
+    private static final int REFUND = 3;
+    private static final int WITHDRAW = 4;
+    private static final int DEPOSIT = 5;
+    /** Debit and credit of an atomic batch, journaled as a whole by the caller rather than by the shard. */
+    private static final int SETTLE_DEBIT = 6;
+    private static final int SETTLE_CREDIT = 7;
+
+    private static final int IDLE_SPINS = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final AccountJournal accountJournal;
+    private final Shard[] shards;
+    private final int scale;
+    private final long timeoutMillis;
+
+    @Autowired
+    public ShardedTransferEngine(AccountJournal accountJournal,
+                                 @Value("${transfer.sharded.shards:0}") int shardCount,
+                                 @Value("${transfer.sharded.ring-size:4096}") int ringSize,
+                                 @Value("${transfer.sharded.batch-size:256}") int batchSize,
+                                 @Value("${transfer.sharded.scale:2}") int scale,
+                                 @Value("${transfer.sharded.timeout-millis:5000}") long timeoutMillis) {
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.accountJournal = accountJournal;
+        this.scale = scale;
+        this.timeoutMillis = timeoutMillis;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, ringSize, batchSize);
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    public Account adopt(Account account) {
+        return MinorUnitAccount.of(account, scale);
+    }
+
+    @Override
+    public long transfer(Account accountFrom, Account accountTo, BigDecimal amount) {
+        return await(submit(TRANSFER, accountFrom, accountTo, amount));
+    }
+
+    @Override
+    public long withdraw(Account account, BigDecimal amount) {
+        MinorUnitBalance debited = minorUnitBalance(account);
+        return await(submit(WITHDRAW, debited, null, debited.toMinorUnits(amount)));
+    }
+
+    @Override
+    public long deposit(Account account, BigDecimal amount) {
+        MinorUnitBalance credited = minorUnitBalance(account);
+        return await(submit(DEPOSIT, credited, null, credited.toMinorUnits(amount)));
+    }
+
+    /**
+     * Settles an atomic batch on its net changes: every net debit is queued on the shard owning the account at once,
+     * then every net credit once all debits succeeded. If an account cannot cover its debit, or a debit is not queued
+     * or withdrawn on timeout, the debits made are credited back and the batch is rejected, respectively the failure
+     * thrown.
+     * Credits and refunds are never withdrawn, their outcome is awaited however long it takes. The batch is journaled
+     * as one record once all debits are taken and before any credit is queued.
+     */
+    @Override
+    public long transferBatch(TransferBatch batch, boolean atomic) {
+        if (!atomic) {
+            return batch.applyEach(this);
+        }
+        Map<Account, BigDecimal> changes = batch.netChanges();
+        Account[] accounts = changes.keySet().toArray(new Account[0]);
+        long[] units = new long[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            units[i] = minorUnitBalance(accounts[i]).toMinorUnits(changes.get(accounts[i]));
+        }
+        Completion[] debits = new Completion[accounts.length];
+        int overdrawn = -1;
+        RuntimeException failure = null;
+        for (int i = 0; i < accounts.length && failure == null; i++) {
+            if (units[i] < 0) {
+                try {
+                    debits[i] = submit(SETTLE_DEBIT, minorUnitBalance(accounts[i]), null, -units[i]);
+                } catch (ServerBusyException e) {
+                    failure = e;
+                }
+            }
+        }
+        for (int i = 0; i < accounts.length; i++) {
+            if (debits[i] == null) {
+                continue;
+            }
+            try {
+                await(debits[i]);
+            } catch (InsufficientBalanceException e) {
+                overdrawn = overdrawn < 0 ? i : overdrawn;
+                debits[i] = null;
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+                debits[i] = null;
+            }
+        }
+        if (overdrawn >= 0 || failure != null) {
+            revert(accounts, units, debits, SETTLE_CREDIT);
+            if (overdrawn >= 0) {
+                batch.rejectOverdrawn(accounts[overdrawn]);
+                return -1;
+            }
+            throw failure;
+        }
+        batch.applyAll();
+        long position;
+        try {
+            position = batch.journal(accountJournal);
+        } catch (RuntimeException e) {
+            revert(accounts, units, debits, SETTLE_CREDIT);
+            throw new TransactionFailureException("Transfer failed, please try again later", e);
+        }
+        Completion[] credits = new Completion[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            if (units[i] > 0) {
+                credits[i] = submitUntilQueued(SETTLE_CREDIT, minorUnitBalance(accounts[i]), units[i]);
+            }
+        }
+        RuntimeException overflow = null;
+        for (int i = 0; i < accounts.length; i++) {
+            if (credits[i] == null) {
+                continue;
+            }
+            try {
+                awaitOutcome(credits[i]);
+            } catch (RuntimeException e) {
+                overflow = overflow == null ? e : overflow;
+                credits[i] = null;
+            }
+        }
+        if (overflow != null) {
+            JournalUndo.append(() -> batch.journalReversal(accountJournal), "batch of " + batch.size());
+            revert(accounts, units, credits, SETTLE_DEBIT);
+            revert(accounts, units, debits, SETTLE_CREDIT);
+            throw new TransactionFailureException("Transfer failed, please try again later", overflow);
+        }
+        return position;
+    }
+
+    /**
+     * Reverts the applied commands of a batch with commands of the given type, awaited without withdrawal. Taking
+     * back a credit fails if its money has already moved on, which only an overflowing credit can lead to.
+     */
+    private void revert(Account[] accounts, long[] units, Completion[] applied, int type) {
+        for (int i = 0; i < accounts.length; i++) {
+            if (applied[i] == null) {
+                continue;
+            }
+            try {
+                awaitOutcome(submitUntilQueued(type, minorUnitBalance(accounts[i]), Math.abs(units[i])));
+            } catch (RuntimeException e) {
+                log.error("Could not revert {} on account {} ", units[i], accounts[i], e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            shard.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private Completion submit(int type, Account accountFrom, Account accountTo, BigDecimal amount) {
+        MinorUnitBalance debited = minorUnitBalance(accountFrom);
+        MinorUnitBalance credited = minorUnitBalance(accountTo);
+        return submit(type, debited, credited, debited.toMinorUnits(amount));
+    }
+
+    /**
+     * Queues the command on the shard owning the account, waiting for room in its ring at most the timeout.
+     * @throws ServerBusyException if the ring stayed full, the command was not queued
+     */
+    private Completion submit(int type, MinorUnitBalance account, MinorUnitBalance counterpart, long units) {
+        Completion completion = new Completion();
+        Shard shard = shardOf(account);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!shard.offer(type, account, counterpart, units, -1, completion)) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new ServerBusyException();
+            }
+            LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+        }
+        return completion;
+    }
+
+    /**
+     * Queues a command that must not be given up, a credit or revert completing a batch, however long its ring stays
+     * full.
+     */
+    private Completion submitUntilQueued(int type, MinorUnitBalance account, long units) {
+        Completion completion = new Completion();
+        Shard shard = shardOf(account);
+        while (!shard.offer(type, account, null, units, -1, completion)) {
+            LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+        }
+        return completion;
+    }
+
+    /**
+     * Waits for the shards to process the command. On timeout or interrupt the command is withdrawn if its shard did
+     * not start it yet, and the caller is told the shards are busy; a command already started cannot be withdrawn,
+     * its outcome is then awaited however long it takes.
+     */
+    private long await(Completion completion) {
+        try {
+            return completion.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw failure(e);
+        } catch (TimeoutException e) {
+            return withdrawOrAwait(completion, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return withdrawOrAwait(completion, e);
+        }
+    }
+
+    private long withdrawOrAwait(Completion completion, Exception cause) {
+        if (completion.claim()) {
+            completion.cancel(false);
+            throw new ServerBusyException(cause);
+        }
+        return awaitOutcome(completion);
+    }
+
+    /**
+     * Waits for a command that cannot be withdrawn, however long it takes and ignoring interrupts until it ends.
+     */
+    private static long awaitOutcome(Completion completion) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return completion.get();
+                } catch (ExecutionException e) {
+                    throw failure(e);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static RuntimeException failure(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        return new TransactionFailureException("Transfer failed, please try again later", e.getCause());
+    }
+
+    private static BigDecimal amount(MinorUnitBalance account, long units) {
+        return BigDecimal.valueOf(units, account.getScale());
+    }
+
+    private Shard shardOf(MinorUnitBalance account) {
+        int h = account.getAccountId().hashCode();
+        return shards[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private MinorUnitBalance minorUnitBalance(Account account) {
+        if (!(account instanceof MinorUnitBalance)) {
+            throw new IllegalStateException(
+                    "Account " + account.getAccountId() + " was not adopted by the sharded engine");
+        }
+        return (MinorUnitBalance) account;
+    }
+
+    /**
+     * Completion of a command submitted by a caller, completed with the journal position of the command. The shard
+     * claims it before applying the command and the caller claims it to withdraw the command, whoever claims it first
+     * decides whether the command runs.
+     */
+    private static final class Completion extends CompletableFuture<Long> {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    private static class Command {
+        int type;
+        MinorUnitBalance account;
+        MinorUnitBalance counterpart;
+        long units;
+        /** Journal position of the transfer a forwarded credit completes. */
+        long position;
+        CompletableFuture<Long> completion;
+
+        void set(int type, MinorUnitBalance account, MinorUnitBalance counterpart, long units, long position,
+                 CompletableFuture<Long> completion) {
+            this.type = type;
+            this.account = account;
+            this.counterpart = counterpart;
+            this.units = units;
+            this.position = position;
+            this.completion = completion;
+        }
+
+        void clear() {
+            this.account = null;
+            this.counterpart = null;
+            this.completion = null;
+        }
+    }
+
+    /**
+     * Command for another shard that could not be published because its ring was full.
+     */
+    private static class Pending extends Command {
+        private final Shard target;
+
+        private Pending(Shard target) {
+            this.target = target;
+        }
+    }
+
+    private class Shard implements Runnable {
+
+        private final RingBuffer<Command> ring;
+        private final int batchSize;
+        private final Thread thread;
+        /** Commands for other shards whose rings were full, retried on every loop. Only touched by this shard. */
+        private final ArrayDeque<Pending> outbound = new ArrayDeque<>();
+        private volatile boolean running = true;
+        private volatile boolean sleeping;
+
+        private Shard(int index, int ringSize, int batchSize) {
+            this.ring = new RingBuffer<>(ringSize, Command::new);
+            this.batchSize = batchSize;
+            this.thread = new Thread(this, "transfer-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running || !ring.isEmpty() || !outbound.isEmpty()) {
+                flushOutbound();
+                if (ring.drain(this::handle, batchSize) > 0) {
+                    idle = 0;
+                } else if (++idle < IDLE_SPINS || !outbound.isEmpty()) {
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (ring.isEmpty() && running) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        private void wakeUp() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void handle(Command command) {
+            try {
+                if (command.type != CREDIT && command.type != REFUND && !((Completion) command.completion).claim()) {
+                    // Withdrawn by a caller that gave up waiting
+                    return;
+                }
+                switch (command.type) {
+                    case TRANSFER:
+                        transfer(command.account, command.counterpart, command.units, command.completion);
+                        break;
+                    case CREDIT:
+                        credit(command.account, command.counterpart, command.units, command.position,
+                                command.completion);
+                        break;
+                    case REFUND:
+                        command.account.credit(command.units);
+                        command.completion.completeExceptionally(
+                                new TransactionFailureException("Transfer failed, please try again later"));
+                        break;
+                    case WITHDRAW:
+                        withdraw(command.account, command.units, command.completion);
+                        break;
+                    case DEPOSIT:
+                        deposit(command.account, command.units, command.completion);
+                        break;
+                    case SETTLE_DEBIT:
+                        if (debit(command.account, command.units, command.completion)) {
+                            command.completion.complete(-1L);
+                        }
+                        break;
+                    case SETTLE_CREDIT:
+                        command.account.credit(command.units);
+                        command.completion.complete(-1L);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown command type " + command.type);
+                }
+            } catch (RuntimeException e) {
+                command.completion.completeExceptionally(e);
+            } finally {
+                command.clear();
+            }
+        }
+
+        private void transfer(MinorUnitBalance from, MinorUnitBalance to, long units,
+                              CompletableFuture<Long> completion) {
+            if (!debit(from, units, completion)) {
+                return;
+            }
+            long position;
+            try {
+                position = accountJournal.appendTransfer(from.getAccountId(), to.getAccountId(), amount(from, units));
+            } catch (RuntimeException e) {
+                from.credit(units);
+                completion.completeExceptionally(
+                        new TransactionFailureException("Transfer failed, please try again later", e));
+                return;
+            }
+            Shard target = shardOf(to);
+            if (target == this) {
+                credit(to, from, units, position, completion);
+            } else {
+                send(target, CREDIT, to, from, units, position, completion);
+            }
+        }
+
+        private void withdraw(MinorUnitBalance account, long units, CompletableFuture<Long> completion) {
+            if (!debit(account, units, completion)) {
+                return;
+            }
+            try {
+                completion.complete(accountJournal.appendWithdraw(account.getAccountId(), amount(account, units)));
+            } catch (RuntimeException e) {
+                account.credit(units);
+                completion.completeExceptionally(
+                        new TransactionFailureException("Withdraw failed, please try again later", e));
+            }
+        }
+
+        /**
+         * Journals the deposit before crediting it, and journals it withdrawn again if the credit overflows.
+         */
+        private void deposit(MinorUnitBalance account, long units, CompletableFuture<Long> completion) {
+            BigDecimal amount = amount(account, units);
+            long position;
+            try {
+                position = accountJournal.appendDeposit(account.getAccountId(), amount);
+            } catch (RuntimeException e) {
+                completion.completeExceptionally(
+                        new TransactionFailureException("Deposit failed, please try again later", e));
+                return;
+            }
+            try {
+                account.credit(units);
+            } catch (ArithmeticException e) {
+                JournalUndo.append(() -> accountJournal.appendWithdraw(account.getAccountId(), amount),
+                        "deposit to " + account.getAccountId());
+                completion.completeExceptionally(
+                        new TransactionFailureException("Deposit failed, please try again later", e));
+                return;
+            }
+            completion.complete(position);
+        }
+
+        private boolean debit(MinorUnitBalance account, long units, CompletableFuture<Long> completion) {
+            if (!account.tryDebit(units)) {
+                log.error("Withdraw amount {} failed on account {} ", BigDecimal.valueOf(units, account.getScale()),
+                        account);
+                completion.completeExceptionally(new InsufficientBalanceException());
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Completes a transfer journaled at the given position. If the credit overflows, the reverse transfer is
+         * journaled before the refund is credited.
+         */
+        private void credit(MinorUnitBalance to, MinorUnitBalance refundTo, long units, long position,
+                            CompletableFuture<Long> completion) {
+            try {
+                to.credit(units);
+            } catch (ArithmeticException e) {
+                JournalUndo.append(() -> accountJournal.appendTransfer(to.getAccountId(), refundTo.getAccountId(),
+                        amount(to, units)), "transfer to " + to.getAccountId());
+                Shard origin = shardOf(refundTo);
+                if (origin == this) {
+                    refundTo.credit(units);
+                    completion.completeExceptionally(
+                            new TransactionFailureException("Transfer failed, please try again later", e));
+                } else {
+                    send(origin, REFUND, refundTo, null, units, -1, completion);
+                }
+                return;
+            }
+            completion.complete(position);
+        }
+
+        /**
+         * Forwards a command to another shard without ever blocking this one, otherwise two shards sending to
+         * each other with full rings would deadlock. Only commands that find the target ring full are allocated.
+         */
+        private void send(Shard target, int type, MinorUnitBalance account, MinorUnitBalance counterpart,
+                          long units, long position, CompletableFuture<Long> completion) {
+            if (outbound.isEmpty() && target.offer(type, account, counterpart, units, position, completion)) {
+                return;
+            }
+            Pending pending = new Pending(target);
+            pending.set(type, account, counterpart, units, position, completion);
+            outbound.addLast(pending);
+        }
+
+        private void flushOutbound() {
+            while (!outbound.isEmpty()) {
+                Pending pending = outbound.peekFirst();
+                if (!pending.target.offer(pending.type, pending.account, pending.counterpart, pending.units,
+                        pending.position, pending.completion)) {
+                    return;
+                }
+                outbound.pollFirst();
+            }
+        }
+
+        private boolean offer(int type, MinorUnitBalance account, MinorUnitBalance counterpart, long units,
+                              long position, CompletableFuture<Long> completion) {
+            long sequence = ring.tryClaim();
+            if (sequence < 0) {
+                return false;
+            }
+            ring.slot(sequence).set(type, account, counterpart, units, position, completion);
+            ring.publish(sequence);
+            wakeUp();
+            return true;
+        }
+    }
+}
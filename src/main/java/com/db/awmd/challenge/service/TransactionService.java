@@ -1,39 +1,231 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
+import com.db.awmd.challenge.domain.Notification;
 import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransactionResult;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.InvalidArgumentException;
-import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import com.db.awmd.challenge.exception.RateLimitedException;
+import com.db.awmd.challenge.journal.AccountJournal;
+import com.db.awmd.challenge.ledger.TransactionLedger;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.TransferMetrics.Operation;
+import com.db.awmd.challenge.service.TransferMetrics.Outcome;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Service
 public class TransactionService {
 
     private final AccountsService accountService;
-    private final TransactionServiceHelper helper;
+    private final TransferEngine transferEngine;
+    private final AccountJournal accountJournal;
+    private final NotificationDispatcher notificationDispatcher;
+    private final TransactionLedger transactionLedger;
+    private final int maxBatchSize;
+    private final TransferMetrics transferMetrics;
+    private final AdmissionControl admissionControl;
 
-    private final Lock withdrawLock;
-    private final Lock depositLock;
-
-    public TransactionService(AccountsService accountService) {
+    public TransactionService(AccountsService accountService, TransferEngine transferEngine,
+                              AccountJournal accountJournal, NotificationDispatcher notificationDispatcher,
+                              TransactionLedger transactionLedger,
+                              @Value("${transfer.batch.max-size:10000}") int maxBatchSize,
+                              AdmissionControl admissionControl, Metrics metrics) {
         this.accountService = accountService;
-        this.withdrawLock = new ReentrantLock();
-        this.depositLock = new ReentrantLock();
-        this.helper = new TransactionServiceHelper();
+        this.transferEngine = transferEngine;
+        this.accountJournal = accountJournal;
+        this.notificationDispatcher = notificationDispatcher;
+        this.transactionLedger = transactionLedger;
+        this.maxBatchSize = maxBatchSize;
+        this.transferMetrics = new TransferMetrics(metrics);
+        this.admissionControl = admissionControl;
     }
 
+    /**
+     * Moves the amount between the two accounts. Both accounts are validated before anything is debited, the
+     * movement itself is applied and journaled by the configured {@link TransferEngine}, this returns once the record
+     * is durable.
+     * @param transaction
+     * @throws RateLimitedException if {@link AdmissionControl} turned the transfer away
+     * @throws OutcomeUnknownException if the transfer was applied but the journal failed to make it durable
+     */
+    @SuppressWarnings("try")
     public void transferMoney(final Transaction transaction) {
-        boolean isWithdrawSuccess = withdraw(transaction.getAccountFromId(), transaction.getAmount());
-        if (isWithdrawSuccess) {
-            deposit(transaction.getAccountToId(), transaction.getAmount());
+        long start = System.nanoTime();
+        try (AdmissionControl.Permit ignored = admissionControl.admit(transaction.getAccountFromId(),
+                transaction.getAccountToId())) {
+            applyTransfer(transaction);
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.TRANSFER, Outcome.of(e), start);
+            throw e;
+        }
+        transferMetrics.record(Operation.TRANSFER, Outcome.OK, start);
+    }
+
+    private void applyTransfer(final Transaction transaction) {
+        BigDecimal amount = transaction.getAmount();
+        checkAmount(amount);
+        notificationDispatcher.admit();
+        Account accountFrom = getAccount(transaction.getAccountFromId());
+        Account accountTo = getAccount(transaction.getAccountToId());
+        long position = transferEngine.transfer(accountFrom, accountTo, amount);
+        // Applied from here on: whatever the durability wait answers, the ledger and listeners must see it
+        transactionLedger.recordTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), amount);
+        accountService.balanceChanged(accountFrom, amount.negate());
+        accountService.balanceChanged(accountTo, amount);
+        accountJournal.awaitDurable(position);
+        log.info("Transfer success of amount {} from account {} to account {}, Notifying money transfer",
+                amount, accountFrom.getAccountId(), accountTo.getAccountId());
+        notifyTransfer(accountFrom, Notification.Kind.DEBIT, amount);
+        notifyTransfer(accountTo, Notification.Kind.CREDIT, amount);
+    }
+
+    /**
+     * Applies a batch of transfers. Invalid items are rejected up front, the rest are handed to the
+     * {@link TransferEngine} as a whole so each touched account is locked and written only once. An atomic batch is
+     * applied completely or not at all, otherwise every item succeeds or fails on its own.
+     * @param transactions
+     * @param atomic
+     * @return the outcome of every transaction, in request order
+     */
+    @SuppressWarnings("try")
+    public List<TransactionResult> transferBatch(final List<Transaction> transactions, boolean atomic) {
+        long start = System.nanoTime();
+        List<TransactionResult> results;
+        // A batch counts against the in-flight limit only, its accounts are not rate limited
+        try (AdmissionControl.Permit ignored = admissionControl.admit()) {
+            results = applyBatch(transactions, atomic).getResults();
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.BATCH, Outcome.of(e), start);
+            throw e;
+        }
+        transferMetrics.record(Operation.BATCH, Outcome.OK, start);
+        return results;
+    }
+
+    /**
+     * Applies every leg or none. The debits are checked against the balances netted over all legs, so money passing
+     * through an account within the transaction needs no prior balance: the locking engine locks the accounts of all
+     * legs together in the global lock order, the lock-free engines debit every net outflow before crediting any
+     * inflow and credit the debits back if one fails. The legs are journaled as one record and the durability wait is
+     * paid once, instead of once per leg for the equivalent sequence of transfers.
+     * @throws InsufficientBalanceException if an account would end up overdrawn
+     * @throws InvalidArgumentException if a leg is invalid
+     */
+    @SuppressWarnings("try")
+    public void transferMultiLeg(final MultiLegTransaction transaction) {
+        long start = System.nanoTime();
+        try (AdmissionControl.Permit ignored = admissionControl.admit(accountIds(transaction.getLegs()))) {
+            applyMultiLeg(transaction.getLegs());
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.MULTI_LEG, Outcome.of(e), start);
+            throw e;
+        }
+        transferMetrics.record(Operation.MULTI_LEG, Outcome.OK, start);
+    }
+
+    private void applyMultiLeg(final List<Transaction> legs) {
+        if (legs.isEmpty()) {
+            throw new InvalidArgumentException("Multi-leg transaction has no legs");
+        }
+        TransferBatch batch = applyBatch(legs, true);
+        if (batch.isOverdrawn()) {
+            throw new InsufficientBalanceException();
+        }
+        int cause = batch.getCause();
+        if (cause >= 0) {
+            throw new InvalidArgumentException("Leg " + cause + ": " + batch.getResults().get(cause).getMessage());
+        }
+    }
+
+    private static String[] accountIds(List<Transaction> legs) {
+        Set<String> accountIds = new LinkedHashSet<>();
+        for (Transaction leg : legs) {
+            if (leg != null) {
+                accountIds.add(leg.getAccountFromId());
+                accountIds.add(leg.getAccountToId());
+            }
         }
+        return accountIds.toArray(new String[0]);
+    }
+
+    private TransferBatch applyBatch(final List<Transaction> transactions, boolean atomic) {
+        if (transactions.size() > maxBatchSize) {
+            throw new InvalidArgumentException(
+                    "Batch of " + transactions.size() + " transactions exceeds the limit of " + maxBatchSize);
+        }
+        notificationDispatcher.admit();
+        TransferBatch batch = new TransferBatch(transactions.size());
+        long position = -1;
+        // Each id resolves to one Account instance, the batch tells accounts apart by identity
+        Map<String, Account> accounts = new HashMap<>();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            try {
+                checkTransaction(transaction);
+                batch.add(i, accounts.computeIfAbsent(transaction.getAccountFromId(), this::getAccount),
+                        accounts.computeIfAbsent(transaction.getAccountToId(), this::getAccount),
+                        transaction.getAmount());
+            } catch (InvalidArgumentException ex) {
+                batch.reject(i, ex.getMessage());
+            }
+        }
+        int rejected = batch.firstRejected();
+        if (atomic && rejected >= 0) {
+            batch.rejectAll(rejected, batch.getResults().get(rejected).getMessage());
+        } else {
+            position = transferEngine.transferBatch(batch, atomic);
+        }
+
+        log.info("Batch of {} transactions processed, atomic {}, first rejected {}", batch.size(), atomic,
+                batch.firstRejected());
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isApplied(i)) {
+                transactionLedger.recordTransfer(batch.getAccountFrom(i).getAccountId(),
+                        batch.getAccountTo(i).getAccountId(), batch.getAmount(i));
+                accountService.balanceChanged(batch.getAccountFrom(i), batch.getAmount(i).negate());
+                accountService.balanceChanged(batch.getAccountTo(i), batch.getAmount(i));
+            }
+        }
+        if (position >= 0) {
+            accountJournal.awaitDurable(position);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isApplied(i)) {
+                notifyTransfer(batch.getAccountFrom(i), Notification.Kind.DEBIT, batch.getAmount(i));
+                notifyTransfer(batch.getAccountTo(i), Notification.Kind.CREDIT, batch.getAmount(i));
+            }
+        }
+        return batch;
+    }
+
+    private void checkTransaction(Transaction transaction) {
+        if (transaction == null) {
+            throw new InvalidArgumentException("Missing transaction");
+        }
+        if (isEmpty(transaction.getAccountFromId()) || isEmpty(transaction.getAccountToId())) {
+            throw new InvalidArgumentException("Account ids must not be empty");
+        }
+        if (transaction.getAmount() == null) {
+            throw new InvalidArgumentException("Transaction amount must not be empty");
+        }
+        checkAmount(transaction.getAmount());
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
     }
 
     private Account getAccount(String accountId){
@@ -51,104 +243,84 @@ public class TransactionService {
      * @param amount
      * @return
      */
+    @SuppressWarnings("try")
     public boolean withdraw(String accountId, BigDecimal amount) {
-        if(amount.intValue() <= 0){
-            throw new InvalidArgumentException("Invalid withdrawl amount [" + amount + "], amount must be positive");
-        }
-        boolean isSuccess = withdrawFromAccount(accountId, amount);
-        if (isSuccess) {
-            log.info("Withdraw success of amount {} from account {}, Notifying money transfer", amount, accountId);
-            notifyTransfer(accountId, String.format("Account debited with amount %s", amount));
+        long start = System.nanoTime();
+        try (AdmissionControl.Permit ignored = admissionControl.admit(accountId)) {
+            applyWithdraw(accountId, amount);
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.WITHDRAW, Outcome.of(e), start);
+            throw e;
         }
-        return isSuccess;
+        transferMetrics.record(Operation.WITHDRAW, Outcome.OK, start);
+        return true;
     }
 
+    private void applyWithdraw(String accountId, BigDecimal amount) {
+        checkAmount(amount);
+        notificationDispatcher.admit();
+        Account account = getAccount(accountId);
+        long position = transferEngine.withdraw(account, amount);
+        transactionLedger.recordWithdrawal(accountId, amount);
+        accountService.balanceChanged(account, amount.negate());
+        accountJournal.awaitDurable(position);
+        log.info("Withdraw success of amount {} from account {}, Notifying money transfer", amount, accountId);
+        notifyTransfer(account, Notification.Kind.DEBIT, amount);
+    }
+
+    @SuppressWarnings("try")
     public void deposit(String accountId, BigDecimal amount) {
-        boolean isSuccess = depositToAccount(accountId, amount);
-        if (isSuccess) {
-            log.info("Deposit success of amount {} from account {}, Notifying money transfer", amount, accountId);
-            notifyTransfer(accountId, String.format("Account credited with amount %s", amount));
+        long start = System.nanoTime();
+        try (AdmissionControl.Permit ignored = admissionControl.admit(accountId)) {
+            applyDeposit(accountId, amount);
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.DEPOSIT, Outcome.of(e), start);
+            throw e;
         }
-
+        transferMetrics.record(Operation.DEPOSIT, Outcome.OK, start);
     }
 
     /**
-     * Withdraw amount operation is performed within a thread lock context, the time out (5sec) is set to avoid any dead lock situation.
-     * Upon a failure operation the transaction is rolled back
-     * @param accountId
-     * @param amount
-     * @return
+     * Deposits money already taken from another account, the credit of a cross-shard transfer or its refund. Neither
+     * {@link AdmissionControl} nor notification backpressure apply: turning it away would leave the money in neither
+     * account.
      */
-    private boolean withdrawFromAccount(String accountId, BigDecimal amount) {
-        boolean isSuccess = false;
+    public void settleDeposit(String accountId, BigDecimal amount) {
+        long start = System.nanoTime();
         try {
-            if (withdrawLock.tryLock(5, TimeUnit.SECONDS)) {
-                Account account = getAccount(accountId);
-                BigDecimal currentBalance = account.getBalance();
-                checkBalance(amount, account, currentBalance);
-                try {
-                    BigDecimal updatedBalance = currentBalance.subtract(amount);
-                    account.setBalance(updatedBalance);
-                    isSuccess = true;
-                } catch (Exception e) {
-                    rollbackTransaction(account, currentBalance);
-                }
-            }else{
-                throw new TransactionFailureException("Server busy, please try again later");
-            }
-
-        } catch (InterruptedException e) {
-            log.error("Withdraw failed for account {}, Error: {}", accountId, e.getMessage());
-            throw new TransactionFailureException("Server busy, please try again later", e.getCause());
-        } finally {
-            withdrawLock.unlock();
+            checkAmount(amount);
+            creditAccount(accountId, amount);
+        } catch (RuntimeException e) {
+            transferMetrics.record(Operation.DEPOSIT, Outcome.of(e), start);
+            throw e;
         }
-        return isSuccess;
+        transferMetrics.record(Operation.DEPOSIT, Outcome.OK, start);
     }
 
-    private void checkBalance(BigDecimal amount, Account account, BigDecimal currentBalance) {
-        if (amount.compareTo(currentBalance) > 0) {
-            log.error("Withdraw amount {} failed on account {} ", amount, account);
-            throw new InvalidArgumentException("Withdraw failed, Insufficient balance");
-        }
+    private void applyDeposit(String accountId, BigDecimal amount) {
+        checkAmount(amount);
+        notificationDispatcher.admit();
+        creditAccount(accountId, amount);
     }
 
-    /**
-     * Deposit operation is performed only for successful withdraw operation. Upon any failure the transaction is rolled back
-     * @param accountId
-     * @param amount
-     * @return
-     */
-    private boolean depositToAccount(String accountId, BigDecimal amount) {
-        boolean isSuccess = false;
-        try {
-            if (depositLock.tryLock(5, TimeUnit.SECONDS)) {
-                Account account = getAccount(accountId);
-                BigDecimal originalBalance = account.getBalance();
-                try {
-                    BigDecimal updatedBalance = originalBalance.add(amount);
-                    account.setBalance(updatedBalance);
-                    isSuccess = true;
-                } catch (Exception e) {
-                    rollbackTransaction(account, originalBalance);
-                }
-            }
-        } catch (InterruptedException e) {
-            log.error("Deposit failed for account {}, Error: {}", accountId, e.getMessage());
-            throw new TransactionFailureException("Server busy, please try again later", e.getCause());
-        }finally {
-            depositLock.unlock();
-        }
-        return isSuccess;
+    private void creditAccount(String accountId, BigDecimal amount) {
+        Account account = getAccount(accountId);
+        long position = transferEngine.deposit(account, amount);
+        transactionLedger.recordDeposit(accountId, amount);
+        accountService.balanceChanged(account, amount);
+        accountJournal.awaitDurable(position);
+        log.info("Deposit success of amount {} from account {}, Notifying money transfer", amount, accountId);
+        notifyTransfer(account, Notification.Kind.CREDIT, amount);
     }
 
-    private void rollbackTransaction(Account account, BigDecimal originalBalance) {
-        account.setBalance(originalBalance);
+    private void checkAmount(BigDecimal amount) {
+        if(amount == null || amount.signum() <= 0){
+            throw new InvalidArgumentException("Invalid amount [" + amount + "], amount must be positive");
+        }
     }
 
-
-    private void notifyTransfer(final String accountId, final String message) {
-        helper.notifyUser(getAccount(accountId), message);
+    private void notifyTransfer(final Account account, final Notification.Kind kind, final BigDecimal amount) {
+        notificationDispatcher.dispatch(account, kind, amount);
     }
 
 }
@@ -0,0 +1,269 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransactionResult;
+import com.db.awmd.challenge.domain.TransactionResult.Status;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.journal.AccountJournal;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transfers of one batch request with their accounts already resolved. Items that failed validation are rejected
+ * up front; the remaining ones are settled by the {@link TransferEngine} against the balances of all touched
+ * accounts at once, so opposing movements between the same accounts net out and each account is written once.
+ */
+public class TransferBatch {
+
+    private final int size;
+    private final Account[] accountsFrom;
+    private final Account[] accountsTo;
+    private final BigDecimal[] amounts;
+    private final TransactionResult[] results;
+    private int cause = -1;
+    private boolean overdrawn;
+
+    public TransferBatch(int size) {
+        this.size = size;
+        this.accountsFrom = new Account[size];
+        this.accountsTo = new Account[size];
+        this.amounts = new BigDecimal[size];
+        this.results = new TransactionResult[size];
+        for (int i = 0; i < size; i++) {
+            results[i] = new TransactionResult(i);
+        }
+    }
+
+    public void add(int index, Account accountFrom, Account accountTo, BigDecimal amount) {
+        accountsFrom[index] = accountFrom;
+        accountsTo[index] = accountTo;
+        amounts[index] = amount;
+    }
+
+    public void reject(int index, String message) {
+        results[index].setStatus(Status.REJECTED);
+        results[index].setMessage(message);
+    }
+
+    /**
+     * Rejects every item, the one that caused it with its own message and the others as part of the batch.
+     */
+    public void rejectAll(int cause, String message) {
+        this.cause = cause;
+        for (int i = 0; i < size; i++) {
+            reject(i, i == cause ? message : "Batch rejected, transaction " + cause + " failed");
+        }
+    }
+
+    public boolean isRejected() {
+        for (TransactionResult result : results) {
+            if (result.getStatus() == Status.REJECTED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the first rejected item, -1 if there is none
+     */
+    public int firstRejected() {
+        for (int i = 0; i < size; i++) {
+            if (results[i].getStatus() == Status.REJECTED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the item that made {@link #rejectAll(int, String)} reject the batch, -1 if it was not called
+     */
+    public int getCause() {
+        return cause;
+    }
+
+    /**
+     * @return true if an atomic batch was rejected because an account would have ended up overdrawn
+     */
+    public boolean isOverdrawn() {
+        return overdrawn;
+    }
+
+    /**
+     * @return the distinct accounts of the items still pending
+     */
+    public List<Account> getAccounts() {
+        Map<Account, Boolean> accounts = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (isPending(i)) {
+                accounts.put(accountsFrom[i], Boolean.TRUE);
+                accounts.put(accountsTo[i], Boolean.TRUE);
+            }
+        }
+        return new ArrayList<>(accounts.keySet());
+    }
+
+    public List<TransactionResult> getResults() {
+        List<TransactionResult> list = new ArrayList<>(size);
+        Collections.addAll(list, results);
+        return list;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isPending(int index) {
+        return results[index].getStatus() == null;
+    }
+
+    public boolean isApplied(int index) {
+        return results[index].getStatus() == Status.APPLIED;
+    }
+
+    public Account getAccountFrom(int index) {
+        return accountsFrom[index];
+    }
+
+    public Account getAccountTo(int index) {
+        return accountsTo[index];
+    }
+
+    public BigDecimal getAmount(int index) {
+        return amounts[index];
+    }
+
+    /**
+     * Settles the pending items against the current balances of all touched accounts. An atomic batch is applied
+     * only if no account ends up overdrawn once all movements are netted; otherwise items are applied in order and
+     * those the running balance cannot cover are rejected.
+     * @param balances current balance of every account returned by {@link #getAccounts()}
+     * @return the new balance of every account whose balance changed
+     */
+    public Map<Account, BigDecimal> settle(Map<Account, BigDecimal> balances, boolean atomic) {
+        Map<Account, BigDecimal> working = new IdentityHashMap<>(balances);
+        for (int i = 0; i < size; i++) {
+            if (!isPending(i)) {
+                continue;
+            }
+            BigDecimal fromBalance = working.get(accountsFrom[i]);
+            if (!atomic && amounts[i].compareTo(fromBalance) > 0) {
+                reject(i, "Withdraw failed, Insufficient balance");
+                continue;
+            }
+            working.put(accountsFrom[i], fromBalance.subtract(amounts[i]));
+            working.put(accountsTo[i], working.get(accountsTo[i]).add(amounts[i]));
+            results[i].setStatus(Status.APPLIED);
+        }
+        if (atomic) {
+            for (int i = 0; i < size; i++) {
+                if (working.get(accountsFrom[i]) != null && working.get(accountsFrom[i]).signum() < 0) {
+                    rejectAll(i, "Withdraw failed, Insufficient balance");
+                    overdrawn = true;
+                    return Collections.emptyMap();
+                }
+            }
+        }
+        working.entrySet().removeIf(entry -> entry.getValue().compareTo(balances.get(entry.getKey())) == 0);
+        return working;
+    }
+
+    /**
+     * Nets the pending items per account, for engines that settle an atomic batch by moving the balance of each
+     * account on its own.
+     * @return the change of the balance of every touched account, negative for a net debit, zero changes left out
+     */
+    public Map<Account, BigDecimal> netChanges() {
+        Map<Account, BigDecimal> changes = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (isPending(i)) {
+                changes.merge(accountsFrom[i], amounts[i].negate(), BigDecimal::add);
+                changes.merge(accountsTo[i], amounts[i], BigDecimal::add);
+            }
+        }
+        changes.values().removeIf(change -> change.signum() == 0);
+        return changes;
+    }
+
+    /**
+     * Marks the pending items applied, once the engine applied their {@link #netChanges() net changes}.
+     */
+    public void applyAll() {
+        for (int i = 0; i < size; i++) {
+            if (isPending(i)) {
+                results[i].setStatus(Status.APPLIED);
+            }
+        }
+    }
+
+    /**
+     * Rejects an atomic batch that would overdraw the account, blaming the first item debiting it.
+     */
+    public void rejectOverdrawn(Account account) {
+        for (int i = 0; i < size; i++) {
+            if (isPending(i) && accountsFrom[i] == account) {
+                rejectAll(i, "Withdraw failed, Insufficient balance");
+                overdrawn = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Journals the applied items as one record, so an atomic batch is recovered as a whole too.
+     * @return position to await, -1 if nothing was applied
+     */
+    public long journal(AccountJournal accountJournal) {
+        List<Transaction> applied = applied(false);
+        return applied.isEmpty() ? -1 : accountJournal.appendTransfers(applied);
+    }
+
+    /**
+     * Journals the applied items moved back, for an engine undoing the batch after {@link #journal(AccountJournal)}.
+     */
+    public long journalReversal(AccountJournal accountJournal) {
+        List<Transaction> reversed = applied(true);
+        return reversed.isEmpty() ? -1 : accountJournal.appendTransfers(reversed);
+    }
+
+    private List<Transaction> applied(boolean reversed) {
+        List<Transaction> applied = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (isApplied(i)) {
+                Account from = reversed ? accountsTo[i] : accountsFrom[i];
+                Account to = reversed ? accountsFrom[i] : accountsTo[i];
+                applied.add(new Transaction(from.getAccountId(), to.getAccountId(), amounts[i]));
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Applies the pending items one transfer at a time, for engines that cannot settle a batch as a whole. Each item
+     * is journaled on its own by the engine.
+     * @return position of the last record, -1 if nothing was applied
+     */
+    public long applyEach(TransferEngine transferEngine) {
+        long position = -1;
+        for (int i = 0; i < size; i++) {
+            if (!isPending(i)) {
+                continue;
+            }
+            try {
+                position = transferEngine.transfer(accountsFrom[i], accountsTo[i], amounts[i]);
+                results[i].setStatus(Status.APPLIED);
+            } catch (InvalidArgumentException | TransactionFailureException ex) {
+                reject(i, ex.getMessage());
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,47 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.journal.AccountJournal;
+
+import java.math.BigDecimal;
+
+/**
+ * Applies balance movements to accounts. The engine in use is selected with the {@code transfer.engine} property;
+ * account lookup, amount validation and notifications stay in {@link TransactionService}.
+ * Failures are reported with {@link InvalidArgumentException} (the request cannot
+ * succeed) or {@link com.db.awmd.challenge.exception.TransactionFailureException} (the request may succeed later).
+ * <p>
+ * Each movement is journaled by the engine as part of applying it, see {@link AccountJournal}: a debit once it is
+ * applied, a credit before any other movement can see it, so the journal order follows the causal order of the
+ * movements. A movement whose record cannot be appended is undone. The methods return the journal position to pass to
+ * {@link AccountJournal#awaitDurable(long)}.
+ */
+public interface TransferEngine {
+
+    /**
+     * Converts a newly created account into the balance representation this engine works on.
+     */
+    default Account adopt(Account account) {
+        return account;
+    }
+
+    long transfer(Account accountFrom, Account accountTo, BigDecimal amount);
+
+    long withdraw(Account account, BigDecimal amount);
+
+    long deposit(Account account, BigDecimal amount);
+
+    /**
+     * Applies the pending items of the batch and records their outcome in it. By default every item is
+     * transferred and journaled on its own; atomic batches need an engine able to settle the whole batch at once,
+     * journaled as one record, see {@link TransferBatch#journal(AccountJournal)}.
+     * @return position of the last record, -1 if nothing was applied
+     */
+    default long transferBatch(TransferBatch batch, boolean atomic) {
+        if (atomic) {
+            throw new InvalidArgumentException("Atomic batches are not supported by the configured transfer engine");
+        }
+        return batch.applyEach(this);
+    }
+}
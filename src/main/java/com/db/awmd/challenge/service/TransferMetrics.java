@@ -0,0 +1,60 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.LatencyHistogram;
+import com.db.awmd.challenge.metrics.Metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome counts of the {@link TransactionService} operations. Every series is registered up front, so
+ * recording is a lookup in a fixed array followed by adder increments.
+ */
+class TransferMetrics {
+
+    enum Operation {
+        TRANSFER, BATCH, MULTI_LEG, WITHDRAW, DEPOSIT
+    }
+
+    enum Outcome {
+        OK, INSUFFICIENT_BALANCE, INVALID, BUSY, FAILED, UNKNOWN;
+
+        static Outcome of(RuntimeException e) {
+            if (e instanceof InsufficientBalanceException) {
+                return INSUFFICIENT_BALANCE;
+            }
+            if (e instanceof InvalidArgumentException) {
+                return INVALID;
+            }
+            if (e instanceof OutcomeUnknownException) {
+                return UNKNOWN;
+            }
+            return e instanceof ServerBusyException ? BUSY : FAILED;
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[][] outcomes = new LongAdder[Operation.values().length][Outcome.values().length];
+
+    TransferMetrics(Metrics metrics) {
+        for (Operation operation : Operation.values()) {
+            String operationLabel = operation.name().toLowerCase(Locale.ROOT);
+            latencies[operation.ordinal()] = metrics.histogram("transfer_duration_seconds",
+                    "End-to-end duration of the money movements, including journaling", "operation", operationLabel);
+            for (Outcome outcome : Outcome.values()) {
+                outcomes[operation.ordinal()][outcome.ordinal()] = metrics.counter("transfers_total",
+                        "Money movements by outcome", "operation", operationLabel,
+                        "outcome", outcome.name().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    void record(Operation operation, Outcome outcome, long startNanos) {
+        latencies[operation.ordinal()].recordSince(startNanos);
+        outcomes[operation.ordinal()][outcome.ordinal()].increment();
+    }
+}
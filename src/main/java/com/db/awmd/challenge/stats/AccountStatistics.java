@@ -0,0 +1,169 @@
+package com.db.awmd.challenge.stats;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountStats;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.BalanceChangeListener;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Total of all balances, number of accounts and largest balances, updated on every creation and movement so that
+ * reading them never scans the accounts. The total is a striped {@link DecimalAdder}, reads cost one pass over its
+ * cells; the largest balances come from a bounded {@link TopBalances} tracking four times the served number.
+ * <p>
+ * A background scan of the repository (every minute by default) checks the aggregates. A scan runs alongside
+ * transfers, so a difference is only corrected once two scans in a row find the same one, the second with no
+ * deposit, withdrawal or creation running alongside it. The largest balances are rebuilt from every scan, and a
+ * scan is also started when a read finds that tracked accounts dropped below untracked ones.
+ */
+@Slf4j
+@Component
+public class AccountStatistics implements BalanceChangeListener, DisposableBean {
+
+    private static final int TRACKED_PER_SERVED = 4;
+
+    private final AccountsRepository accountsRepository;
+    private final int topSize;
+    private final DecimalAdder total;
+    private final LongAdder accounts = new LongAdder();
+    private final TopBalances topBalances;
+    private final LongAdder corrections;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean refillRequested = new AtomicBoolean();
+    private BigDecimal lastDrift = BigDecimal.ZERO;
+    private long lastCountDrift;
+    private volatile long verifiedAt;
+
+    @Autowired
+    public AccountStatistics(AccountsRepository accountsRepository,
+                             @Value("${stats.top-size:100}") int topSize,
+                             @Value("${stats.verify-interval-seconds:60}") long verifyIntervalSeconds,
+                             Metrics metrics) {
+        this.accountsRepository = accountsRepository;
+        this.topSize = topSize;
+        this.total = new DecimalAdder(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        this.topBalances = new TopBalances(topSize * TRACKED_PER_SERVED);
+        this.corrections = metrics.counter("stats_corrections_total",
+                "Aggregates corrected after a full scan found them drifted");
+        metrics.gauge("stats_accounts", "Accounts counted by the incremental aggregates", accounts::sum);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-verify");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (verifyIntervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::scheduledVerify, verifyIntervalSeconds, verifyIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void accountCreated(Account account) {
+        accounts.increment();
+        total.add(account.getBalance());
+        topBalances.update(account);
+    }
+
+    @Override
+    public void balanceChanged(Account account, BigDecimal change) {
+        total.add(change);
+        topBalances.update(account);
+    }
+
+    public int getTopSize() {
+        return topSize;
+    }
+
+    /**
+     * @param top number of largest balances returned, at most {@link #getTopSize()}
+     */
+    public AccountStats getStats(int top) {
+        int count = Math.min(top, topSize);
+        List<Account> topAccounts = topBalances.top(count);
+        if (!topBalances.isExact(topAccounts, count) && refillRequested.compareAndSet(false, true)) {
+            scheduler.execute(this::scheduledVerify);
+        }
+        return new AccountStats(accounts.sum(), total.sum(), topAccounts, verifiedAt);
+    }
+
+    /**
+     * Scans every account and checks the aggregates against it, see the class comment.
+     */
+    public synchronized void verify() {
+        BigDecimal totalBefore = total.sum();
+        long countBefore = accounts.sum();
+        BigDecimal scannedTotal = BigDecimal.ZERO;
+        long scannedCount = 0;
+        int tracked = topSize * TRACKED_PER_SERVED;
+        // Ordered by the balance read during the scan, live balances keep moving
+        PriorityQueue<Map.Entry<BigDecimal, Account>> largest = new PriorityQueue<>(tracked + 1,
+                Map.Entry.comparingByKey());
+        Iterator<Account> iterator = accountsRepository.stream().iterator();
+        while (iterator.hasNext()) {
+            Account account = iterator.next();
+            BigDecimal balance = account.getBalance();
+            scannedTotal = scannedTotal.add(balance);
+            scannedCount++;
+            largest.add(new AbstractMap.SimpleImmutableEntry<>(balance, account));
+            if (largest.size() > tracked) {
+                largest.poll();
+            }
+        }
+        BigDecimal totalAfter = total.sum();
+        long countAfter = accounts.sum();
+        List<Account> candidates = new ArrayList<>(largest.size());
+        largest.forEach(entry -> candidates.add(entry.getValue()));
+        topBalances.rebuild(candidates, accountId -> accountsRepository.getAccount(accountId) != null);
+
+        BigDecimal drift = scannedTotal.subtract(totalAfter);
+        if (drift.signum() != 0 && drift.compareTo(lastDrift) == 0 && totalBefore.compareTo(totalAfter) == 0) {
+            log.warn("Total balance drifted by {}, corrected to {}", drift, scannedTotal);
+            total.add(drift);
+            corrections.increment();
+            drift = BigDecimal.ZERO;
+        }
+        lastDrift = drift;
+        long countDrift = scannedCount - countAfter;
+        if (countDrift != 0 && countDrift == lastCountDrift && countBefore == countAfter) {
+            log.warn("Account count drifted by {}, corrected to {}", countDrift, scannedCount);
+            accounts.add(countDrift);
+            corrections.increment();
+            countDrift = 0;
+        }
+        lastCountDrift = countDrift;
+        verifiedAt = System.currentTimeMillis();
+        refillRequested.set(false);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private void scheduledVerify() {
+        try {
+            verify();
+        } catch (RuntimeException e) {
+            log.error("Statistics verification failed", e);
+        }
+    }
+}
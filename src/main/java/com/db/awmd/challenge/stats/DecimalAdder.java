@@ -0,0 +1,50 @@
+package com.db.awmd.challenge.stats;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Exact {@link BigDecimal} sum striped over cells in the style of {@link java.util.concurrent.atomic.LongAdder}:
+ * each addition is a compare-and-set on a randomly picked cell, so concurrent adders rarely touch the same one, and
+ * the sum is the total of all cells.
+ */
+public class DecimalAdder {
+
+    /**
+     * References per cell, so that cells do not share a cache line.
+     */
+    private static final int PADDING = 16;
+
+    private final int cells;
+    private final AtomicReferenceArray<BigDecimal> values;
+
+    public DecimalAdder(int cells) {
+        this.cells = cells;
+        this.values = new AtomicReferenceArray<>(cells * PADDING);
+        for (int i = 0; i < cells; i++) {
+            values.set(i * PADDING, BigDecimal.ZERO);
+        }
+    }
+
+    public void add(BigDecimal value) {
+        int index = ThreadLocalRandom.current().nextInt(cells) * PADDING;
+        for (;;) {
+            BigDecimal current = values.get(index);
+            if (values.compareAndSet(index, current, current.add(value))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Not an atomic snapshot, additions running concurrently may or may not be included.
+     */
+    public BigDecimal sum() {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (int i = 0; i < cells; i++) {
+            sum = sum.add(values.get(i * PADDING));
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,224 @@
+package com.db.awmd.challenge.stats;
+
+import com.db.awmd.challenge.domain.Account;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * The accounts with the largest balances, in a skip list ordered by balance and bounded to a fixed number of tracked
+ * accounts, a multiple of the number ever served so tracked accounts whose balance drops leave room for the ones
+ * behind them. Once full, a change to an account below the smallest tracked balance costs a map lookup and a
+ * volatile read.
+ * <p>
+ * Nothing locks on the transfer path: the map holds the current entry of every tracked account and is updated by
+ * compare-and-set, the new entry entering the skip list before it and the replaced one leaving after it. Whoever
+ * publishes an entry reads the live balance again afterwards and retries if it moved, so the last update of an
+ * account always leaves its latest balance in place.
+ * <p>
+ * Untracked accounts never hold more than the highest threshold seen, the floor. When tracked accounts drop below it
+ * an untracked one may belong in the top, {@link #isExact(List, int)} tells and {@link #rebuild(List, Predicate)}
+ * refills the set from a full scan.
+ */
+class TopBalances {
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing((Entry entry) -> entry.balance).reversed()
+            .thenComparing(entry -> entry.accountId);
+
+    private final int capacity;
+    /**
+     * Replaced as a whole by a rebuild, so readers never see a partly rebuilt set.
+     */
+    private volatile Tracked current = new Tracked();
+
+    TopBalances(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void update(Account account) {
+        Tracked state = current;
+        BigDecimal currentThreshold = state.threshold;
+        if (currentThreshold != null && !state.accounts.containsKey(account.getAccountId())
+                && account.getBalance().compareTo(currentThreshold) <= 0) {
+            return;
+        }
+        place(state, account);
+        // A rebuild published meanwhile may have carried the account over before this change reached it
+        Tracked latest = current;
+        if (latest != state) {
+            place(latest, account);
+        }
+    }
+
+    /**
+     * @return copies of the accounts with the largest balances, largest first
+     */
+    List<Account> top(int count) {
+        List<Account> top = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        for (Entry entry : current.entries) {
+            if (top.size() == count) {
+                break;
+            }
+            // An entry being replaced may briefly be seen twice
+            if (seen.add(entry.accountId)) {
+                top.add(new Account(entry.accountId, entry.balance));
+            }
+        }
+        return top;
+    }
+
+    /**
+     * @return false if an untracked account may belong in the given top
+     */
+    boolean isExact(List<Account> top, int count) {
+        BigDecimal currentFloor = current.floor.get();
+        return count == 0 || currentFloor == null
+                || top.size() == count && top.get(count - 1).getBalance().compareTo(currentFloor) >= 0;
+    }
+
+    /**
+     * Replaces the tracked accounts with the candidates of a full scan, keeping the accounts tracked meanwhile that
+     * still exist. Balances are read again while rebuilding, into a new set published once complete, and once more
+     * after publishing for the changes whose update went to the previous set in between.
+     */
+    synchronized void rebuild(List<Account> candidates, Predicate<String> exists) {
+        Tracked previous = current;
+        Tracked rebuilt = new Tracked();
+        carryOver(previous, rebuilt, candidates, exists);
+        current = rebuilt;
+        carryOver(previous, rebuilt, candidates, exists);
+    }
+
+    private void carryOver(Tracked previous, Tracked rebuilt, List<Account> candidates, Predicate<String> exists) {
+        for (Entry entry : previous.accounts.values()) {
+            if (exists.test(entry.accountId)) {
+                place(rebuilt, entry.account);
+            }
+        }
+        for (Account candidate : candidates) {
+            place(rebuilt, candidate);
+        }
+    }
+
+    private void place(Tracked state, Account account) {
+        String accountId = account.getAccountId();
+        for (;;) {
+            BigDecimal balance = account.getBalance();
+            Entry previous = state.accounts.get(accountId);
+            if (previous != null && previous.balance.compareTo(balance) == 0) {
+                return;
+            }
+            if (previous == null) {
+                BigDecimal threshold = state.threshold;
+                if (threshold != null && balance.compareTo(threshold) <= 0) {
+                    return;
+                }
+            }
+            Entry entry = new Entry(account, balance);
+            if (!state.entries.add(entry)) {
+                // Another update is publishing the same balance, its outcome decides
+                Thread.yield();
+                continue;
+            }
+            if (previous == null ? state.accounts.putIfAbsent(accountId, entry) != null
+                    : !state.accounts.replace(accountId, previous, entry)) {
+                state.entries.remove(entry);
+                continue;
+            }
+            if (previous == null) {
+                state.size.incrementAndGet();
+                evictBeyondCapacity(state);
+            } else {
+                state.entries.remove(previous);
+            }
+            updateThreshold(state);
+            if (account.getBalance().compareTo(balance) == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Untracks the accounts of smallest balance while more than the capacity are tracked. An entry that is no longer
+     * current, or not yet, is skipped.
+     */
+    private void evictBeyondCapacity(Tracked state) {
+        for (;;) {
+            int size = state.size.get();
+            if (size <= capacity) {
+                return;
+            }
+            if (!state.size.compareAndSet(size, size - 1)) {
+                continue;
+            }
+            Iterator<Entry> smallest = state.entries.descendingIterator();
+            while (true) {
+                if (!smallest.hasNext()) {
+                    state.size.incrementAndGet();
+                    return;
+                }
+                Entry entry = smallest.next();
+                if (state.accounts.remove(entry.accountId, entry)) {
+                    state.entries.remove(entry);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Entries are added before the size grows and removed after it shrinks, so a full set is never empty.
+     */
+    private void updateThreshold(Tracked state) {
+        if (capacity == 0 || state.size.get() < capacity) {
+            return;
+        }
+        BigDecimal threshold = state.entries.last().balance;
+        state.threshold = threshold;
+        state.floor.accumulateAndGet(threshold, (floor, candidate) ->
+                floor == null || candidate.compareTo(floor) > 0 ? candidate : floor);
+    }
+
+    private static final class Tracked {
+
+        private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+        private final ConcurrentMap<String, Entry> accounts = new ConcurrentHashMap<>();
+        /**
+         * Accounts in the map, maintained apart as the size of a concurrent map is not exact under updates.
+         */
+        private final AtomicInteger size = new AtomicInteger();
+        /**
+         * Smallest tracked balance once the set is full, null before.
+         */
+        private volatile BigDecimal threshold;
+        /**
+         * Highest threshold since the last rebuild, null while every account is tracked.
+         */
+        private final AtomicReference<BigDecimal> floor = new AtomicReference<>();
+    }
+
+    private static final class Entry {
+
+        private final String accountId;
+        private final Account account;
+        private final BigDecimal balance;
+
+        private Entry(Account account, BigDecimal balance) {
+            this.accountId = account.getAccountId();
+            this.account = account;
+            this.balance = balance;
+        }
+    }
+}
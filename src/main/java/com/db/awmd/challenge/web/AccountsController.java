@@ -1,46 +1,190 @@
 package com.db.awmd.challenge.web;
 
+import com.db.awmd.challenge.cluster.ClusterRouting;
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.domain.BulkImportResult;
+import com.db.awmd.challenge.domain.TransactionPage;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.ledger.TransactionLedger;
+import com.db.awmd.challenge.replication.Replica;
+import com.db.awmd.challenge.service.AccountExporter;
+import com.db.awmd.challenge.service.AccountImporter;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.stats.AccountStatistics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
 
+  public static final int MAX_PAGE_SIZE = 1000;
+
+  public static final String NDJSON_VALUE = "application/x-ndjson";
+
   private final AccountsService accountsService;
 
+  private final TransactionLedger transactionLedger;
+
+  private final AccountImporter accountImporter;
+
+  private final AccountExporter accountExporter;
+
+  private final AccountStatistics accountStatistics;
+
+  private final ObjectMapper objectMapper;
+
+  private final ClusterRouting clusterRouting;
+
+  private final Optional<Replica> replica;
+
   @Autowired
-  public AccountsController(AccountsService accountsService) {
+  public AccountsController(AccountsService accountsService, TransactionLedger transactionLedger,
+                            AccountImporter accountImporter, AccountExporter accountExporter,
+                            AccountStatistics accountStatistics, ObjectMapper objectMapper,
+                            ClusterRouting clusterRouting, Optional<Replica> replica) {
     this.accountsService = accountsService;
+    this.transactionLedger = transactionLedger;
+    this.accountImporter = accountImporter;
+    this.accountExporter = accountExporter;
+    this.accountStatistics = accountStatistics;
+    this.objectMapper = objectMapper;
+    this.clusterRouting = clusterRouting;
+    this.replica = replica;
   }
 
   @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Object> createAccount(@RequestBody @Valid Account account) {
     log.info("Creating account {}", account);
+    if (this.clusterRouting.isRemote(account.getAccountId())) {
+      return this.clusterRouting.forward(account.getAccountId(), render(account));
+    }
 
     try {
     this.accountsService.createAccount(account);
     } catch (DuplicateAccountIdException daie) {
       return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+    } catch (InvalidArgumentException iae) {
+      return new ResponseEntity<>(iae.getMessage(), HttpStatus.BAD_REQUEST);
     }
 
     return new ResponseEntity<>(HttpStatus.CREATED);
   }
 
+  /**
+   * Creates the accounts of a JSON array or of newline delimited JSON objects, streamed rather than bound as a whole.
+   * Duplicate and invalid accounts, and in partitioned mode accounts owned by other nodes, are skipped and reported
+   * in the summary; a malformed body answers 400 with the summary of what was imported before it.
+   */
+  @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE})
+  public ResponseEntity<BulkImportResult> createAccounts(InputStream body) throws IOException {
+    BulkImportResult result = this.accountImporter.importAccounts(body);
+    return new ResponseEntity<>(result, result.isComplete() ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+  }
+
+  /**
+   * Streams every account as newline delimited JSON, written while the repository is traversed. The export is
+   * weakly consistent and does not hold up transfers, see {@link AccountsService#streamAccounts()}.
+   */
+  @GetMapping(path = "/export", produces = NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportAccounts() {
+    StreamingResponseBody body = this.accountExporter::exportAccounts;
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+  }
+
+  /**
+   * Total balance, number of accounts and the {@code top} largest balances, read from aggregates maintained as
+   * balances move.
+   */
+  @GetMapping(path = "/stats")
+  public ResponseEntity<Object> getStats(@RequestParam(defaultValue = "10") int top) {
+    int maxTop = this.accountStatistics.getTopSize();
+    if (top < 0 || top > maxTop) {
+      return new ResponseEntity<>("Top must be between 0 and " + maxTop, HttpStatus.BAD_REQUEST);
+    }
+    return new ResponseEntity<>(this.accountStatistics.getStats(top), HttpStatus.OK);
+  }
+
+  /**
+   * Answers from a snapshot of the account, read without locking. The ETag pairs the version with the balance, so
+   * it never matches a different balance even across restarts; an unchanged account answers 304 and its rendered
+   * JSON is cached on the snapshot until the next change.
+   * <p>
+   * On a replica, {@code minVersion} (the version in an ETag of the primary) and {@code minOffset} (an offset of
+   * {@code GET /v1/replication} on the primary) make the read wait until the replica applied them, so a client reads
+   * its own writes; 503 if the replica does not catch up in time. Both are ignored elsewhere.
+   */
   @GetMapping(path = "/{accountId}")
-  public Account getAccount(@PathVariable String accountId) {
+  public ResponseEntity<?> getAccount(@PathVariable String accountId, WebRequest request,
+                                      @RequestParam(required = false) Long minVersion,
+                                      @RequestParam(required = false) Long minOffset) throws InterruptedException {
     log.info("Retrieving account for id {}", accountId);
-    return this.accountsService.getAccount(accountId);
+    if (this.clusterRouting.isRemote(accountId)) {
+      return this.clusterRouting.forward(accountId, null);
+    }
+    if ((minVersion != null || minOffset != null) && this.replica.isPresent()
+        && !this.replica.get().awaitApplied(accountId, minVersion, minOffset)) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1")
+          .body("Replica behind the requested version or offset");
+    }
+    Account account = this.accountsService.getAccount(accountId);
+    if (account == null) {
+      return null;
+    }
+    BalanceSnapshot snapshot = account.getSnapshot();
+    String etag = "\"" + snapshot.getVersion() + "-" + snapshot.getBalance().toPlainString() + "\"";
+    if (request.checkNotModified(etag)) {
+      return null;
+    }
+    byte[] body = snapshot.getRepresentation(() -> render(new Account(accountId, snapshot.getBalance())));
+    return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+  }
+
+  /**
+   * Pages through the movements of the account, newest first. {@code from} and {@code to} are inclusive bounds in
+   * milliseconds since the epoch, {@code cursor} is the {@code nextCursor} of the previous page.
+   */
+  @GetMapping(path = "/{accountId}/transactions")
+  public ResponseEntity<Object> getTransactions(@PathVariable String accountId,
+                                                @RequestParam(required = false) Long cursor,
+                                                @RequestParam(required = false) Long from,
+                                                @RequestParam(required = false) Long to,
+                                                @RequestParam(defaultValue = "50") int limit) {
+    if (this.clusterRouting.isRemote(accountId)) {
+      return this.clusterRouting.forward(accountId, null);
+    }
+    if (this.accountsService.getAccount(accountId) == null) {
+      return new ResponseEntity<>("Invalid account Id " + accountId, HttpStatus.NOT_FOUND);
+    }
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      return new ResponseEntity<>("Limit must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+    }
+    TransactionPage page = this.transactionLedger.history(accountId, cursor, from, to, limit);
+    return new ResponseEntity<>(page, HttpStatus.OK);
+  }
+
+  private byte[] render(Account account) {
+    try {
+      return this.objectMapper.writeValueAsBytes(account);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Cannot render account " + account.getAccountId(), e);
+    }
   }
 }
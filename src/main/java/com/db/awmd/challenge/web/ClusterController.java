@@ -0,0 +1,63 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.cluster.CrossShardTransfers;
+import com.db.awmd.challenge.domain.CrossShardLeg;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.RateLimitedException;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Participant side of {@link CrossShardTransfers}, called by the node coordinating the transfer with the cluster
+ * secret. A 4xx answer is a final refusal, a 429 or 5xx answer a commit to retry.
+ */
+@RestController
+@RequestMapping("/internal/v1/cross-shard")
+@Slf4j
+public class ClusterController {
+
+    private final CrossShardTransfers crossShardTransfers;
+
+    public ClusterController(CrossShardTransfers crossShardTransfers) {
+        this.crossShardTransfers = crossShardTransfers;
+    }
+
+    @PostMapping(path = "/{transferId}/prepare", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> prepare(@PathVariable String transferId, @RequestBody CrossShardLeg credit) {
+        try {
+            crossShardTransfers.prepare(transferId, credit);
+        } catch (InvalidArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/{transferId}/commit", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> commit(@PathVariable String transferId, @RequestBody CrossShardLeg credit) {
+        log.info("Committing cross-shard credit {} of transfer {}", credit, transferId);
+        try {
+            crossShardTransfers.commit(transferId, credit);
+        } catch (InvalidArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (RateLimitedException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (TransactionFailureException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    @PostMapping(path = "/{transferId}/abort")
+    public ResponseEntity<Object> abort(@PathVariable String transferId) {
+        crossShardTransfers.abort(transferId);
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.metrics.Metrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+@RestController
+@RequestMapping("/v1/metrics")
+public class MetricsController {
+
+    public static final String PROMETHEUS_TEXT_VALUE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Metrics metrics;
+
+    public MetricsController(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @GetMapping
+    public ResponseEntity<String> metrics() throws IOException {
+        StringWriter writer = new StringWriter();
+        metrics.writeTo(writer);
+        return ResponseEntity.ok().header(HttpHeaders.CONTENT_TYPE, PROMETHEUS_TEXT_VALUE).body(writer.toString());
+    }
+}
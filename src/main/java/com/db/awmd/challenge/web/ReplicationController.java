@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.ReplicationStatus;
+import com.db.awmd.challenge.replication.ChangeStream;
+import com.db.awmd.challenge.replication.Replica;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/v1/replication")
+public class ReplicationController {
+
+    private final Optional<ChangeStream> changeStream;
+    private final Optional<Replica> replica;
+
+    public ReplicationController(Optional<ChangeStream> changeStream, Optional<Replica> replica) {
+        this.changeStream = changeStream;
+        this.replica = replica;
+    }
+
+    /**
+     * The offset a primary answers right after a write covers that write, see
+     * {@link AccountsController#getAccount}.
+     */
+    @GetMapping
+    public ResponseEntity<Object> getStatus() {
+        Optional<ReplicationStatus> status = changeStream.map(ChangeStream::getStatus);
+        if (!status.isPresent()) {
+            status = replica.map(Replica::getStatus);
+        }
+        return status.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .orElseGet(() -> new ResponseEntity<>("Replication is not enabled", HttpStatus.NOT_FOUND));
+    }
+}
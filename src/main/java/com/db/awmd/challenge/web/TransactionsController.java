@@ -1,37 +1,306 @@
 package com.db.awmd.challenge.web;
 
+import com.db.awmd.challenge.cluster.ClusterRouting;
+import com.db.awmd.challenge.cluster.CrossShardTransfers;
+import com.db.awmd.challenge.domain.MultiLegTransaction;
 import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransactionResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
 import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.OutcomeUnknownException;
+import com.db.awmd.challenge.exception.RateLimitedException;
 import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.service.AsyncTransferService;
+import com.db.awmd.challenge.service.IdempotencyCache;
 import com.db.awmd.challenge.service.TransactionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.validation.Valid;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 @RestController
 @RequestMapping("/v1/transactions")
 @Slf4j
 public class TransactionsController {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     private final TransactionService transactionService;
+    private final AsyncTransferService asyncTransferService;
+    private final IdempotencyCache idempotencyCache;
+    private final ObjectMapper objectMapper;
+    private final ClusterRouting clusterRouting;
+    private final CrossShardTransfers crossShardTransfers;
 
-    public TransactionsController(TransactionService transactionService) {
+    public TransactionsController(TransactionService transactionService, AsyncTransferService asyncTransferService,
+                                  IdempotencyCache idempotencyCache, ObjectMapper objectMapper,
+                                  ClusterRouting clusterRouting, CrossShardTransfers crossShardTransfers) {
         this.transactionService = transactionService;
+        this.asyncTransferService = asyncTransferService;
+        this.idempotencyCache = idempotencyCache;
+        this.objectMapper = objectMapper;
+        this.clusterRouting = clusterRouting;
+        this.crossShardTransfers = crossShardTransfers;
     }
 
+    /**
+     * With an {@code Idempotency-Key} header, a retry of the request gets the outcome of the first one and is not
+     * applied again. Only definite outcomes are remembered, a transfer that failed and may be retried is not. A
+     * transfer applied but not known to be durable answers 500 and must not be retried without the key, see
+     * {@link OutcomeUnknownException}; with the key its retries get that same answer. A retry may write the amount
+     * with another scale, 500.00 and 500 are the same request.
+     * <p>
+     * In partitioned mode the transfer is forwarded to the owner of the debited account, which coordinates it with
+     * the owner of the credited account if that is another node, see {@link CrossShardTransfers}. If the owner does
+     * not answer in time the response is 504 and the transfer may have been applied, so it too must only be retried
+     * with the key.
+     */
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> transferMoney(@RequestBody @Valid Transaction transaction) {
+    public ResponseEntity<Object> transferMoney(@RequestBody @Valid Transaction transaction,
+                                                @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String key)
+            throws IOException {
         log.info("About to perform transaction {} ", transaction);
+        if (clusterRouting.isRemote(transaction.getAccountFromId())) {
+            return clusterRouting.forward(transaction.getAccountFromId(), objectMapper.writeValueAsBytes(transaction));
+        }
         try {
-            transactionService.transferMoney(transaction);
-        } catch (InvalidArgumentException  | TransactionFailureException ex) {
+            return key == null ? applyTransfer(transaction)
+                    : idempotencyCache.execute(key, transaction.normalized(), () -> applyTransfer(transaction));
+        } catch (RateLimitedException ex) {
+            return tooManyRequests(ex);
+        } catch (TransactionFailureException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IdempotencyKeyReusedException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+    }
+
+    private ResponseEntity<Object> applyTransfer(Transaction transaction) {
+        try {
+            if (clusterRouting.isRemote(transaction.getAccountToId())) {
+                crossShardTransfers.transfer(transaction);
+            } else {
+                transactionService.transferMoney(transaction);
+            }
+        } catch (InvalidArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (OutcomeUnknownException ex) {
+            return outcomeUnknown(ex);
+        }
+        return new ResponseEntity<>(HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * Hands the transfer to the transfer executor and frees the request thread. The response is the same as for
+     * {@link #transferMoney(Transaction)} if the transfer ends within the timeout, otherwise a 202 with the pending
+     * status and its location. With a timeout of 0 the response is sent right away.
+     * <p>
+     * In partitioned mode both accounts must belong to this node, which keeps the status; others answer 400.
+     */
+    @PostMapping(path = "/async", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<Object>> transferMoneyAsync(
+            @RequestBody @Valid Transaction transaction, @RequestParam(required = false) Long timeoutMillis) {
+        log.info("About to submit transaction {} ", transaction);
+        DeferredResult<ResponseEntity<Object>> result;
+        String remote = clusterRouting.isRemote(transaction.getAccountFromId()) ? transaction.getAccountFromId()
+                : clusterRouting.isRemote(transaction.getAccountToId()) ? transaction.getAccountToId() : null;
+        if (remote != null) {
+            result = new DeferredResult<>();
+            result.setResult(new ResponseEntity<>("Account " + remote + " is owned by node "
+                    + clusterRouting.ownerOf(remote) + ", send asynchronous transfers to the node owning both accounts",
+                    HttpStatus.BAD_REQUEST));
+            return result;
+        }
+        try {
+            long timeout = asyncTransferService.timeoutMillis(timeoutMillis);
+            AsyncTransferService.Submission submission = asyncTransferService.submit(transaction);
+            ResponseEntity<Object> pending = pendingResponse(submission.getTransferId());
+            if (timeout == 0) {
+                result = new DeferredResult<>();
+                result.setResult(pending);
+            } else {
+                result = new DeferredResult<>(timeout, pending);
+                DeferredResult<ResponseEntity<Object>> deferred = result;
+                submission.getCompletion().thenAccept(status -> deferred.setResult(statusResponse(status)));
+            }
+        } catch (InvalidArgumentException | TransactionFailureException ex) {
+            result = new DeferredResult<>();
+            result.setResult(new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST));
+        }
+        return result;
+    }
+
+    @GetMapping(path = "/{transferId}")
+    public ResponseEntity<Object> getTransferStatus(@PathVariable String transferId) {
+        TransferStatus status = asyncTransferService.getStatus(transferId);
+        if (status == null) {
+            return new ResponseEntity<>("Unknown transfer id " + transferId, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(status, HttpStatus.OK);
+    }
+
+    /**
+     * 429 telling the client when the movement would be admitted, see {@link RateLimitedException}.
+     */
+    private static ResponseEntity<Object> tooManyRequests(RateLimitedException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
+
+    /**
+     * 500 for a movement applied but not known to be durable, returned rather than thrown so that the idempotency
+     * cache remembers it.
+     */
+    private static ResponseEntity<Object> outcomeUnknown(OutcomeUnknownException ex) {
+        log.error("Outcome of the movement is unknown", ex);
+        return new ResponseEntity<>(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+
+    private static ResponseEntity<Object> pendingResponse(String transferId) {
+        return ResponseEntity.accepted().location(URI.create("/v1/transactions/" + transferId))
+                .body(new TransferStatus(transferId, TransferStatus.State.PENDING, null));
+    }
+
+    private static ResponseEntity<Object> statusResponse(TransferStatus status) {
+        if (status.getState() == TransferStatus.State.COMPLETED) {
+            return new ResponseEntity<>(status, HttpStatus.ACCEPTED);
+        }
+        if (status.getState() == TransferStatus.State.UNKNOWN) {
+            return new ResponseEntity<>(status.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        return new ResponseEntity<>(status.getMessage(), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Applies every leg of the transaction or none of them, answering like {@link #transferMoney(Transaction, String)}.
+     * In partitioned mode it is forwarded to the node owning all its accounts, and refused if they belong to several.
+     */
+    @PostMapping(path = "/multi-leg", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> transferMultiLeg(@RequestBody @Valid MultiLegTransaction transaction,
+                                                   @RequestHeader(value = IDEMPOTENCY_KEY, required = false)
+                                                           String key) throws IOException {
+        log.info("About to perform multi-leg transaction of {} legs", transaction.getLegs().size());
+        ResponseEntity<Object> routed = routeToOwner(transaction.getLegs(),
+                () -> objectMapper.writeValueAsBytes(transaction));
+        if (routed != null) {
+            return routed;
+        }
+        try {
+            return key == null ? applyMultiLeg(transaction)
+                    : idempotencyCache.execute(key, transaction.normalized(), () -> applyMultiLeg(transaction));
+        } catch (RateLimitedException ex) {
+            return tooManyRequests(ex);
+        } catch (TransactionFailureException ex) {
             return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IdempotencyKeyReusedException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+        }
+    }
+
+    private ResponseEntity<Object> applyMultiLeg(MultiLegTransaction transaction) {
+        try {
+            transactionService.transferMultiLeg(transaction);
+        } catch (InvalidArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (OutcomeUnknownException ex) {
+            return outcomeUnknown(ex);
         }
         return new ResponseEntity<>(HttpStatus.ACCEPTED);
     }
+
+    /**
+     * In partitioned mode the batch is forwarded to the node owning all its accounts, and refused if they belong to
+     * several.
+     */
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> transferBatch(@RequestBody List<Transaction> transactions,
+                                                @RequestParam(defaultValue = "false") boolean atomic)
+            throws IOException {
+        log.info("About to perform batch of {} transactions, atomic {}", transactions.size(), atomic);
+        ResponseEntity<Object> routed = routeToOwner(transactions, () -> objectMapper.writeValueAsBytes(transactions));
+        return routed != null ? routed : batchResponse(transactions, atomic);
+    }
+
+    /**
+     * Same as {@link #transferBatch(List, boolean)} for a body of newline delimited JSON transactions.
+     */
+    @PostMapping(path = "/batch", consumes = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Object> transferBatchStream(InputStream body,
+                                                      @RequestParam(defaultValue = "false") boolean atomic)
+            throws IOException {
+        List<Transaction> transactions;
+        try {
+            transactions = objectMapper.readerFor(Transaction.class).<Transaction>readValues(body).readAll();
+        } catch (IOException ex) {
+            return new ResponseEntity<>("Malformed transaction stream: " + ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        log.info("About to perform streamed batch of {} transactions, atomic {}", transactions.size(), atomic);
+        ResponseEntity<Object> routed = routeToOwner(transactions, () -> {
+            ByteArrayOutputStream lines = new ByteArrayOutputStream();
+            for (Transaction transaction : transactions) {
+                lines.write(objectMapper.writeValueAsBytes(transaction));
+                lines.write('\n');
+            }
+            return lines.toByteArray();
+        });
+        return routed != null ? routed : batchResponse(transactions, atomic);
+    }
+
+    /**
+     * Forwards a request moving money between several accounts to the node owning them all, see
+     * {@link ClusterRouting#remoteAccountOf(java.util.Collection)}.
+     * @param body writes the request body again, the original one has been read
+     * @return the answer to send, or null if the accounts belong to this node
+     */
+    private ResponseEntity<Object> routeToOwner(List<Transaction> transactions, Body body) throws IOException {
+        List<String> accountIds = new ArrayList<>(2 * transactions.size());
+        for (Transaction transaction : transactions) {
+            if (transaction != null) {
+                accountIds.add(transaction.getAccountFromId());
+                accountIds.add(transaction.getAccountToId());
+            }
+        }
+        String remote;
+        try {
+            remote = clusterRouting.remoteAccountOf(accountIds);
+        } catch (InvalidArgumentException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return remote == null ? null : clusterRouting.forward(remote, body.write());
+    }
+
+    private interface Body {
+        byte[] write() throws IOException;
+    }
+
+    private ResponseEntity<Object> batchResponse(List<Transaction> transactions, boolean atomic) {
+        List<TransactionResult> results;
+        try {
+            results = transactionService.transferBatch(transactions, atomic);
+        } catch (RateLimitedException ex) {
+            return tooManyRequests(ex);
+        } catch (InvalidArgumentException  | TransactionFailureException ex) {
+            return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (OutcomeUnknownException ex) {
+            return outcomeUnknown(ex);
+        }
+        boolean rejected = atomic && results.stream().anyMatch(r -> r.getStatus() == TransactionResult.Status.REJECTED);
+        return new ResponseEntity<>(results, rejected ? HttpStatus.BAD_REQUEST : HttpStatus.ACCEPTED);
+    }
 }
@@ -0,0 +1,284 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.journal.DurabilityMode;
+import com.db.awmd.challenge.journal.JournalVisitor;
+import com.db.awmd.challenge.journal.MappedAccountJournal;
+import com.db.awmd.challenge.journal.NoOpAccountJournal;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.CasTransferEngine;
+import com.db.awmd.challenge.service.HotAccounts;
+import com.db.awmd.challenge.service.LockingTransferEngine;
+import com.db.awmd.challenge.service.ShardedTransferEngine;
+import com.db.awmd.challenge.service.TransferBatch;
+import com.db.awmd.challenge.service.TransferEngine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recover_replaysRecordsInOrder() throws Exception {
+        MappedAccountJournal journal = open(DurabilityMode.SYNC);
+        journal.recover(0, new RecordingVisitor());
+        journal.appendCreate("Id-123", new BigDecimal("100.50"));
+        journal.appendCreate("Id-124", BigDecimal.ZERO);
+        journal.appendTransfer("Id-123", "Id-124", new BigDecimal("10"));
+        journal.appendDeposit("Id-124", new BigDecimal("5"));
+        journal.awaitDurable(journal.appendTransfers(Arrays.asList(
+                new Transaction("Id-124", "Id-123", new BigDecimal("1")),
+                new Transaction("Id-123", "Id-124", new BigDecimal("2")))));
+        journal.awaitDurable(journal.appendWithdraw("Id-123", new BigDecimal("0.5")));
+        journal.destroy();
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        MappedAccountJournal reopened = open(DurabilityMode.SYNC);
+        reopened.recover(0, visitor);
+        reopened.destroy();
+
+        assertThat(visitor.records).containsExactly("create Id-123 100.50", "create Id-124 0",
+                "transfer Id-123 Id-124 10", "deposit Id-124 5", "transfer Id-124 Id-123 1",
+                "transfer Id-123 Id-124 2", "withdraw Id-123 0.5");
+    }
+
+    @Test
+    public void recover_discardsTornRecordAndAppendsAfterLastIntactOne() throws Exception {
+        MappedAccountJournal journal = open(DurabilityMode.GROUP);
+        journal.recover(0, new RecordingVisitor());
+        journal.appendCreate("Id-123", new BigDecimal("100"));
+        long end = journal.appendDeposit("Id-123", new BigDecimal("7"));
+        journal.awaitDurable(end);
+        journal.destroy();
+
+        // Corrupt the last byte of the deposit record, as if the write had been torn by a crash
+        File segment = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(end - 1);
+            int last = file.read();
+            file.seek(end - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        MappedAccountJournal reopened = open(DurabilityMode.GROUP);
+        reopened.recover(0, visitor);
+        assertThat(visitor.records).containsExactly("create Id-123 100");
+        reopened.awaitDurable(reopened.appendWithdraw("Id-123", new BigDecimal("3")));
+        reopened.destroy();
+
+        visitor = new RecordingVisitor();
+        MappedAccountJournal again = open(DurabilityMode.NONE);
+        again.recover(0, visitor);
+        again.destroy();
+        assertThat(visitor.records).containsExactly("create Id-123 100", "withdraw Id-123 3");
+    }
+
+    @Test
+    public void append_rollsToNextSegment() throws Exception {
+        MappedAccountJournal journal = open(DurabilityMode.NONE);
+        journal.recover(0, new RecordingVisitor());
+        journal.appendCreate("Id-123", BigDecimal.ZERO);
+        // 1MB segments hold about 43000 of these records
+        for (int i = 0; i < 50_000; i++) {
+            journal.appendDeposit("Id-123", BigDecimal.ONE);
+        }
+        journal.destroy();
+
+        assertThat(folder.getRoot().listFiles()).hasSize(2);
+        RecordingVisitor visitor = new RecordingVisitor();
+        MappedAccountJournal reopened = open(DurabilityMode.NONE);
+        reopened.recover(0, visitor);
+        reopened.destroy();
+        assertThat(visitor.records).hasSize(50_001);
+    }
+
+    @Test
+    public void awaitDurable_outlastsWarningsAndInterrupts() throws Exception {
+        // Group commits every 300ms, warnings every 1ms: the wait must neither give up nor fail
+        MappedAccountJournal journal = new MappedAccountJournal(folder.getRoot().getPath(), 1, DurabilityMode.GROUP,
+                1000, 300_000, 1);
+        journal.recover(0, new RecordingVisitor());
+        long position = journal.appendDeposit("Id-123", BigDecimal.ONE);
+
+        Thread.currentThread().interrupt();
+        try {
+            journal.awaitDurable(position);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+            journal.destroy();
+        }
+    }
+
+    @Test
+    public void engines_journalEveryDebitAfterTheCreditFundingIt() throws Exception {
+        Metrics metrics = new Metrics();
+        AccountLocks accountLocks = new AccountLocks(16, 1000, metrics);
+        RecordingJournal journal = new RecordingJournal();
+        assertReplayNeverOverdraws(new LockingTransferEngine(accountLocks,
+                new HotAccounts(new String[0], false, 16, 2, 1000, 1000, metrics), journal), journal);
+        journal = new RecordingJournal();
+        assertReplayNeverOverdraws(new LockingTransferEngine(accountLocks,
+                new HotAccounts(new String[]{"B"}, false, 16, 2, 1000, 1000, metrics), journal), journal);
+        journal = new RecordingJournal();
+        assertReplayNeverOverdraws(new CasTransferEngine(journal, 2), journal);
+        journal = new RecordingJournal();
+        ShardedTransferEngine sharded = new ShardedTransferEngine(journal, 3, 64, 8, 2, 5000);
+        try {
+            assertReplayNeverOverdraws(sharded, journal);
+        } finally {
+            sharded.destroy();
+        }
+    }
+
+    /**
+     * A single unit circulates A to B to C, by transfer and by batch, and from C back to A by withdrawal and deposit,
+     * so every debit spends the credit just before it. Replaying the journal in order must never overdraw an account,
+     * whatever prefix of it a crash would leave.
+     */
+    private static void assertReplayNeverOverdraws(TransferEngine engine, RecordingJournal journal)
+            throws Exception {
+        Account a = engine.adopt(new Account("A", BigDecimal.ONE));
+        Account b = engine.adopt(new Account("B", BigDecimal.ZERO));
+        Account c = engine.adopt(new Account("C", BigDecimal.ZERO));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> repeat(() -> engine.transfer(a, b, BigDecimal.ONE))));
+            futures.add(executor.submit(() -> repeat(() -> {
+                TransferBatch batch = new TransferBatch(1);
+                batch.add(0, b, c, BigDecimal.ONE);
+                engine.transferBatch(batch, true);
+                if (batch.isOverdrawn()) {
+                    throw new InsufficientBalanceException();
+                }
+            })));
+            futures.add(executor.submit(() -> repeat(() -> {
+                engine.withdraw(c, BigDecimal.ONE);
+                engine.deposit(a, BigDecimal.ONE);
+            })));
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, BigDecimal> balances = new HashMap<>();
+        balances.put("A", BigDecimal.ONE);
+        balances.put("B", BigDecimal.ZERO);
+        balances.put("C", BigDecimal.ZERO);
+        assertThat(journal.movements).hasSize(3 * 300 * 2);
+        for (int i = 0; i < journal.movements.size(); i++) {
+            String[] movement = journal.movements.get(i);
+            BigDecimal balance = balances.merge(movement[0], new BigDecimal(movement[1]), BigDecimal::add);
+            assertThat(balance.signum()).as("balance of %s after movement %d", movement[0], i)
+                    .isGreaterThanOrEqualTo(0);
+        }
+        assertThat(balances.get("A").add(balances.get("B")).add(balances.get("C")))
+                .isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    private static void repeat(Runnable movement) {
+        int applied = 0;
+        while (applied < 300) {
+            try {
+                movement.run();
+                applied++;
+            } catch (InsufficientBalanceException e) {
+                // The unit has not come round yet
+                Thread.yield();
+            }
+        }
+    }
+
+    private MappedAccountJournal open(DurabilityMode mode) {
+        return new MappedAccountJournal(folder.getRoot().getPath(), 1, mode, 4, 500, 5000);
+    }
+
+    /**
+     * Journal recording each movement as account deltas, debits before credits, in append order.
+     */
+    private static class RecordingJournal extends NoOpAccountJournal {
+
+        private final List<String[]> movements = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public long appendTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+            synchronized (movements) {
+                movements.add(new String[]{accountFromId, amount.negate().toPlainString()});
+                movements.add(new String[]{accountToId, amount.toPlainString()});
+            }
+            return 0;
+        }
+
+        @Override
+        public long appendTransfers(List<Transaction> transactions) {
+            synchronized (movements) {
+                transactions.forEach(transaction -> appendTransfer(transaction.getAccountFromId(),
+                        transaction.getAccountToId(), transaction.getAmount()));
+            }
+            return 0;
+        }
+
+        @Override
+        public long appendDeposit(String accountId, BigDecimal amount) {
+            movements.add(new String[]{accountId, amount.toPlainString()});
+            return 0;
+        }
+
+        @Override
+        public long appendWithdraw(String accountId, BigDecimal amount) {
+            movements.add(new String[]{accountId, amount.negate().toPlainString()});
+            return 0;
+        }
+    }
+
+    private static class RecordingVisitor implements JournalVisitor {
+
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void accountCreated(String accountId, BigDecimal balance) {
+            records.add("create " + accountId + " " + balance);
+        }
+
+        @Override
+        public void transferred(String accountFromId, String accountToId, BigDecimal amount) {
+            records.add("transfer " + accountFromId + " " + accountToId + " " + amount);
+        }
+
+        @Override
+        public void deposited(String accountId, BigDecimal amount) {
+            records.add("deposit " + accountId + " " + amount);
+        }
+
+        @Override
+        public void withdrawn(String accountId, BigDecimal amount) {
+            records.add("withdraw " + accountId + " " + amount);
+        }
+    }
+}
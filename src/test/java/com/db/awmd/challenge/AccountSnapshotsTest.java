@@ -0,0 +1,118 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.journal.AccountSnapshots;
+import com.db.awmd.challenge.journal.DurabilityMode;
+import com.db.awmd.challenge.journal.JournalRecovery;
+import com.db.awmd.challenge.journal.JournalVisitor;
+import com.db.awmd.challenge.journal.MappedAccountJournal;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.HotAccounts;
+import com.db.awmd.challenge.service.LockingTransferEngine;
+import com.db.awmd.challenge.stats.AccountStatistics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class AccountSnapshotsTest {
+
+    private static final int ACCOUNTS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recover_loadsNewestSnapshotAndReplaysJournalTail() throws Exception {
+        writeHistory();
+
+        assertThat(folder.getRoot().list()).doesNotContain("journal-0000000000000000.log");
+        assertBalances(recover());
+    }
+
+    @Test
+    public void recover_fallsBackToOlderSnapshotWhenNewestIsCorrupt() throws Exception {
+        writeHistory();
+
+        File[] snapshots = folder.getRoot().listFiles((dir, name) -> name.endsWith(".snap"));
+        Arrays.sort(snapshots);
+        assertThat(snapshots).hasSize(2);
+        try (RandomAccessFile file = new RandomAccessFile(snapshots[1], "rw")) {
+            file.seek(100);
+            int value = file.read();
+            file.seek(100);
+            file.write(value ^ 0xFF);
+        }
+        assertBalances(recover());
+    }
+
+    /**
+     * Every account is created with 100, receives 250 in deposits spread over several segments, and Id-0000 sends 50
+     * to Id-0001 between the two snapshots.
+     */
+    private void writeHistory() throws Exception {
+        MappedAccountJournal journal = journal();
+        AccountSnapshots snapshots = new AccountSnapshots(journal, folder.getRoot().getPath(), 0, 100);
+        journal.recover(0, mock(JournalVisitor.class));
+        for (int i = 0; i < ACCOUNTS; i++) {
+            journal.appendCreate(accountId(i), new BigDecimal(100));
+        }
+        for (int i = 0; i < 100 * ACCOUNTS; i++) {
+            journal.appendDeposit(accountId(i % ACCOUNTS), BigDecimal.ONE);
+        }
+        assertThat(snapshots.snapshot()).isGreaterThan(0);
+        for (int i = 0; i < 50; i++) {
+            journal.appendTransfer(accountId(0), accountId(1), BigDecimal.ONE);
+        }
+        for (int i = 0; i < 150 * ACCOUNTS; i++) {
+            journal.appendDeposit(accountId(i % ACCOUNTS), BigDecimal.ONE);
+        }
+        assertThat(snapshots.snapshot()).isGreaterThan(0);
+        assertThat(snapshots.snapshot()).isEqualTo(-1);
+        snapshots.destroy();
+        journal.destroy();
+    }
+
+    private AccountsService recover() throws Exception {
+        MappedAccountJournal journal = journal();
+        AccountSnapshots snapshots = new AccountSnapshots(journal, folder.getRoot().getPath(), 0, 100);
+        Metrics metrics = new Metrics();
+        AccountLocks accountLocks = new AccountLocks(16, 1000, metrics);
+        HotAccounts hotAccounts = new HotAccounts(new String[0], false, 16, 2, 1000, 1000, metrics);
+        AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory();
+        AccountsService accountsService = new AccountsService(repository,
+                new LockingTransferEngine(accountLocks, hotAccounts, journal), accountLocks, journal,
+                Collections.singletonList(new AccountStatistics(repository, 10, 0, metrics)), metrics);
+        new JournalRecovery(journal, accountsService, Optional.of(snapshots)).recover();
+        snapshots.destroy();
+        journal.destroy();
+        return accountsService;
+    }
+
+    private void assertBalances(AccountsService accountsService) {
+        assertThat(accountsService.getAccount(accountId(0)).getBalance()).isEqualByComparingTo("300");
+        assertThat(accountsService.getAccount(accountId(1)).getBalance()).isEqualByComparingTo("400");
+        for (int i = 2; i < ACCOUNTS; i++) {
+            assertThat(accountsService.getAccount(accountId(i)).getBalance()).isEqualByComparingTo("350");
+        }
+    }
+
+    private MappedAccountJournal journal() {
+        return new MappedAccountJournal(folder.getRoot().getPath(), 1, DurabilityMode.NONE, 256, 1000, 5000);
+    }
+
+    private static String accountId(int i) {
+        return String.format("Id-%04d", i);
+    }
+}
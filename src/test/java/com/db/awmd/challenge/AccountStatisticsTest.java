@@ -0,0 +1,185 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountStats;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.stats.AccountStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "stats.verify-interval-seconds=0")
+@WebAppConfiguration
+public class AccountStatisticsTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TransactionService transactionService;
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private AccountStatistics accountStatistics;
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareTest() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        // Clearing the repository bypasses the aggregates, two scans finding the same drift correct it
+        accountStatistics.verify();
+        accountStatistics.verify();
+    }
+
+    @Test
+    public void getStats_followsMovements() throws Exception {
+        accountsService.createAccount(new Account("Id-1", new BigDecimal("100.25")));
+        accountsService.createAccount(new Account("Id-2", new BigDecimal(50)));
+        accountsService.createAccount(new Account("Id-3", new BigDecimal(10)));
+        transactionService.deposit("Id-3", new BigDecimal(200));
+        transactionService.withdraw("Id-1", new BigDecimal(30));
+        transactionService.transferMoney(new Transaction("Id-2", "Id-1", new BigDecimal(50)));
+
+        this.mockMvc.perform(get("/v1/accounts/stats?top=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accounts").value(3))
+                .andExpect(jsonPath("$.totalBalance").value(330.25))
+                .andExpect(jsonPath("$.topAccounts[0].accountId").value("Id-3"))
+                .andExpect(jsonPath("$.topAccounts[1].accountId").value("Id-1"))
+                .andExpect(jsonPath("$.topAccounts[1].balance").value(120.25));
+        this.mockMvc.perform(get("/v1/accounts/stats?top=101")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getStats_topRefilledWhenLeadersDrop() throws Exception {
+        for (int i = 1; i <= 1000; i++) {
+            accountsService.createAccount(new Account("Id-" + i, new BigDecimal(i)));
+        }
+        for (int i = 1000; i > 600; i--) {
+            transactionService.withdraw("Id-" + i, new BigDecimal(i));
+        }
+
+        // Every tracked account dropped to zero, the read starts a scan refilling the top
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!accountStatistics.getStats(1).getTopAccounts().get(0).getAccountId().equals("Id-600")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(accountStatistics.getStats(3).getTopAccounts()).extracting(Account::getAccountId)
+                .containsExactly("Id-600", "Id-599", "Id-598");
+        assertThat(accountStatistics.getStats(0).getTotalBalance()).isEqualByComparingTo("180300");
+    }
+
+    @Test
+    public void getStats_exactUnderConcurrentDeposits() throws Exception {
+        accountsService.createAccount(new Account("Id-1", BigDecimal.ZERO));
+        accountsService.createAccount(new Account("Id-2", BigDecimal.ZERO));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String accountId = "Id-" + (t % 2 + 1);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        transactionService.deposit(accountId, new BigDecimal("0.01"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        AccountStats stats = accountStatistics.getStats(2);
+        assertThat(stats.getTotalBalance()).isEqualByComparingTo("40");
+        assertThat(stats.getTopAccounts()).extracting(Account::getBalance)
+                .usingElementComparator(BigDecimal::compareTo).containsExactly(new BigDecimal(20), new BigDecimal(20));
+    }
+
+    @Test
+    public void getStats_topFollowsConcurrentTransfers() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            accountsService.createAccount(new Account("Id-" + i, new BigDecimal(100)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Random random = new Random(t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        try {
+                            transactionService.transferMoney(new Transaction("Id-" + random.nextInt(1000),
+                                    "Id-" + random.nextInt(1000), new BigDecimal(1 + random.nextInt(50))));
+                        } catch (RuntimeException insufficientOrSame) {
+                            // Refused transfers leave the balances alone
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<BigDecimal> expected = accountsService.streamAccounts().map(Account::getBalance)
+                .sorted(Comparator.reverseOrder()).limit(10).collect(Collectors.toList());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!balances(accountStatistics.getStats(10)).equals(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(balances(accountStatistics.getStats(10))).isEqualTo(expected);
+    }
+
+    @Test
+    public void verify_correctsConfirmedDrift() {
+        accountsService.createAccount(new Account("Id-1", BigDecimal.TEN));
+        accountsService.getAccountsRepository().createAccount(new Account("Id-unseen", new BigDecimal(5)));
+
+        accountStatistics.verify();
+        assertThat(accountStatistics.getStats(0).getTotalBalance()).isEqualByComparingTo("10");
+        assertThat(accountStatistics.getStats(1).getTopAccounts()).extracting(Account::getAccountId)
+                .containsExactly("Id-1");
+        accountStatistics.verify();
+
+        AccountStats stats = accountStatistics.getStats(0);
+        assertThat(stats.getTotalBalance()).isEqualByComparingTo("15");
+        assertThat(stats.getAccounts()).isEqualTo(2);
+        assertThat(stats.getVerifiedAt()).isPositive();
+    }
+
+    private static List<BigDecimal> balances(AccountStats stats) {
+        return stats.getTopAccounts().stream().map(Account::getBalance).collect(Collectors.toList());
+    }
+}
@@ -1,14 +1,21 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.nullValue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AccountsController;
 import java.math.BigDecimal;
 import org.junit.Before;
 import org.junit.Test;
@@ -19,6 +26,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 @RunWith(SpringRunner.class)
@@ -91,6 +99,70 @@ public class AccountsControllerTest {
             .content("{\"accountId\":\"\",\"balance\":1000}")).andExpect(status().isBadRequest());
   }
 
+  @Test
+  public void createAccountsBulkNdjson() throws Exception {
+    this.accountsService.createAccount(new Account("Id-existing", BigDecimal.ONE));
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 2500; i++) {
+      body.append("{\"accountId\":\"Id-").append(i).append("\",\"balance\":").append(i).append(".5}\n");
+    }
+    body.append("{\"accountId\":\"Id-existing\",\"balance\":1}\n");
+    body.append("{\"accountId\":\"Id-7\",\"balance\":1}\n");
+    body.append("{\"accountId\":\"Id-negative\",\"balance\":-1}\n");
+    body.append("{\"balance\":1,\"note\":{\"ignored\":[1,2]}}\n");
+
+    this.mockMvc.perform(post("/v1/accounts/bulk").contentType(AccountsController.NDJSON_VALUE)
+            .content(body.toString()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.imported").value(2500))
+            .andExpect(jsonPath("$.duplicates").value(2))
+            .andExpect(jsonPath("$.rejected").value(2))
+            .andExpect(jsonPath("$.complete").value(true))
+            .andExpect(jsonPath("$.failures").value(hasItem("Account id Id-existing already exists!")));
+
+    assertThat(accountsService.getAccount("Id-2499").getBalance()).isEqualByComparingTo("2499.5");
+    assertThat(accountsService.getAccount("Id-existing").getBalance()).isEqualByComparingTo("1");
+    assertThat(accountsService.getAccount("Id-negative")).isNull();
+  }
+
+  @Test
+  public void createAccountsBulkArray() throws Exception {
+    this.mockMvc.perform(post("/v1/accounts/bulk").contentType(MediaType.APPLICATION_JSON)
+            .content("[{\"accountId\":\"Id-1\",\"balance\":10},{\"accountId\":\"Id-2\",\"balance\":20}]"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.imported").value(2));
+
+    assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("20");
+  }
+
+  @Test
+  public void createAccountsBulkMalformed() throws Exception {
+    this.mockMvc.perform(post("/v1/accounts/bulk").contentType(AccountsController.NDJSON_VALUE)
+            .content("{\"accountId\":\"Id-1\",\"balance\":10}\n{\"accountId\":\"Id-2\",\"bal"))
+            .andExpect(status().isBadRequest())
+            .andExpect(jsonPath("$.imported").value(1))
+            .andExpect(jsonPath("$.complete").value(false));
+
+    assertThat(accountsService.getAccount("Id-1")).isNotNull();
+    assertThat(accountsService.getAccount("Id-2")).isNull();
+  }
+
+  @Test
+  public void exportAccounts() throws Exception {
+    this.accountsService.createAccount(new Account("Id-1", new BigDecimal("10.50")));
+    this.accountsService.createAccount(new Account("Id-\"2\"", BigDecimal.ZERO));
+
+    MvcResult result = this.mockMvc.perform(get("/v1/accounts/export"))
+            .andExpect(request().asyncStarted())
+            .andExpect(content().contentType(AccountsController.NDJSON_VALUE))
+            .andReturn();
+    result.getAsyncResult();
+    String body = result.getResponse().getContentAsString();
+
+    assertThat(body.split("\n")).containsExactlyInAnyOrder("{\"accountId\":\"Id-1\",\"balance\":10.50}",
+            "{\"accountId\":\"Id-\\\"2\\\"\",\"balance\":0}");
+  }
+
   @Test
   public void getAccount() throws Exception {
     String uniqueAccountId = "Id-" + System.currentTimeMillis();
@@ -101,4 +173,56 @@ public class AccountsControllerTest {
             .andExpect(
                     content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
   }
+
+  @Test
+  public void getAccount_conditional() throws Exception {
+    this.accountsService.createAccount(new Account("Id-etag", new BigDecimal("10")));
+    String etag = this.mockMvc.perform(get("/v1/accounts/Id-etag"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", "\"0-10\""))
+            .andReturn().getResponse().getHeader("ETag");
+
+    this.mockMvc.perform(get("/v1/accounts/Id-etag").header("If-None-Match", etag))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+
+    this.accountsService.getAccount("Id-etag").setBalance(new BigDecimal("12.5"));
+    this.mockMvc.perform(get("/v1/accounts/Id-etag").header("If-None-Match", etag))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", "\"1-12.5\""))
+            .andExpect(content().string("{\"accountId\":\"Id-etag\",\"balance\":12.5}"));
+    assertThat(this.accountsService.getAccount("Id-etag").getVersion()).isEqualTo(1);
+  }
+
+  @Test
+  public void getTransactionsPaged() throws Exception {
+    String from = "Hist-" + System.nanoTime();
+    String to = from + "-to";
+    this.accountsService.createAccount(new Account(from, new BigDecimal("100")));
+    this.accountsService.createAccount(new Account(to, BigDecimal.ZERO));
+    for (int amount = 1; amount <= 3; amount++) {
+      String transaction = "{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":" + amount
+              + "}";
+      this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON).content(transaction))
+              .andExpect(status().isAccepted());
+    }
+
+    String firstPage = this.mockMvc.perform(get("/v1/accounts/" + to + "/transactions?limit=2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.transactions[*].amount").value(contains(3, 2)))
+            .andExpect(jsonPath("$.transactions[0].type").value("TRANSFER"))
+            .andExpect(jsonPath("$.transactions[0].accountFromId").value(from))
+            .andReturn().getResponse().getContentAsString();
+    String cursor = firstPage.replaceAll(".*\"nextCursor\":(\\d+).*", "$1");
+
+    this.mockMvc.perform(get("/v1/accounts/" + to + "/transactions?limit=2&cursor=" + cursor))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.transactions[*].amount").value(contains(1)))
+            .andExpect(jsonPath("$.nextCursor").value(nullValue()));
+  }
+
+  @Test
+  public void getTransactionsUnknownAccount() throws Exception {
+    this.mockMvc.perform(get("/v1/accounts/Id-unknown/transactions")).andExpect(status().isNotFound());
+  }
 }
@@ -0,0 +1,111 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.RateLimitedException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AdmissionControl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "transfer.admission.overrides=Id-limited=0.5:2")
+@WebAppConfiguration
+public class AdmissionControlTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private Metrics metrics;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        accountsService.createAccount(new Account("Id-limited", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-other", new BigDecimal(100)));
+    }
+
+    @Test
+    public void transfer_overAccountRateGets429() throws Exception {
+        transfer("Id-limited", "Id-other").andExpect(status().isAccepted());
+        transfer("Id-other", "Id-limited").andExpect(status().isAccepted());
+        transfer("Id-limited", "Id-other")
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"))
+                .andExpect(content().string("Too many requests for account Id-limited"));
+
+        assertThat(accountsService.getAccount("Id-limited").getBalance()).isEqualByComparingTo("100");
+        StringWriter scrape = new StringWriter();
+        metrics.writeTo(scrape);
+        assertThat(scrape.toString())
+                .contains("admission_rejections_total{reason=\"account_rate\",account=\"Id-limited\"} 1");
+    }
+
+    @Test
+    public void admit_inFlightLimitKeepsNoTokenOfRejected() {
+        AdmissionControl admissionControl = new AdmissionControl(1, 1000, 1, new String[0], new Metrics());
+
+        AdmissionControl.Permit permit = admissionControl.admit("Id-1");
+        assertThatThrownBy(() -> admissionControl.admit("Id-2"))
+                .isInstanceOf(RateLimitedException.class).hasMessage("Too many requests in flight");
+        permit.close();
+
+        // The rejected movement gave its token back, Id-2 still has its burst
+        admissionControl.admit("Id-2").close();
+    }
+
+    @Test
+    public void admit_burstThenRate() throws Exception {
+        AdmissionControl admissionControl = new AdmissionControl(0, 20, 3, new String[] {"Id-free=0"},
+                new Metrics());
+
+        for (int i = 0; i < 3; i++) {
+            admissionControl.admit("Id-1").close();
+        }
+        try {
+            admissionControl.admit("Id-1", "Id-2");
+            fail("Expected the fourth movement to be rate limited");
+        } catch (RateLimitedException e) {
+            assertThat(e.getRetryAfterMillis()).isBetween(1L, 51L);
+        }
+        for (int i = 0; i < 100; i++) {
+            admissionControl.admit("Id-free").close();
+        }
+
+        Thread.sleep(60);
+        admissionControl.admit("Id-1").close();
+    }
+
+    private ResultActions transfer(String from, String to) throws Exception {
+        return this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":1}"));
+    }
+}
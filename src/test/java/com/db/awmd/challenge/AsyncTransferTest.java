@@ -0,0 +1,110 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@WebAppConfiguration
+public class AsyncTransferTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(1500)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(500)));
+    }
+
+    @Test
+    public void transferMoneyAsync_completesWithinTimeout() throws Exception {
+        MvcResult result = submit("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":500}", "");
+
+        this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.state").value("COMPLETED"));
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("1000");
+    }
+
+    @Test
+    public void transferMoneyAsync_insufficientBalance() throws Exception {
+        MvcResult result = submit("{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-123\",\"amount\":501}", "");
+
+        this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest())
+                .andExpect(content().string("Withdraw failed, Insufficient balance"));
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("500");
+    }
+
+    @Test
+    public void transferMoneyAsync_fireAndForgetThenPoll() throws Exception {
+        MvcResult result = submit("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":200}",
+                "?timeoutMillis=0");
+
+        MvcResult pending = this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.state").value("PENDING"))
+                .andExpect(header().string("Location", startsWith("/v1/transactions/")))
+                .andReturn();
+        String location = pending.getResponse().getHeader("Location");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        String body;
+        do {
+            body = this.mockMvc.perform(get(location)).andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+        } while (body.contains("PENDING") && System.currentTimeMillis() < deadline);
+        assertThat(body).contains("\"state\":\"COMPLETED\"");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("700");
+    }
+
+    @Test
+    public void transferMoneyAsync_negativeTimeout() throws Exception {
+        MvcResult result = submit("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":200}",
+                "?timeoutMillis=-1");
+
+        this.mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest());
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1500");
+    }
+
+    @Test
+    public void getTransferStatus_unknownId() throws Exception {
+        this.mockMvc.perform(get("/v1/transactions/no-such-transfer")).andExpect(status().isNotFound());
+    }
+
+    private MvcResult submit(String transaction, String query) throws Exception {
+        return this.mockMvc.perform(post("/v1/transactions/async" + query).contentType(MediaType.APPLICATION_JSON)
+                .content(transaction)).andExpect(request().asyncStarted()).andReturn();
+    }
+}
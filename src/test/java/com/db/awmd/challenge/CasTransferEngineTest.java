@@ -0,0 +1,178 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BalanceSnapshot;
+import com.db.awmd.challenge.domain.MinorUnitAccount;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "transfer.engine=cas")
+@WebAppConfiguration
+public class CasTransferEngineTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TransactionService transactionService;
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareTest() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    public void createAccount_adoptedAsMinorUnits() {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+        Account account = accountsService.getAccount("Id-123");
+        assertThat(account).isInstanceOf(MinorUnitAccount.class);
+        assertThat(((MinorUnitAccount) account).getMinorUnits()).isEqualTo(12345L);
+        assertThat(account.getBalance()).isEqualByComparingTo("123.45");
+    }
+
+    @Test
+    public void getAccount_exposesDecimalBalance() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+        this.mockMvc.perform(get("/v1/accounts/Id-123"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"accountId\":\"Id-123\",\"balance\":123.45}"));
+    }
+
+    @Test
+    public void createAccount_tooManyDecimals() throws Exception {
+        this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountId\":\"Id-123\",\"balance\":1.005}")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void transferMultiLeg_appliesEveryLegOrNone() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(50)));
+        accountsService.createAccount(new Account("Id-125", BigDecimal.ZERO));
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":90},"
+                        + "{\"accountFromId\":\"Id-125\",\"accountToId\":\"Id-124\",\"amount\":5}]}"))
+                .andExpect(status().isAccepted());
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-125\",\"amount\":55},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":11}]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Withdraw failed, Insufficient balance"));
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("10");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("55");
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualByComparingTo("85");
+    }
+
+    @Test
+    public void transfer_concurrentTransfersConserveMoney() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(1000)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(1000)));
+        Transaction forth = new Transaction("Id-123", "Id-124", new BigDecimal("1.25"));
+        Transaction back = new Transaction("Id-124", "Id-123", new BigDecimal("1.25"));
+
+        runConcurrently(8, 200, i -> transactionService.transferMoney(i % 2 == 0 ? forth : back));
+
+        BigDecimal total = accountsService.getAccount("Id-123").getBalance()
+                .add(accountsService.getAccount("Id-124").getBalance());
+        assertThat(total).isEqualByComparingTo("2000");
+    }
+
+    @Test
+    public void transfer_neverOverdraws() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-124", BigDecimal.ZERO));
+        Transaction transaction = new Transaction("Id-123", "Id-124", new BigDecimal(3));
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(8, 10, i -> {
+            try {
+                transactionService.transferMoney(transaction);
+            } catch (InvalidArgumentException ex) {
+                assertThat(ex.getMessage()).isEqualTo("Withdraw failed, Insufficient balance");
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertThat(rejected.get()).isEqualTo(80 - 33);
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("99");
+    }
+
+    @Test
+    public void getSnapshot_pairsEveryBalanceWithItsVersion() throws Exception {
+        MinorUnitAccount account = new MinorUnitAccount("Id-123", BigDecimal.ZERO, 2);
+        AtomicInteger mismatches = new AtomicInteger();
+
+        // Every credit adds one cent, so version n always comes with a balance of n cents
+        runConcurrently(4, 5000, i -> {
+            if (i % 2 == 0) {
+                account.credit(1);
+            } else {
+                BalanceSnapshot snapshot = account.getSnapshot();
+                if (snapshot.getBalance().compareTo(BigDecimal.valueOf(snapshot.getVersion(), 2)) != 0) {
+                    mismatches.incrementAndGet();
+                }
+            }
+        });
+
+        assertThat(mismatches.get()).isZero();
+        assertThat(account.getSnapshot()).isSameAs(account.getSnapshot());
+        assertThat(account.getSnapshot().getVersion()).isEqualTo(10_000);
+    }
+
+    private interface Step {
+        void run(int iteration);
+    }
+
+    private void runConcurrently(int threads, int iterations, Step step) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    step.run(i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,351 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.cluster.ClusterRouting;
+import com.db.awmd.challenge.cluster.CrossShardTransfers;
+import com.db.awmd.challenge.cluster.HashRing;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import com.db.awmd.challenge.web.TransactionsController;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two nodes sharing the accounts, each in its own application context on its own port.
+ */
+public class ClusterTest {
+
+    private static final int NODES = 2;
+    private static final String SECRET = "cluster-test-secret";
+
+    private static ConfigurableApplicationContext[] contexts = new ConfigurableApplicationContext[NODES];
+    private static String[] urls = new String[NODES];
+    private static HashRing ring;
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @BeforeClass
+    public static void startNodes() throws IOException {
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                urls[i] = "http://localhost:" + socket.getLocalPort();
+            }
+        }
+        List<String> nodes = Arrays.asList(urls);
+        ring = new HashRing(nodes, 128);
+        for (int i = 0; i < NODES; i++) {
+            contexts[i] = new SpringApplicationBuilder(DevChallengeApplication.class).run(
+                    "--server.port=" + urls[i].substring(urls[i].lastIndexOf(':') + 1),
+                    "--cluster.nodes=" + String.join(",", nodes),
+                    "--cluster.self=" + i,
+                    "--cluster.secret=" + SECRET,
+                    "--spring.jmx.enabled=false");
+        }
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        for (ConfigurableApplicationContext context : contexts) {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    @Test
+    public void account_createdAndReadThroughAnyNode() {
+        String id = accountOwnedBy(1, "read");
+
+        assertThat(createAccount(0, id, "250").getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(createAccount(1, id, "250").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        assertThat(balance(0, id)).isEqualByComparingTo("250");
+        assertThat(balance(1, id)).isEqualByComparingTo("250");
+        assertThat(restTemplate.getForEntity(urls[0] + "/v1/accounts/" + id + "/transactions", String.class)
+                .getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void transfer_crossShardMovesMoney() {
+        String from = accountOwnedBy(0, "from");
+        String to = accountOwnedBy(1, "to");
+        createAccount(1, from, "100");
+        createAccount(0, to, "50");
+
+        // Sent to the node owning neither debit, the transfer is forwarded and then coordinated across both
+        assertThat(transfer(1, from, to, "30").getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(transfer(0, to, from, "5").getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+        assertThat(balance(0, from)).isEqualByComparingTo("75");
+        assertThat(balance(1, to)).isEqualByComparingTo("75");
+    }
+
+    @Test
+    public void transfer_crossShardToUnknownAccountMovesNothing() {
+        String from = accountOwnedBy(0, "refused");
+        createAccount(0, from, "100");
+
+        ResponseEntity<String> response = transfer(0, from, accountOwnedBy(1, "missing"), "30");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(response.getBody()).startsWith("Invalid account Id");
+        assertThat(balance(1, from)).isEqualByComparingTo("100");
+    }
+
+    @Test
+    public void transfer_crossShardInsufficientBalanceMovesNothing() {
+        String from = accountOwnedBy(1, "poor");
+        String to = accountOwnedBy(0, "rich");
+        createAccount(0, from, "10");
+        createAccount(0, to, "10");
+
+        ResponseEntity<String> response = transfer(1, from, to, "30");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(balance(0, from)).isEqualByComparingTo("10");
+        assertThat(balance(1, to)).isEqualByComparingTo("10");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkImport_rejectsAccountsOfOtherNodes() {
+        String local = accountOwnedBy(0, "bulk");
+        String remote = accountOwnedBy(1, "bulk");
+
+        ResponseEntity<Map> response = restTemplate.postForEntity(urls[0] + "/v1/accounts/bulk",
+                json("[{\"accountId\":\"" + local + "\",\"balance\":10},"
+                        + "{\"accountId\":\"" + remote + "\",\"balance\":20}]"), Map.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody().get("imported")).isEqualTo(1);
+        assertThat(response.getBody().get("rejected")).isEqualTo(1);
+        assertThat(balance(1, local)).isEqualByComparingTo("10");
+        // Neither imported here nor created on its owner, an unknown account reads as an empty body
+        assertThat(restTemplate.getForEntity(urls[0] + "/v1/accounts/" + remote, String.class).getBody()).isNull();
+    }
+
+    @Test
+    public void asyncTransfer_refusedUnlessBothAccountsLocal() {
+        String from = accountOwnedBy(1, "async-from");
+        String to = accountOwnedBy(1, "async-to");
+        createAccount(1, from, "100");
+        createAccount(1, to, "0");
+        String body = "{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":10}";
+
+        ResponseEntity<String> refused = post(0, "/v1/transactions/async", body);
+        assertThat(refused.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(refused.getBody()).contains("owned by node " + urls[1]);
+        assertThat(post(1, "/v1/transactions/async", body).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+
+        assertThat(balance(0, to)).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void multiLegTransfer_forwardedToOwnerOfAllAccounts() {
+        String a = accountOwnedBy(1, "leg-a");
+        String b = accountOwnedBy(1, "leg-b");
+        String other = accountOwnedBy(0, "leg-other");
+        createAccount(0, a, "100");
+        createAccount(0, b, "0");
+        createAccount(0, other, "0");
+
+        assertThat(post(0, "/v1/transactions/multi-leg", "{\"legs\":[" + leg(a, b, "30") + "," + leg(b, a, "5") + "]}")
+                .getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(post(0, "/v1/transactions/multi-leg", "{\"legs\":[" + leg(a, other, "1") + "]}")
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        assertThat(balance(0, a)).isEqualByComparingTo("75");
+        assertThat(balance(0, b)).isEqualByComparingTo("25");
+        assertThat(balance(1, other)).isEqualByComparingTo("0");
+    }
+
+    @Test
+    public void batchTransfer_forwardedToOwnerOfAllAccounts() {
+        String a = accountOwnedBy(1, "batch-a");
+        String b = accountOwnedBy(1, "batch-b");
+        String other = accountOwnedBy(0, "batch-other");
+        createAccount(0, a, "100");
+        createAccount(0, b, "0");
+        createAccount(0, other, "0");
+
+        assertThat(post(0, "/v1/transactions/batch?atomic=true", "[" + leg(a, b, "30") + "]").getStatusCode())
+                .isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(post(0, "/v1/transactions/batch", "[" + leg(a, b, "1") + "," + leg(b, other, "1") + "]")
+                .getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        assertThat(balance(0, a)).isEqualByComparingTo("70");
+        assertThat(balance(0, b)).isEqualByComparingTo("30");
+        assertThat(balance(1, other)).isEqualByComparingTo("0");
+    }
+
+    @Test
+    public void batchStreamTransfer_forwardedToOwnerOfAllAccounts() {
+        String a = accountOwnedBy(1, "stream-a");
+        String b = accountOwnedBy(1, "stream-b");
+        String other = accountOwnedBy(0, "stream-other");
+        createAccount(0, a, "100");
+        createAccount(0, b, "0");
+        createAccount(0, other, "0");
+
+        assertThat(postNdjson(0, leg(a, b, "30") + "\n" + leg(b, a, "10") + "\n").getStatusCode())
+                .isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(postNdjson(0, leg(a, other, "1") + "\n").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        assertThat(balance(0, a)).isEqualByComparingTo("80");
+        assertThat(balance(0, b)).isEqualByComparingTo("20");
+        assertThat(balance(1, other)).isEqualByComparingTo("0");
+    }
+
+    @Test
+    public void commit_refusedWithoutSecretOrPreparedCredit() {
+        String id = accountOwnedBy(0, "forged");
+        createAccount(0, id, "10");
+        String credit = "{\"accountId\":\"" + id + "\",\"amount\":1000}";
+
+        assertThat(post(0, CrossShardTransfers.PATH + "forged/commit", credit).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(internalPost(0, "forged/commit", credit).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+
+        assertThat(internalPost(0, "prepared/prepare", "{\"accountId\":\"" + id + "\",\"amount\":1}")
+                .getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(internalPost(0, "prepared/commit", credit).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(balance(0, id)).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void forward_unansweredPostIsIndeterminate() throws IOException {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            List<String> nodes = Arrays.asList(urls[0], "http://localhost:" + silent.getLocalPort());
+            ClusterRouting routing = new ClusterRouting(nodes.toArray(new String[0]), 0, 128, 200, SECRET,
+                    new Metrics());
+            MockHttpServletRequest request = new MockHttpServletRequest("POST", "/v1/transactions");
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            try {
+                String id = accountOwnedBy(new HashRing(nodes, 128), 1, "silent");
+                ResponseEntity<Object> response = routing.forward(id, new byte[0]);
+
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+                assertThat(response.getBody().toString()).contains("Idempotency-Key");
+            } finally {
+                RequestContextHolder.resetRequestAttributes();
+            }
+        }
+    }
+
+    @Test
+    public void refund_retriedUntilApplied() throws Exception {
+        ClusterRouting routing = mock(ClusterRouting.class);
+        TransactionService transactionService = mock(TransactionService.class);
+        when(routing.isPartitioned()).thenReturn(true);
+        when(routing.ownerOf("Id-to")).thenReturn("node-b");
+        when(routing.post(eq("node-b"), endsWith("/prepare"), any())).thenReturn(ResponseEntity.ok(""));
+        when(routing.post(eq("node-b"), endsWith("/commit"), any()))
+                .thenReturn(new ResponseEntity<>("Refused", HttpStatus.BAD_REQUEST));
+        BigDecimal amount = new BigDecimal("30");
+        doThrow(new ServerBusyException()).doNothing().when(transactionService).settleDeposit("Id-from", amount);
+        CrossShardTransfers transfers = new CrossShardTransfers(routing, mock(AccountsService.class),
+                transactionService, new Metrics());
+        try {
+            transfers.transfer(new Transaction("Id-from", "Id-to", amount));
+
+            // Refused, the refund fails once and is retried without delivering the commit again
+            verify(transactionService, timeout(5000).times(2)).settleDeposit("Id-from", amount);
+            verify(transactionService, never()).deposit(anyString(), any());
+            verify(routing, times(1)).post(eq("node-b"), endsWith("/commit"), any());
+        } finally {
+            transfers.destroy();
+        }
+    }
+
+    private String accountOwnedBy(int node, String prefix) {
+        return accountOwnedBy(ring, node, prefix);
+    }
+
+    private static String accountOwnedBy(HashRing ring, int node, String prefix) {
+        for (int i = 0; ; i++) {
+            String id = "Id-" + prefix + "-" + i;
+            if (ring.ownerOf(id) == node) {
+                return id;
+            }
+        }
+    }
+
+    private ResponseEntity<String> createAccount(int node, String id, String balance) {
+        return post(node, "/v1/accounts", "{\"accountId\":\"" + id + "\",\"balance\":" + balance + "}");
+    }
+
+    private ResponseEntity<String> transfer(int node, String from, String to, String amount) {
+        return post(node, "/v1/transactions",
+                "{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":" + amount + "}");
+    }
+
+    private static String leg(String from, String to, String amount) {
+        return "{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":" + amount + "}";
+    }
+
+    private ResponseEntity<String> post(int node, String path, String json) {
+        return restTemplate.postForEntity(urls[node] + path, json(json), String.class);
+    }
+
+    private ResponseEntity<String> postNdjson(int node, String lines) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(TransactionsController.APPLICATION_NDJSON_VALUE));
+        return restTemplate.postForEntity(urls[node] + "/v1/transactions/batch", new HttpEntity<>(lines, headers),
+                String.class);
+    }
+
+    private static HttpEntity<String> json(String json) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(json, headers);
+    }
+
+    private ResponseEntity<String> internalPost(int node, String path, String json) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set(ClusterRouting.SECRET_HEADER, SECRET);
+        return restTemplate.postForEntity(urls[node] + CrossShardTransfers.PATH + path,
+                new HttpEntity<>(json, headers), String.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BigDecimal balance(int node, String id) {
+        ResponseEntity<Map> response = restTemplate.getForEntity(urls[node] + "/v1/accounts/" + id, Map.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return new BigDecimal(response.getBody().get("balance").toString());
+    }
+}
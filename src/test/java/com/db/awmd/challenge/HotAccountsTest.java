@@ -0,0 +1,159 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.StripedAccount;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransactionResult;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"transfer.hot.accounts=Id-hot", "transfer.hot.auto-promote=true",
+        "transfer.hot.contention-threshold=1"})
+@WebAppConfiguration
+public class HotAccountsTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TransactionService transactionService;
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private AccountLocks accountLocks;
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareTest() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    public void deposit_concurrentCreditsAllCounted() throws Exception {
+        accountsService.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+        assertThat(((StripedAccount) accountsService.getAccount("Id-hot")).isHot()).isTrue();
+
+        runConcurrently(8, 1000, () -> transactionService.deposit("Id-hot", new BigDecimal("0.01")));
+
+        assertThat(accountsService.getAccount("Id-hot").getBalance()).isEqualTo("80.00");
+        this.mockMvc.perform(get("/v1/accounts/Id-hot"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"accountId\":\"Id-hot\",\"balance\":80.00}"));
+    }
+
+    @Test
+    public void withdraw_borrowsAcrossStripesWithoutOverdraft() throws Exception {
+        accountsService.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+        runConcurrently(8, 100, () -> transactionService.deposit("Id-hot", BigDecimal.ONE));
+
+        transactionService.withdraw("Id-hot", new BigDecimal(750));
+        AtomicInteger succeeded = new AtomicInteger();
+        runConcurrently(8, 100, () -> {
+            try {
+                transactionService.withdraw("Id-hot", BigDecimal.ONE);
+                succeeded.incrementAndGet();
+            } catch (InsufficientBalanceException e) {
+                // expected once the balance is drained
+            }
+        });
+
+        assertThat(succeeded.get()).isEqualTo(50);
+        assertThat(accountsService.getAccount("Id-hot").getBalance()).isEqualByComparingTo("0");
+        assertThatThrownBy(() -> transactionService.withdraw("Id-hot", BigDecimal.ONE))
+                .isInstanceOf(InsufficientBalanceException.class);
+    }
+
+    @Test
+    public void transfer_betweenHotAndPlainAccounts() {
+        accountsService.createAccount(new Account("Id-hot", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+
+        transactionService.transferMoney(new Transaction("Id-1", "Id-hot", new BigDecimal(30)));
+        transactionService.transferMoney(new Transaction("Id-hot", "Id-1", new BigDecimal(120)));
+        Transaction overdraft = new Transaction("Id-hot", "Id-1", new BigDecimal(11));
+        assertThatThrownBy(() -> transactionService.transferMoney(overdraft))
+                .isInstanceOf(InsufficientBalanceException.class);
+        List<TransactionResult> results = transactionService.transferBatch(Arrays.asList(
+                new Transaction("Id-1", "Id-hot", new BigDecimal(50)),
+                new Transaction("Id-hot", "Id-1", new BigDecimal(60))), true);
+
+        assertThat(results).extracting(TransactionResult::getStatus).containsOnly(TransactionResult.Status.APPLIED);
+        assertThat(accountsService.getAccount("Id-hot").getBalance()).isEqualByComparingTo("0");
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("200");
+    }
+
+    @Test
+    public void deposit_contendedAccountPromoted() throws Exception {
+        accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+        assertThat(((StripedAccount) accountsService.getAccount("Id-1")).isHot()).isFalse();
+
+        int[] stripes = accountLocks.orderedStripes("Id-1");
+        accountLocks.lock(stripes);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> blocked = executor.submit(() -> transactionService.deposit("Id-1", BigDecimal.TEN));
+            // The blocked deposit requests the promotion before waiting for the lock
+            while (!((StripedAccount) accountsService.getAccount("Id-1")).isPromotionRequested()) {
+                Thread.sleep(1);
+            }
+            accountLocks.unlock(stripes);
+            blocked.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        transactionService.deposit("Id-1", BigDecimal.ONE);
+
+        Account account = accountsService.getAccount("Id-1");
+        assertThat(((StripedAccount) account).isHot()).isTrue();
+        assertThat(account.getBalance()).isEqualByComparingTo("111");
+    }
+
+    private static void runConcurrently(int threads, int perThread, Runnable action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        action.run();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.IdempotencyCache;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyCacheTest {
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    public void execute_duplicateReturnsFirstOutcome() {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 1, new Metrics());
+
+        assertThat(cache.execute("key", "request", () -> "outcome-" + runs.incrementAndGet())).isEqualTo("outcome-1");
+        assertThat(cache.execute("key", "request", () -> "outcome-" + runs.incrementAndGet())).isEqualTo("outcome-1");
+        assertThat(cache.execute("other", "request", () -> "outcome-" + runs.incrementAndGet()))
+                .isEqualTo("outcome-2");
+    }
+
+    @Test
+    public void execute_keyReusedForDifferentRequest() {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 1, new Metrics());
+        cache.execute("key", "request", runs::incrementAndGet);
+
+        assertThatThrownBy(() -> cache.execute("key", "another request", runs::incrementAndGet))
+                .isInstanceOf(IdempotencyKeyReusedException.class);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void execute_failureIsNotRemembered() {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 1, new Metrics());
+
+        assertThatThrownBy(() -> cache.execute("key", "request", () -> {
+            throw new ServerBusyException();
+        })).isInstanceOf(ServerBusyException.class);
+        assertThat(cache.execute("key", "request", runs::incrementAndGet)).isEqualTo(1);
+    }
+
+    @Test
+    public void execute_expiredOutcomeRunsAgain() {
+        IdempotencyCache cache = new IdempotencyCache(100, 0, 1, new Metrics());
+
+        cache.execute("key", "request", runs::incrementAndGet);
+        assertThat(cache.execute("key", "request", runs::incrementAndGet)).isEqualTo(2);
+    }
+
+    @Test
+    public void execute_evictsOneOffKeysBeforeRetriedOnes() {
+        IdempotencyCache cache = new IdempotencyCache(10, 60, 1, new Metrics());
+        cache.execute("retried", "request", () -> "first");
+        cache.execute("retried", "request", () -> "second");
+        for (int i = 0; i < 100; i++) {
+            cache.execute("one-off-" + i, "request", () -> "one-off");
+        }
+
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.execute("retried", "request", () -> "again")).isEqualTo("first");
+        assertThat(cache.execute("one-off-0", "request", () -> "again")).isEqualTo("again");
+    }
+
+    @Test
+    public void execute_duplicateWaitsForRunningRequest() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(100, 60, 4, new Metrics());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(() -> cache.execute("key", "request", () -> {
+                started.countDown();
+                await(release);
+                return runs.incrementAndGet();
+            }));
+            started.await();
+            Future<Integer> duplicate = executor.submit(() -> cache.execute("key", "request", runs::incrementAndGet));
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(runs.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_neverEvictsRunningRequest() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(2, 60, 1, new Metrics());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> running = executor.submit(() -> cache.execute("running", "request", () -> {
+                started.countDown();
+                await(release);
+                return runs.incrementAndGet();
+            }));
+            started.await();
+            for (int i = 0; i < 10; i++) {
+                cache.execute("one-off-" + i, "request", () -> "one-off");
+            }
+            release.countDown();
+
+            assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(cache.execute("running", "request", runs::incrementAndGet)).isEqualTo(1);
+            assertThat(runs.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
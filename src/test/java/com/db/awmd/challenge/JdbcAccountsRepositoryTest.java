@@ -0,0 +1,121 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.JdbcAccountsRepository;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"accounts.repository=jdbc", "accounts.jdbc.url=" + JdbcAccountsRepositoryTest.URL,
+        "accounts.jdbc.batch-size=2", "accounts.jdbc.max-dirty=4"})
+public class JdbcAccountsRepositoryTest {
+
+    static final String URL = "jdbc:h2:mem:accounts;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Before
+    public void prepareTest() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    public void transfer_writtenBehind() throws Exception {
+        accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+        accountsService.createAccount(new Account("Id-2", new BigDecimal("0")));
+        accountsService.createAccount(new Account("Id-3", new BigDecimal("5")));
+        transactionService.transferMoney(new Transaction("Id-1", "Id-2", new BigDecimal("30.50")));
+
+        ((JdbcAccountsRepository) accountsService.getAccountsRepository()).flush();
+
+        Map<String, BigDecimal> stored = readTable(URL);
+        assertThat(stored).hasSize(3);
+        assertThat(stored.get("Id-1")).isEqualByComparingTo("69.50");
+        assertThat(stored.get("Id-2")).isEqualByComparingTo("30.50");
+        assertThat(stored.get("Id-3")).isEqualByComparingTo("5");
+    }
+
+    @Test
+    public void restart_flushesOnShutdownAndWarmsUp() throws Exception {
+        String url = "jdbc:h2:mem:restart;DB_CLOSE_DELAY=-1";
+        JdbcAccountsRepository repository = repository(url, 4);
+        repository.createAccount(new Account("Id-1", new BigDecimal("12.34")));
+        Account account = new Account("Id-2", new BigDecimal("1"));
+        repository.createAccount(account);
+        account.setBalance(new BigDecimal("2"));
+        repository.balanceChanged(account, BigDecimal.ONE);
+        repository.destroy();
+
+        JdbcAccountsRepository restarted = repository(url, 4);
+        Map<String, BigDecimal> loaded = new HashMap<>();
+        assertThat(restarted.load((id, balance) -> {
+            loaded.put(id, balance);
+            restarted.createAccount(new Account(id, balance));
+        })).isEqualTo(2);
+
+        assertThat(loaded.get("Id-1")).isEqualByComparingTo("12.34");
+        assertThat(loaded.get("Id-2")).isEqualByComparingTo("2");
+        // Loaded accounts are not dirty, nothing to write back
+        assertThat(restarted.flush()).isZero();
+        restarted.destroy();
+    }
+
+    @Test
+    public void dirtySet_boundedByWaitingForFlush() throws Exception {
+        String url = "jdbc:h2:mem:bounded;DB_CLOSE_DELAY=-1";
+        Metrics metrics = new Metrics();
+        JdbcAccountsRepository repository = new JdbcAccountsRepository(url, "sa", "", 3_600_000, 2, 4, metrics);
+
+        for (int i = 0; i < 10; i++) {
+            repository.createAccount(new Account("Id-" + i, BigDecimal.TEN));
+        }
+
+        StringWriter scrape = new StringWriter();
+        metrics.writeTo(scrape);
+        assertThat(scrape.toString()).doesNotContain("jdbc_writer_waits_total 0");
+        // Flushed by the waiting writers, the scheduled flush is an hour away
+        assertThat(readTable(url)).isNotEmpty();
+        repository.destroy();
+        assertThat(readTable(url)).hasSize(10);
+    }
+
+    private static JdbcAccountsRepository repository(String url, int maxDirty) throws SQLException {
+        return new JdbcAccountsRepository(url, "sa", "", 3_600_000, 2, maxDirty, new Metrics());
+    }
+
+    private static Map<String, BigDecimal> readTable(String url) throws SQLException {
+        Map<String, BigDecimal> rows = new HashMap<>();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT account_id, balance FROM accounts")) {
+            while (resultSet.next()) {
+                rows.put(resultSet.getString(1), resultSet.getBigDecimal(2));
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,142 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.LatencyHistogram;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.MetricsController;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@WebAppConfiguration
+public class MetricsTest {
+
+    private static final String TRANSFER_OK = "transfers_total{operation=\"transfer\",outcome=\"ok\"}";
+    private static final String TRANSFER_INSUFFICIENT =
+            "transfers_total{operation=\"transfer\",outcome=\"insufficient_balance\"}";
+    private static final String TRANSFER_INVALID = "transfers_total{operation=\"transfer\",outcome=\"invalid\"}";
+    private static final String TRANSFER_COUNT = "transfer_duration_seconds_count{operation=\"transfer\"}";
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(1500)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(500)));
+    }
+
+    @Test
+    public void metrics_countTransfersByOutcome() throws Exception {
+        String before = scrape();
+
+        transfer("Id-123", "Id-124", 500, 202);
+        transfer("Id-124", "Id-123", 5000, 400);
+        transfer("Id-123", "Id-999", 1, 400);
+
+        String after = scrape();
+        assertThat(value(after, TRANSFER_OK) - value(before, TRANSFER_OK)).isEqualTo(1);
+        assertThat(value(after, TRANSFER_INSUFFICIENT) - value(before, TRANSFER_INSUFFICIENT)).isEqualTo(1);
+        assertThat(value(after, TRANSFER_INVALID) - value(before, TRANSFER_INVALID)).isEqualTo(1);
+        assertThat(value(after, TRANSFER_COUNT) - value(before, TRANSFER_COUNT)).isEqualTo(3);
+        assertThat(after).contains("# TYPE account_lock_wait_seconds histogram", "notification_queue_depth ",
+                "account_lookups_total{result=\"miss\"} ");
+    }
+
+    @Test
+    public void metrics_servedAsPrometheusText() throws Exception {
+        this.mockMvc.perform(get("/v1/metrics")).andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MetricsController.PROMETHEUS_TEXT_VALUE));
+    }
+
+    @Test
+    public void histogram_rendersCumulativeBuckets() throws Exception {
+        Metrics metrics = new Metrics();
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test", "kind", "a");
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(500);
+        // Just over a bound falls in the next bucket
+        histogram.record(1_500);
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(2_048) + 1);
+        histogram.record(TimeUnit.MINUTES.toNanos(1));
+
+        String text = render(metrics);
+        assertThat(text).contains("# TYPE test_seconds histogram\n",
+                "test_seconds_bucket{kind=\"a\",le=\"1.0E-6\"} 1\n",
+                "test_seconds_bucket{kind=\"a\",le=\"2.0E-6\"} 2\n",
+                "test_seconds_bucket{kind=\"a\",le=\"0.002048\"} 2\n",
+                "test_seconds_bucket{kind=\"a\",le=\"0.004096\"} 5\n",
+                "test_seconds_bucket{kind=\"a\",le=\"33.554432\"} 5\n",
+                "test_seconds_bucket{kind=\"a\",le=\"+Inf\"} 6\n",
+                "test_seconds_count{kind=\"a\"} 6\n");
+    }
+
+    @Test
+    public void counter_sharedBySameNameAndLabels() throws Exception {
+        Metrics metrics = new Metrics();
+        LongAdder first = metrics.counter("test_total", "Test", "kind", "a");
+        assertThat(metrics.counter("test_total", "Test", "kind", "a")).isSameAs(first);
+        metrics.counter("test_total", "Test", "kind", "b").add(2);
+        first.increment();
+
+        assertThat(render(metrics)).contains("test_total{kind=\"a\"} 1\n", "test_total{kind=\"b\"} 2\n");
+        assertThatThrownBy(() -> metrics.gauge("test_total", "Test", () -> 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void transfer(String from, String to, int amount, int expectedStatus) throws Exception {
+        this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":" + amount + "}"))
+                .andExpect(status().is(expectedStatus));
+    }
+
+    private String scrape() throws Exception {
+        return this.mockMvc.perform(get("/v1/metrics")).andReturn().getResponse().getContentAsString();
+    }
+
+    private static String render(Metrics metrics) throws Exception {
+        StringWriter writer = new StringWriter();
+        metrics.writeTo(writer);
+        return writer.toString();
+    }
+
+    private static long value(String text, String series) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Long.parseLong(line.substring(series.length() + 1));
+            }
+        }
+        throw new AssertionError("No series " + series + " in\n" + text);
+    }
+}
@@ -0,0 +1,181 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Notification;
+import com.db.awmd.challenge.exception.TransactionFailureException;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.service.BackpressurePolicy;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.NotificationService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class NotificationDispatcherTest {
+
+    private final Account account = new Account("Id-123");
+    private final GatedNotificationService notificationService = new GatedNotificationService();
+    private NotificationDispatcher dispatcher;
+
+    @After
+    public void stopDispatcher() throws Exception {
+        notificationService.gate.countDown();
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void dispatch_deliversBacklogInBatches() throws Exception {
+        dispatcher = new NotificationDispatcher(notificationService, 1000, 1, 64, BackpressurePolicy.BLOCK,
+                5000, 0, true, new Metrics());
+        dispatchAndAwaitTaken(0);
+        for (int i = 1; i <= 100; i++) {
+            dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(i));
+        }
+        notificationService.gate.countDown();
+        await(() -> dispatcher.getDelivered() == 101);
+
+        assertThat(notificationService.batchSizes).containsExactly(1, 64, 36);
+        assertThat(notificationService.descriptions).hasSize(101)
+                .startsWith("Account credited with amount 0", "Account credited with amount 1")
+                .endsWith("Account credited with amount 100");
+    }
+
+    @Test
+    public void dispatch_dropOldestKeepsNewest() throws Exception {
+        dispatcher = new NotificationDispatcher(notificationService, 4, 1, 64, BackpressurePolicy.DROP_OLDEST,
+                5000, 0, true, new Metrics());
+        dispatchAndAwaitTaken(0);
+        for (int i = 1; i <= 6; i++) {
+            dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(i));
+        }
+        assertThat(dispatcher.getDropped()).isEqualTo(2);
+
+        notificationService.gate.countDown();
+        dispatcher.destroy();
+        assertThat(notificationService.descriptions).containsExactly("Account credited with amount 0",
+                "Account credited with amount 3", "Account credited with amount 4", "Account credited with amount 5",
+                "Account credited with amount 6");
+    }
+
+    @Test
+    public void admit_failsFastWhileQueueIsFull() throws Exception {
+        dispatcher = new NotificationDispatcher(notificationService, 2, 1, 64, BackpressurePolicy.FAIL_FAST,
+                5000, 0, true, new Metrics());
+        dispatchAndAwaitTaken(0);
+        dispatcher.admit();
+        dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(1));
+        dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(2));
+        try {
+            dispatcher.admit();
+            fail("Should have turned the request away");
+        } catch (TransactionFailureException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Server busy, please try again later");
+        }
+        dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(3));
+        assertThat(dispatcher.getDropped()).isEqualTo(1);
+
+        notificationService.gate.countDown();
+        await(() -> dispatcher.getQueued() == 0);
+        dispatcher.admit();
+    }
+
+    @Test
+    public void dispatch_blocksUntilConsumersCatchUp() throws Exception {
+        dispatcher = new NotificationDispatcher(notificationService, 1, 1, 64, BackpressurePolicy.BLOCK,
+                5000, 0, true, new Metrics());
+        dispatchAndAwaitTaken(0);
+        dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(1));
+        Thread producer = new Thread(() -> dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(2)));
+        producer.start();
+        await(() -> producer.getState() == Thread.State.WAITING);
+
+        notificationService.gate.countDown();
+        producer.join(5000);
+        assertThat(producer.isAlive()).isFalse();
+        await(() -> dispatcher.getDelivered() == 3);
+        assertThat(dispatcher.getDropped()).isZero();
+    }
+
+    @Test
+    public void destroy_drainsQueuedNotifications() throws Exception {
+        dispatcher = new NotificationDispatcher(notificationService, 10_000, 2, 16, BackpressurePolicy.BLOCK,
+                5000, 0, true, new Metrics());
+        for (int i = 0; i < 5000; i++) {
+            dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(i));
+        }
+        notificationService.gate.countDown();
+        dispatcher.destroy();
+
+        assertThat(dispatcher.getDelivered()).isEqualTo(5000);
+        assertThat(notificationService.descriptions).hasSize(5000);
+    }
+
+    @Test
+    public void dispatch_coalescesMovementsPerAccount() throws Exception {
+        notificationService.gate.countDown();
+        dispatcher = new NotificationDispatcher(notificationService, 1000, 1, 64, BackpressurePolicy.BLOCK, 5000,
+                60_000, true, new Metrics());
+        Account other = new Account("Id-124");
+        for (int i = 0; i < 12; i++) {
+            dispatcher.dispatch(account, Notification.Kind.DEBIT, new BigDecimal("1.50"));
+            dispatcher.dispatch(other, Notification.Kind.CREDIT, new BigDecimal("1.50"));
+        }
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(5));
+        }
+        assertThat(dispatcher.getQueued()).isZero();
+        dispatcher.destroy();
+
+        assertThat(notificationService.descriptions).containsExactlyInAnyOrder(
+                "12 debits totalling 18.00, 4 credits totalling 20", "12 credits totalling 18.00");
+    }
+
+    /**
+     * Dispatches a notification and waits for a consumer to take it, the consumer then stays blocked on the gate.
+     */
+    private void dispatchAndAwaitTaken(int amount) throws InterruptedException {
+        dispatcher.dispatch(account, Notification.Kind.CREDIT, new BigDecimal(amount));
+        await(() -> dispatcher.getQueued() == 0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met within 5 seconds");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static class GatedNotificationService implements NotificationService {
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final List<String> descriptions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void notifyAboutTransfer(Account account, String transferDescription) {
+            descriptions.add(transferDescription);
+        }
+
+        @Override
+        public void notifyAboutTransfers(List<Notification> notifications) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batchSizes.add(notifications.size());
+            NotificationService.super.notifyAboutTransfers(notifications);
+        }
+    }
+}
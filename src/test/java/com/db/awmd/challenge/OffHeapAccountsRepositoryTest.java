@@ -0,0 +1,217 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BulkImportResult;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransactionResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.journal.DurabilityMode;
+import com.db.awmd.challenge.journal.JournalRecovery;
+import com.db.awmd.challenge.journal.MappedAccountJournal;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.repository.OffHeapAccountsRepository;
+import com.db.awmd.challenge.repository.OffHeapAccountsRepository.OffHeapAccount;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.HotAccounts;
+import com.db.awmd.challenge.service.LockingTransferEngine;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"accounts.repository=offheap", "accounts.offheap.capacity=1000"})
+public class OffHeapAccountsRepositoryTest {
+
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private TransactionService transactionService;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void prepareTest() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    public void createAccount_storedOffHeap() {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+        assertThat(accountsService.getAccountsRepository()).isInstanceOf(OffHeapAccountsRepository.class);
+        Account account = accountsService.getAccount("Id-123");
+        assertThat(account).isInstanceOf(OffHeapAccount.class);
+        assertThat(account.getAccountId()).isEqualTo("Id-123");
+        assertThat(account.getBalance()).isEqualTo("123.45");
+        assertThat(accountsService.getAccount("Id-124")).isNull();
+    }
+
+    @Test
+    public void spliterator_visitsEveryAccountInParallel() {
+        for (int i = 0; i < 900; i++) {
+            accountsService.createAccount(new Account("Id-" + i, new BigDecimal(i)));
+        }
+
+        Spliterator<Account> spliterator = accountsService.getAccountsRepository().spliterator();
+        assertThat(spliterator.trySplit()).isNotNull();
+        assertThat(accountsService.streamAccounts().parallel().map(Account::getAccountId).distinct().count())
+                .isEqualTo(900);
+        assertThat(accountsService.streamAccounts().parallel().map(Account::getBalance)
+                .reduce(BigDecimal.ZERO, BigDecimal::add)).isEqualByComparingTo("404550");
+    }
+
+    @Test
+    public void createAccount_failsOnDuplicateId() {
+        accountsService.createAccount(new Account("Id-123", BigDecimal.ONE));
+        try {
+            accountsService.getAccountsRepository().createAccount(new Account("Id-123", BigDecimal.TEN));
+            fail("Should have failed when adding duplicate account");
+        } catch (DuplicateAccountIdException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Account id Id-123 already exists!");
+        }
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+    }
+
+    @Test
+    public void createAccount_failsOnLongIdOrFractionalCents() {
+        try {
+            accountsService.createAccount(new Account("Id-1234567890123456789012345678901234567890", BigDecimal.ONE));
+            fail("Should have failed on an id longer than a record holds");
+        } catch (InvalidArgumentException ex) {
+            assertThat(ex.getMessage()).endsWith("is longer than 40 bytes");
+        }
+        try {
+            accountsService.createAccount(new Account("Id-123", new BigDecimal("0.001")));
+            fail("Should have failed on an amount below one cent");
+        } catch (InvalidArgumentException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Amount 0.001 cannot be represented with 2 decimal places");
+        }
+    }
+
+    @Test
+    public void createAccount_refusedAccountsNotJournaled() throws Exception {
+        MappedAccountJournal journal = journal();
+        AccountsService journaled = service(journal);
+        new JournalRecovery(journal, journaled, Optional.empty()).recover();
+        journaled.createAccount(new Account("Id-1", BigDecimal.ONE));
+        try {
+            journaled.createAccount(new Account("Id-1234567890123456789012345678901234567890", BigDecimal.ONE));
+            fail("Should have failed on an id longer than a record holds");
+        } catch (InvalidArgumentException ex) {
+            assertThat(ex.getMessage()).endsWith("is longer than 40 bytes");
+        }
+        BulkImportResult result = new BulkImportResult();
+        journaled.createAccounts(Arrays.asList(new Account("Id-2", BigDecimal.ONE),
+                new Account("Id-3", BigDecimal.ONE)), result);
+        assertThat(result.getImported()).isEqualTo(1);
+        assertThat(result.getRejected()).isEqualTo(1);
+        journal.destroy();
+
+        // Replays into a repository of the same capacity
+        MappedAccountJournal reopened = journal();
+        AccountsService recovered = service(reopened);
+        new JournalRecovery(reopened, recovered, Optional.empty()).recover();
+        assertThat(recovered.getAccount("Id-1")).isNotNull();
+        assertThat(recovered.getAccount("Id-2")).isNotNull();
+        assertThat(recovered.getAccount("Id-3")).isNull();
+        reopened.destroy();
+    }
+
+    @Test
+    public void createAccount_failsWhenFull() {
+        for (int i = 0; i < 1000; i++) {
+            accountsService.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+        }
+        try {
+            accountsService.createAccount(new Account("Id-1000", BigDecimal.ONE));
+            fail("Should have failed once the capacity is reached");
+        } catch (IllegalStateException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Account repository is full, capacity is 1000 accounts");
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(accountsService.getAccount("Id-" + i)).isNotNull();
+        }
+    }
+
+    @Test
+    public void transferMoney_writesThroughAndBumpsVersion() {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(50)));
+
+        transactionService.transferMoney(new Transaction("Id-123", "Id-124", new BigDecimal("10.25")));
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("89.75");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("60.25");
+        assertThat(((OffHeapAccount) accountsService.getAccount("Id-123")).getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    public void transferBatch_netsRepeatedAccounts() {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(50)));
+
+        List<TransactionResult> results = transactionService.transferBatch(Arrays.asList(
+                new Transaction("Id-124", "Id-123", new BigDecimal(200)),
+                new Transaction("Id-123", "Id-124", new BigDecimal(180))), true);
+
+        assertThat(results).extracting("status").containsOnly(TransactionResult.Status.APPLIED);
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("120");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("30");
+    }
+
+    @Test
+    public void concurrentCredits_areNotLost() throws Exception {
+        accountsService.createAccount(new Account("Id-123", BigDecimal.ZERO));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    ((OffHeapAccount) accountsService.getAccount("Id-123")).credit(1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("400");
+    }
+
+    private MappedAccountJournal journal() {
+        return new MappedAccountJournal(folder.getRoot().getPath(), 1, DurabilityMode.NONE, 256, 1000, 5000);
+    }
+
+    private static AccountsService service(MappedAccountJournal journal) {
+        Metrics metrics = new Metrics();
+        AccountLocks accountLocks = new AccountLocks(16, 1000, metrics);
+        HotAccounts hotAccounts = new HotAccounts(new String[0], false, 16, 2, 1000, 1000, metrics);
+        return new AccountsService(new OffHeapAccountsRepository(2, 2),
+                new LockingTransferEngine(accountLocks, hotAccounts, journal), accountLocks, journal,
+                Collections.emptyList(), metrics);
+    }
+}
@@ -0,0 +1,160 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.Metrics;
+import com.db.awmd.challenge.replication.ChangeStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A primary and a replica following it, each in its own application context on its own ports.
+ */
+public class ReplicationTest {
+
+    private static ConfigurableApplicationContext primary;
+    private static ConfigurableApplicationContext replica;
+    private static String primaryUrl;
+    private static String replicaUrl;
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @BeforeClass
+    public static void startNodes() throws IOException {
+        int primaryPort = freePort();
+        int replicationPort = freePort();
+        int replicaPort = freePort();
+        primaryUrl = "http://localhost:" + primaryPort;
+        replicaUrl = "http://localhost:" + replicaPort;
+        primary = new SpringApplicationBuilder(DevChallengeApplication.class).run(
+                "--server.port=" + primaryPort, "--spring.jmx.enabled=false",
+                "--replication.role=primary", "--replication.port=" + replicationPort);
+        // Created before the replica connects, it gets them from a snapshot
+        new TestRestTemplate().postForEntity(primaryUrl + "/v1/accounts",
+                json("{\"accountId\":\"Id-snapshot\",\"balance\":70}"), String.class);
+        replica = new SpringApplicationBuilder(DevChallengeApplication.class).run(
+                "--server.port=" + replicaPort, "--spring.jmx.enabled=false",
+                "--replication.role=replica", "--replication.primary=localhost:" + replicationPort);
+    }
+
+    @AfterClass
+    public static void stopNodes() {
+        if (replica != null) {
+            replica.close();
+        }
+        if (primary != null) {
+            primary.close();
+        }
+    }
+
+    @Test
+    public void replica_readsOwnWritesByOffset() {
+        createAccount("Id-offset-1", "100");
+        createAccount("Id-offset-2", "0");
+        transfer("Id-offset-1", "Id-offset-2", "40");
+        long offset = ((Number) restTemplate.getForObject(primaryUrl + "/v1/replication", Map.class).get("offset"))
+                .longValue();
+
+        assertThat(balance(replicaUrl + "/v1/accounts/Id-offset-1?minOffset=" + offset)).isEqualByComparingTo("60");
+        assertThat(balance(replicaUrl + "/v1/accounts/Id-offset-2?minOffset=" + offset)).isEqualByComparingTo("40");
+        assertThat(balance(replicaUrl + "/v1/accounts/Id-snapshot?minOffset=" + offset)).isEqualByComparingTo("70");
+    }
+
+    @Test
+    public void replica_readsOwnWritesByVersion() {
+        createAccount("Id-version-1", "100");
+        createAccount("Id-version-2", "0");
+        transfer("Id-version-1", "Id-version-2", "25");
+        transfer("Id-version-1", "Id-version-2", "25");
+        String etag = restTemplate.getForEntity(primaryUrl + "/v1/accounts/Id-version-1", String.class)
+                .getHeaders().getETag();
+        String version = etag.substring(1, etag.indexOf('-'));
+
+        assertThat(version).isEqualTo("2");
+        assertThat(balance(replicaUrl + "/v1/accounts/Id-version-1?minVersion=" + version))
+                .isEqualByComparingTo("50");
+    }
+
+    @Test
+    public void replica_behindRequestedOffsetAnswers503() {
+        ResponseEntity<String> response = restTemplate.getForEntity(
+                replicaUrl + "/v1/accounts/Id-snapshot?minOffset=" + Long.MAX_VALUE, String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+    }
+
+    @Test
+    public void replica_refusesWritesAndUnreplicatedReads() {
+        ResponseEntity<String> write = restTemplate.postForEntity(replicaUrl + "/v1/accounts",
+                json("{\"accountId\":\"Id-on-replica\",\"balance\":1}"), String.class);
+        ResponseEntity<String> history = restTemplate.getForEntity(
+                replicaUrl + "/v1/accounts/Id-snapshot/transactions", String.class);
+
+        assertThat(write.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(history.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForObject(replicaUrl + "/v1/metrics", String.class))
+                .contains("replication_lag_millis", "replication_connected 1");
+    }
+
+    @Test
+    public void changeStream_readerOverwrittenNeedsSnapshot() {
+        ChangeStream changeStream = new ChangeStream(4, new Metrics());
+        Account account = new Account("Id-1", BigDecimal.ONE);
+        for (int i = 0; i < 6; i++) {
+            account.setBalance(BigDecimal.valueOf(i));
+            changeStream.balanceChanged(account, BigDecimal.ONE);
+        }
+
+        assertThat(changeStream.read(1, 10, 0)).isNull();
+        assertThat(changeStream.read(2, 10, 0)).extracting("offset").containsExactly(3L, 4L, 5L, 6L);
+        assertThat(changeStream.read(5, 10, 0)).extracting("version").containsExactly(6L);
+        assertThat(changeStream.read(6, 10, 10)).isEmpty();
+    }
+
+    private void createAccount(String id, String balance) {
+        assertThat(restTemplate.postForEntity(primaryUrl + "/v1/accounts",
+                json("{\"accountId\":\"" + id + "\",\"balance\":" + balance + "}"), String.class).getStatusCode())
+                .isEqualTo(HttpStatus.CREATED);
+    }
+
+    private void transfer(String from, String to, String amount) {
+        assertThat(restTemplate.postForEntity(primaryUrl + "/v1/transactions",
+                json("{\"accountFromId\":\"" + from + "\",\"accountToId\":\"" + to + "\",\"amount\":" + amount + "}"),
+                String.class).getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    }
+
+    @SuppressWarnings("unchecked")
+    private BigDecimal balance(String url) {
+        ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return new BigDecimal(response.getBody().get("balance").toString());
+    }
+
+    private static HttpEntity<String> json(String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(body, headers);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
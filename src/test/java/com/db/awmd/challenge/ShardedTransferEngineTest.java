@@ -0,0 +1,218 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MinorUnitAccount;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.exception.InvalidArgumentException;
+import com.db.awmd.challenge.exception.ServerBusyException;
+import com.db.awmd.challenge.journal.NoOpAccountJournal;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.ShardedTransferEngine;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"transfer.engine=sharded", "transfer.sharded.shards=4", "transfer.sharded.ring-size=16"})
+@WebAppConfiguration
+public class ShardedTransferEngineTest {
+
+    private static final int ACCOUNTS = 20;
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TransactionService transactionService;
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareTest() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountsService.createAccount(new Account("Id-" + i, new BigDecimal(100)));
+        }
+    }
+
+    @Test
+    public void transferMoney_keepsControllerContract() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountFromId\":\"Id-1\",\"accountToId\":\"Id-2\",\"amount\":60}"))
+                .andExpect(status().isAccepted());
+        this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountFromId\":\"Id-1\",\"accountToId\":\"Id-2\",\"amount\":60}"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("40");
+        assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("160");
+    }
+
+    @Test
+    public void transfer_insufficientBalance() {
+        try {
+            transactionService.transferMoney(new Transaction("Id-1", "Id-2", new BigDecimal(101)));
+            fail("Should have failed when overdrawing the account");
+        } catch (InvalidArgumentException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Withdraw failed, Insufficient balance");
+        }
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+    }
+
+    @Test
+    public void transferMultiLeg_appliesEveryLegOrNone() throws Exception {
+        // Id-3 pays its leg out of the money it receives in the first one
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-1\",\"accountToId\":\"Id-3\",\"amount\":90},"
+                        + "{\"accountFromId\":\"Id-3\",\"accountToId\":\"Id-2\",\"amount\":150}]}"))
+                .andExpect(status().isAccepted());
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-2\",\"accountToId\":\"Id-4\",\"amount\":10},"
+                        + "{\"accountFromId\":\"Id-1\",\"accountToId\":\"Id-4\",\"amount\":11}]}"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("10");
+        assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("250");
+        assertThat(accountsService.getAccount("Id-3").getBalance()).isEqualByComparingTo("40");
+        assertThat(accountsService.getAccount("Id-4").getBalance()).isEqualByComparingTo("100");
+    }
+
+    @Test
+    public void transfer_randomConcurrentTransfersConserveMoney() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger applied = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String from = "Id-" + random.nextInt(ACCOUNTS);
+                    String to = "Id-" + random.nextInt(ACCOUNTS);
+                    try {
+                        transactionService.transferMoney(
+                                new Transaction(from, to, new BigDecimal(1 + random.nextInt(30))));
+                        applied.incrementAndGet();
+                    } catch (InvalidArgumentException ex) {
+                        // insufficient balance, expected once accounts drain
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            BigDecimal balance = accountsService.getAccount("Id-" + i).getBalance();
+            assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+            total = total.add(balance);
+        }
+        assertThat(applied.get()).isPositive();
+        assertThat(total).isEqualByComparingTo(new BigDecimal(100 * ACCOUNTS));
+    }
+
+    @Test
+    public void transfer_timedOutIsWithdrawnOrAwaited() throws Exception {
+        // Every wait times out at once, each transfer is then either withdrawn before running or awaited to the end
+        ShardedTransferEngine engine = new ShardedTransferEngine(new NoOpAccountJournal(), 2, 16, 4, 2, 0);
+        Account from = engine.adopt(new Account("Id-from", new BigDecimal(1000)));
+        Account to = engine.adopt(new Account("Id-to", BigDecimal.ZERO));
+        int applied = 0;
+        int busy = 0;
+        try {
+            for (int i = 0; i < 1000; i++) {
+                try {
+                    engine.transfer(from, to, BigDecimal.ONE);
+                    applied++;
+                } catch (ServerBusyException ex) {
+                    busy++;
+                }
+            }
+        } finally {
+            engine.destroy();
+        }
+
+        assertThat(applied + busy).isEqualTo(1000);
+        assertThat(to.getBalance()).isEqualByComparingTo(new BigDecimal(applied));
+        assertThat(from.getBalance()).isEqualByComparingTo(new BigDecimal(1000 - applied));
+    }
+
+    @Test
+    public void withdraw_fullRingTurnedAwayAfterTimeout() throws Exception {
+        CountDownLatch debiting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the only shard on its first debit, so the ring fills up behind it
+        Account blocking = new MinorUnitAccount("Id-blocking", new BigDecimal(1000), 2) {
+            @Override
+            public boolean tryDebit(long units) {
+                debiting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.tryDebit(units);
+            }
+        };
+        ShardedTransferEngine engine = new ShardedTransferEngine(new NoOpAccountJournal(), 1, 2, 1, 2, 200);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?> first = executor.submit(() -> engine.withdraw(blocking, BigDecimal.ONE));
+            assertThat(debiting.await(1, TimeUnit.SECONDS)).isTrue();
+            List<Future<?>> queued = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                queued.add(executor.submit(() -> engine.withdraw(blocking, BigDecimal.ONE)));
+            }
+            int notQueued = 0;
+            for (Future<?> future : queued) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail("Should have been turned away while the shard is held");
+                } catch (ExecutionException ex) {
+                    assertThat(ex.getCause()).isInstanceOf(ServerBusyException.class);
+                    notQueued += ex.getCause().getCause() == null ? 1 : 0;
+                }
+            }
+            // A ring of two holds at most two waiting commands, the others never got in
+            assertThat(notQueued).isGreaterThanOrEqualTo(4);
+
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            assertThat(blocking.getBalance()).isEqualByComparingTo("999");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            engine.destroy();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@WebAppConfiguration
+public class TransactionBatchTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AccountsService accountsService;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Before
+    public void prepareMockMvc() {
+        this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
+        accountsService.getAccountsRepository().clearAccounts();
+        accountsService.createAccount(new Account("Id-123", new BigDecimal(100)));
+        accountsService.createAccount(new Account("Id-124", new BigDecimal(50)));
+        accountsService.createAccount(new Account("Id-125", BigDecimal.ZERO));
+    }
+
+    @Test
+    public void transferBatch_bestEffort() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions/batch").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":80},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":30},"
+                        + "{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-999\",\"amount\":10},"
+                        + "{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-125\",\"amount\":130}]"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$[0].status", is("APPLIED")))
+                .andExpect(jsonPath("$[1].status", is("REJECTED")))
+                .andExpect(jsonPath("$[1].message", is("Withdraw failed, Insufficient balance")))
+                .andExpect(jsonPath("$[2].message", is("Invalid account Id Id-999")))
+                .andExpect(jsonPath("$[3].status", is("APPLIED")));
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualTo("20");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualTo("0");
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualTo("130");
+    }
+
+    @Test
+    public void transferBatch_atomicNetsOpposingTransfers() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions/batch?atomic=true").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-123\",\"amount\":200},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":180}]"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$[0].status", is("APPLIED")))
+                .andExpect(jsonPath("$[1].status", is("APPLIED")));
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualTo("120");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualTo("30");
+    }
+
+    @Test
+    public void transferBatch_atomicRejectsWholeBatch() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions/batch?atomic=true").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":100},"
+                        + "{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-125\",\"amount\":51}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$[0].status", is("REJECTED")))
+                .andExpect(jsonPath("$[1].message", is("Withdraw failed, Insufficient balance")));
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualTo("100");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualTo("50");
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualTo("0");
+    }
+
+    @Test
+    public void transferBatch_ndjson() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions/batch").contentType("application/x-ndjson")
+                .content("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":10}\n"
+                        + "{\"accountFromId\":\"Id-124\",\"accountToId\":\"Id-125\",\"amount\":0}\n"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$[0].status", is("APPLIED")))
+                .andExpect(jsonPath("$[1].status", is("REJECTED")));
+
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualTo("10");
+    }
+
+    @Test
+    public void transferMultiLeg_appliesEveryLeg() throws Exception {
+        // Id-125 starts empty, the fee is paid out of the money it receives in the first leg
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":90},"
+                        + "{\"accountFromId\":\"Id-125\",\"accountToId\":\"Id-124\",\"amount\":5},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":10}]}"))
+                .andExpect(status().isAccepted());
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualTo("0");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualTo("65");
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualTo("85");
+    }
+
+    @Test
+    public void transferMultiLeg_appliesNoLegWhenOneFails() throws Exception {
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":90},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":11}]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Withdraw failed, Insufficient balance"));
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-125\",\"amount\":90},"
+                        + "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-999\",\"amount\":1}]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Leg 1: Invalid account Id Id-999"));
+        this.mockMvc.perform(post("/v1/transactions/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"legs\":[]}"))
+                .andExpect(status().isBadRequest());
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualTo("100");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualTo("50");
+        assertThat(accountsService.getAccount("Id-125").getBalance()).isEqualTo("0");
+    }
+}
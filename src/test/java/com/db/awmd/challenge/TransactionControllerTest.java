@@ -108,4 +108,28 @@ public class TransactionControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void transferMoneyRetriedWithIdempotencyKey() throws Exception {
+        String transaction = "{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":500}";
+        for (int i = 0; i < 3; i++) {
+            this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                    .header("Idempotency-Key", "retry-1").content(transaction)).andExpect(status().isAccepted());
+        }
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+        assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("1000");
+
+        // The same amount written with another scale is the same request
+        this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .header("Idempotency-Key", "retry-1")
+                .content("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":500.00}"))
+                .andExpect(status().isAccepted());
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+
+        this.mockMvc.perform(post("/v1/transactions").contentType(MediaType.APPLICATION_JSON)
+                .header("Idempotency-Key", "retry-1")
+                .content("{\"accountFromId\":\"Id-123\",\"accountToId\":\"Id-124\",\"amount\":400}"))
+                .andExpect(status().isUnprocessableEntity());
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+    }
+
 }
@@ -0,0 +1,132 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.LedgerEntry;
+import com.db.awmd.challenge.domain.TransactionPage;
+import com.db.awmd.challenge.ledger.TransactionLedger;
+import com.db.awmd.challenge.metrics.Metrics;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionLedgerTest {
+
+    private final TransactionLedger ledger = new TransactionLedger(true, 4_194_304, new Metrics());
+
+    @Test
+    public void history_pagesNewestFirst() {
+        for (int i = 1; i <= 2500; i++) {
+            ledger.recordTransfer("Id-1", "Id-2", new BigDecimal(i));
+        }
+
+        List<BigDecimal> amounts = new ArrayList<>();
+        Long cursor = null;
+        int pages = 0;
+        do {
+            TransactionPage page = ledger.history("Id-2", cursor, null, null, 1000);
+            page.getTransactions().forEach(entry -> amounts.add(entry.getAmount()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(amounts).hasSize(2500);
+        assertThat(amounts.get(0)).isEqualTo(new BigDecimal(2500));
+        assertThat(amounts.get(2499)).isEqualTo(BigDecimal.ONE);
+    }
+
+    @Test
+    public void history_keepsTypeAndAmount() {
+        ledger.recordDeposit("Id-1", new BigDecimal("10.25"));
+        ledger.recordWithdrawal("Id-1", new BigDecimal("1E+300"));
+        ledger.recordTransfer("Id-2", "Id-1", new BigDecimal("0.000000000000000000001"));
+
+        List<LedgerEntry> entries = ledger.history("Id-1", null, null, null, 10).getTransactions();
+
+        assertThat(entries).extracting(LedgerEntry::getType).containsExactly(LedgerEntry.Type.TRANSFER,
+                LedgerEntry.Type.WITHDRAWAL, LedgerEntry.Type.DEPOSIT);
+        assertThat(entries).extracting(LedgerEntry::getAmount).containsExactly(
+                new BigDecimal("0.000000000000000000001"), new BigDecimal("1E+300"), new BigDecimal("10.25"));
+        assertThat(entries.get(0).getAccountFromId()).isEqualTo("Id-2");
+        assertThat(entries.get(1).getAccountToId()).isNull();
+        assertThat(entries.get(2).getAccountFromId()).isNull();
+        assertThat(ledger.history("Id-3", null, null, null, 10).getTransactions()).isEmpty();
+    }
+
+    @Test
+    public void history_filtersByTime() throws Exception {
+        ledger.recordDeposit("Id-1", BigDecimal.ONE);
+        Thread.sleep(5);
+        ledger.recordDeposit("Id-1", new BigDecimal(2));
+        Thread.sleep(5);
+        ledger.recordDeposit("Id-1", new BigDecimal(3));
+        List<LedgerEntry> all = ledger.history("Id-1", null, null, null, 10).getTransactions();
+        long middle = all.get(1).getTimestamp();
+
+        assertThat(ledger.history("Id-1", null, middle, middle, 10).getTransactions())
+                .extracting(LedgerEntry::getAmount).containsExactly(new BigDecimal(2));
+        assertThat(ledger.history("Id-1", null, middle, null, 10).getTransactions())
+                .extracting(LedgerEntry::getAmount).containsExactly(new BigDecimal(3), new BigDecimal(2));
+        assertThat(ledger.history("Id-1", null, null, middle, 10).getTransactions())
+                .extracting(LedgerEntry::getAmount).containsExactly(new BigDecimal(2), BigDecimal.ONE);
+    }
+
+    @Test
+    public void append_dropsOldestChunksBeyondMaxEntries() {
+        TransactionLedger bounded = new TransactionLedger(true, 100_000, new Metrics());
+        bounded.recordDeposit("Id-old", BigDecimal.ONE);
+        for (int i = 1; i < 3 * 65_536 + 10; i++) {
+            bounded.recordTransfer("Id-1", "Id-2", BigDecimal.TEN);
+        }
+
+        // Rounded up to two chunks, the full third one and the start of the fourth
+        assertThat(bounded.size()).isEqualTo(65_536 + 10);
+        assertThat(bounded.history("Id-old", null, null, null, 10).getTransactions()).isEmpty();
+        int retained = 0;
+        Long cursor = null;
+        LedgerEntry oldest = null;
+        do {
+            TransactionPage page = bounded.history("Id-2", cursor, null, null, 10_000);
+            retained += page.getTransactions().size();
+            oldest = page.getTransactions().get(page.getTransactions().size() - 1);
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertThat(retained).isEqualTo(65_536 + 10);
+        assertThat(oldest.getSequence()).isEqualTo(2 * 65_536);
+    }
+
+    @Test
+    public void history_orderedUnderConcurrentAppends() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                String other = "Id-other-" + w;
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        ledger.recordTransfer("Id-hot", other, BigDecimal.ONE);
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<LedgerEntry> entries = ledger.history("Id-hot", null, null, null, 1000).getTransactions();
+        assertThat(ledger.size()).isEqualTo(80_000);
+        assertThat(entries).hasSize(1000);
+        assertThat(entries.get(0).getSequence()).isEqualTo(79_999);
+        for (int i = 1; i < entries.size(); i++) {
+            assertThat(entries.get(i).getSequence()).isEqualTo(entries.get(i - 1).getSequence() - 1);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.service.AccountLocks;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+// Logging every transfer would serialize the threads on the console
+@SpringBootTest(properties = "logging.level.com.db.awmd.challenge.service=WARN")
+public class TransactionServiceContentionTest {
+
+    private static final int TRANSFERS_PER_THREAD = 2000;
+
+    @Autowired
+    private TransactionService transactionService;
+    @Autowired
+    private AccountsService accountsService;
+    @Autowired
+    private AccountLocks accountLocks;
+
+    @Before
+    public void prepareTest() {
+        accountsService.getAccountsRepository().clearAccounts();
+    }
+
+    @Test
+    public void transfer_disjointAccountsNotBlockedByHeldLocks() throws Exception {
+        accountsService.createAccount(new Account("Id-A1", new BigDecimal(1000)));
+        accountsService.createAccount(new Account("Id-A2", new BigDecimal(1000)));
+        String[] pair = disjointPair("Id-A1", "Id-A2");
+        accountsService.createAccount(new Account(pair[0], new BigDecimal(1000)));
+        accountsService.createAccount(new Account(pair[1], new BigDecimal(1000)));
+
+        int[] heldStripes = accountLocks.orderedStripes("Id-A1", "Id-A2");
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> {
+                accountLocks.tryLock(heldStripes, 1, TimeUnit.SECONDS);
+                locked.countDown();
+                try {
+                    release.await();
+                } finally {
+                    accountLocks.unlock(heldStripes);
+                }
+                return null;
+            });
+            assertThat(locked.await(1, TimeUnit.SECONDS)).isTrue();
+
+            Future<?> blocked = executor.submit(
+                    () -> transactionService.transferMoney(new Transaction("Id-A1", "Id-A2", new BigDecimal(100))));
+            transactionService.transferMoney(new Transaction(pair[0], pair[1], new BigDecimal(100)));
+
+            assertThat(accountsService.getAccount(pair[0]).getBalance()).isEqualTo("900");
+            assertThat(accountsService.getAccount(pair[1]).getBalance()).isEqualTo("1100");
+            assertThat(blocked.isDone()).isFalse();
+
+            release.countDown();
+            blocked.get(1, TimeUnit.SECONDS);
+            assertThat(accountsService.getAccount("Id-A1").getBalance()).isEqualTo("900");
+            assertThat(accountsService.getAccount("Id-A2").getBalance()).isEqualTo("1100");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Throughput under contention is measured by the transfer benchmarks; this checks the property it rests on:
+     * transfers between disjoint accounts take only the stripes of their own accounts, so they complete while every
+     * other pair is locked and leave no stripe held behind.
+     */
+    @Test
+    public void transfer_disjointPairsTakeOnlyTheirOwnStripes() throws Exception {
+        int pairs = 8;
+        String[] accountIds = disjointAccounts(pairs * 2);
+        for (String accountId : accountIds) {
+            accountsService.createAccount(new Account(accountId, new BigDecimal(TRANSFERS_PER_THREAD)));
+        }
+        int[][] pairStripes = new int[pairs][];
+        Set<Integer> allStripes = new HashSet<>();
+        for (int p = 0; p < pairs; p++) {
+            pairStripes[p] = accountLocks.orderedStripes(accountIds[2 * p], accountIds[2 * p + 1]);
+            assertThat(pairStripes[p]).hasSize(2);
+            for (int stripe : pairStripes[p]) {
+                assertThat(allStripes.add(stripe)).isTrue();
+            }
+        }
+
+        for (int p = 0; p < pairs; p++) {
+            List<String> others = new ArrayList<>();
+            for (int q = 0; q < pairs; q++) {
+                if (q != p) {
+                    others.add(accountIds[2 * q]);
+                    others.add(accountIds[2 * q + 1]);
+                }
+            }
+            Transaction transaction = new Transaction(accountIds[2 * p], accountIds[2 * p + 1], BigDecimal.ONE);
+            whileHeld(accountLocks.orderedStripes(others.toArray(new String[0])),
+                    () -> transactionService.transferMoney(transaction));
+        }
+
+        runDisjointTransfers(accountIds, pairs);
+        for (int stripe : allStripes) {
+            assertThat(accountLocks.isLocked(stripe)).isFalse();
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (String accountId : accountIds) {
+            total = total.add(accountsService.getAccount(accountId).getBalance());
+        }
+        assertThat(total).isEqualTo(new BigDecimal(TRANSFERS_PER_THREAD * pairs * 2));
+    }
+
+    /**
+     * Runs the action while another thread holds the stripes, failing if it does not complete within a second.
+     */
+    private void whileHeld(int[] stripes, Runnable action) throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> {
+                accountLocks.tryLock(stripes, 1, TimeUnit.SECONDS);
+                locked.countDown();
+                try {
+                    release.await();
+                } finally {
+                    accountLocks.unlock(stripes);
+                }
+                return null;
+            });
+            assertThat(locked.await(1, TimeUnit.SECONDS)).isTrue();
+            executor.submit(action).get(1, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Each thread owns one pair of accounts and moves money back and forth between them, so no two threads ever
+     * touch the same account or lock stripe.
+     */
+    private void runDisjointTransfers(String[] accountIds, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Transaction forth = new Transaction(accountIds[2 * t], accountIds[2 * t + 1], BigDecimal.ONE);
+            Transaction back = new Transaction(accountIds[2 * t + 1], accountIds[2 * t], BigDecimal.ONE);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    try {
+                        transactionService.transferMoney(i % 2 == 0 ? forth : back);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertThat(failures.get()).isZero();
+    }
+
+    private String[] disjointPair(String... taken) {
+        return disjointAccounts(2, taken);
+    }
+
+    /**
+     * @return ids of accounts on distinct lock stripes, none of them a stripe of the taken accounts
+     */
+    private String[] disjointAccounts(int count, String... taken) {
+        Set<Integer> usedStripes = new HashSet<>();
+        for (int stripe : accountLocks.orderedStripes(taken)) {
+            usedStripes.add(stripe);
+        }
+        String[] accountIds = new String[count];
+        int found = 0;
+        for (int i = 0; found < count; i++) {
+            String candidate = "Id-B" + i;
+            if (usedStripes.add(accountLocks.stripeOf(candidate))) {
+                accountIds[found++] = candidate;
+            }
+        }
+        return accountIds;
+    }
+}
@@ -15,6 +15,7 @@ import org.springframework.test.context.junit4.SpringRunner;
 import java.math.BigDecimal;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 @RunWith(SpringRunner.class)
@@ -75,5 +76,18 @@ public class TransactionServiceTest {
         }
     }
 
+    @Test
+    public void deposit_FailNonPositiveAmount(){
+        Account accTo = createToAccount();
+        try {
+            transactionService.deposit(accToId, new BigDecimal("-1"));
+            fail("Deposit of a negative amount should have failed");
+        }catch (InvalidArgumentException ex){
+            assertThat(ex.getMessage()).isEqualTo("Invalid amount [-1], amount must be positive");
+        }
+        transactionService.deposit(accToId, new BigDecimal("0.50"));
+        assertThat(accTo.getBalance()).isEqualByComparingTo("500.50");
+    }
+
 
 }